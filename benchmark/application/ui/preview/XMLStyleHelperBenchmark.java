@@ -0,0 +1,70 @@
+package application.ui.preview;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.fxmisc.richtext.model.StyleSpans;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the single pass highlighting of {@link XMLStyleHelper} with the
+ * regex based highlighting. Run with <code>gradlew jmh</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class XMLStyleHelperBenchmark {
+	@Param({"100000", "3000000"})
+	private int size;
+	private String text;
+
+	@Setup
+	public void setup() {
+		text = generate(size);
+	}
+
+	@Benchmark
+	public StyleSpans<Collection<String>> singlePass() {
+		return XMLStyleHelper.computeHighlighting(text);
+	}
+
+	@Benchmark
+	public StyleSpans<Collection<String>> regex() {
+		return RegexXMLStyleHelper.computeHighlighting(text);
+	}
+
+	// Creates a DTBook-like document of about the specified size, in characters
+	static String generate(int size) {
+		StringBuilder sb = new StringBuilder(size+1000);
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		sb.append("<dtbook xmlns=\"http://www.daisy.org/z3986/2005/dtbook/\" version=\"2005-3\" xml:lang=\"en\">\n");
+		sb.append("<book>\n<bodymatter>\n");
+		for (int i=1; sb.length()<size; i++) {
+			sb.append("<level1 id=\"l").append(i).append("\">\n");
+			sb.append("<!-- Chapter ").append(i).append(" -->\n");
+			sb.append("<h1 id=\"h").append(i).append("\">Chapter ").append(i).append("</h1>\n");
+			for (int j=0; j<10; j++) {
+				sb.append("<p id=\"p").append(i).append('-').append(j).append("\" class=\"indented\">")
+					.append("Some text with an entity &amp; <em>emphasis</em>, a <span xml:lang=\"sv\">foreign word</span>")
+					.append(" and a page break <pagenum id=\"page").append(i*10+j).append("\" page=\"normal\">")
+					.append(i*10+j).append("</pagenum> in it.<br/></p>\n");
+			}
+			sb.append("</level1>\n");
+		}
+		sb.append("</bodymatter>\n</book>\n</dtbook>\n");
+		return sb.toString();
+	}
+}
@@ -39,7 +39,69 @@ public enum FeatureSwitch {
 	 * When on, import allows importing of the target format, if some enhancing tasks are available 
 	 * for the target format.
 	 */
-	IMPORT_TARGET_FORMAT("on".equalsIgnoreCase(System.getProperty("application.feature.import-target-format", "off")))
+	IMPORT_TARGET_FORMAT("on".equalsIgnoreCase(System.getProperty("application.feature.import-target-format", "off"))),
+	/**
+	 * When on, the volumes of a PEF-file are rendered in parallel in the preview.
+	 */
+	PARALLEL_PREVIEW("on".equalsIgnoreCase(System.getProperty("application.feature.parallel-preview", "on"))),
+	/**
+	 * When on, the preview of a volume is served while the volume is being rendered.
+	 */
+	STREAMING_PREVIEW("on".equalsIgnoreCase(System.getProperty("application.feature.streaming-preview", "on"))),
+	/**
+	 * When on, rendered preview volumes are cached on disk.
+	 */
+	PREVIEW_CACHE("on".equalsIgnoreCase(System.getProperty("application.feature.preview-cache", "on"))),
+	/**
+	 * When on, the text view of the preview is created in the browser when a page is shown,
+	 * instead of being included in the preview.
+	 */
+	LAZY_TEXT_VIEW("on".equalsIgnoreCase(System.getProperty("application.feature.lazy-text-view", "on"))),
+	/**
+	 * When on, the navigation and the information about the book are loaded by the preview
+	 * once per book, instead of being included in every volume.
+	 */
+	SHARED_NAVIGATION("on".equalsIgnoreCase(System.getProperty("application.feature.shared-navigation", "on"))),
+	/**
+	 * When on, the preview sets row heights with style classes and pads only one row
+	 * on each page, instead of styling and padding every row.
+	 */
+	COMPACT_PREVIEW("on".equalsIgnoreCase(System.getProperty("application.feature.compact-preview", "on"))),
+	/**
+	 * When on, an index of the volumes and pages of a PEF-file is stored next to the
+	 * preview cache and used instead of scanning the file.
+	 */
+	PAGE_INDEX("on".equalsIgnoreCase(System.getProperty("application.feature.page-index", "on"))),
+	/**
+	 * When on, the preview only contains the pages near the visible part of the volume.
+	 * The other pages are loaded when they are shown. Requires {@link #PAGE_INDEX}.
+	 */
+	VIRTUAL_PREVIEW("on".equalsIgnoreCase(System.getProperty("application.feature.virtual-preview", "off"))),
+	/**
+	 * When on, the preview is only reloaded if the content that is shown has changed.
+	 */
+	CONDITIONAL_RELOAD("on".equalsIgnoreCase(System.getProperty("application.feature.conditional-reload", "on"))),
+	/**
+	 * When on, the previews of all open books are served by one server, instead of
+	 * one server per book.
+	 */
+	SHARED_PREVIEW_SERVER("on".equalsIgnoreCase(System.getProperty("application.feature.shared-preview-server", "on"))),
+	/**
+	 * When on, the editor highlights only the edited part of an XML-file, and files of any size are highlighted.
+	 */
+	INCREMENTAL_HIGHLIGHTING("on".equalsIgnoreCase(System.getProperty("application.feature.incremental-highlighting", "on"))),
+	/**
+	 * When on, large files are shown read-only in the editor, a part at a time, instead of being read into memory.
+	 */
+	LARGE_FILE_MODE("on".equalsIgnoreCase(System.getProperty("application.feature.large-file-mode", "on"))),
+	/**
+	 * When on, the editor reads files in the background and shows the text as it is read.
+	 */
+	ASYNC_LOADING("on".equalsIgnoreCase(System.getProperty("application.feature.async-loading", "on"))),
+	/**
+	 * When on, the editor searches the text on a background thread.
+	 */
+	BACKGROUND_SEARCH("on".equalsIgnoreCase(System.getProperty("application.feature.background-search", "on")))
 	;
 
 	private final boolean on;
@@ -68,6 +68,7 @@ import application.ui.library.SearchController;
 import application.ui.prefs.PreferencesView;
 import application.ui.preview.EditorWrapperController;
 import application.ui.preview.FileDetailsCatalog;
+import application.ui.preview.server.PreviewServer;
 import application.ui.preview.server.StartupDetails;
 import application.ui.template.TemplateView;
 import application.ui.tools.CharacterToolController;
@@ -1050,6 +1051,7 @@ public class MainController {
 			.filter(n->(n instanceof Editor))
 			.map(n->(Editor)n)
 			.forEach(v->v.closing());
+			PreviewServer.shutdown();
 		}
 		return confirmsShutdown;
 	}
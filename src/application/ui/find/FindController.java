@@ -30,6 +30,8 @@ public class FindController {
 	@FXML private StackPane dirStackPane;
 	@FXML private CheckBox caseSensitiveCheckbox;
 	@FXML private CheckBox wrapCheckbox;
+	@FXML private CheckBox regexCheckbox;
+	@FXML private CheckBox wholeWordsCheckbox;
 	@FXML private ToggleGroup directionToggleGroup;
 	@FXML private RadioButton forwardRadioButton;
 	@FXML private RadioButton backwardRadioButton;
@@ -77,6 +79,8 @@ public class FindController {
 		dirStackPane.setDisable(!capabilities.supportsSearchDirection());
 		caseSensitiveCheckbox.setDisable(!capabilities.supportsCaseMatching());
 		wrapCheckbox.setDisable(!capabilities.supportsWrapping());
+		regexCheckbox.setDisable(!capabilities.supportsRegex());
+		wholeWordsCheckbox.setDisable(!capabilities.supportsWholeWords());
 		findButton.setDisable(!capabilities.supportsFind());
 		findField.setDisable(!capabilities.supportsFind());
 		replaceButton.setDisable(!capabilities.supportsReplace());
@@ -88,6 +92,8 @@ public class FindController {
 		return new SearchOptions.Builder()
 				.matchCase(caseSensitiveCheckbox.isSelected())
 				.wrapAround(wrapCheckbox.isSelected())
+				.regex(regexCheckbox.isSelected() && !regexCheckbox.isDisabled())
+				.wholeWords(wholeWordsCheckbox.isSelected() && !wholeWordsCheckbox.isDisabled())
 				.reverseSearch((Boolean)directionToggleGroup.getSelectedToggle().getUserData())
 				.build();
 	}
@@ -59,6 +59,7 @@ public abstract class AbstractHtmlController extends BorderPane implements Opena
 	protected final StringProperty urlProperty;
 	private boolean closing;
 	private File source;
+	private DocumentWatcher watcher;
 
 	AbstractHtmlController() {
 		try {
@@ -90,12 +91,10 @@ public abstract class AbstractHtmlController extends BorderPane implements Opena
 	@Override
 	public Consumer<File> open(File file) {
 		this.source = file;
-		Thread wth = null;
 		if (file!=null) {
 			ReloadDocumentWatcher watcher = new ReloadDocumentWatcher(file);
-			wth = new Thread(watcher);
-			wth.setDaemon(true);
-			wth.start();
+			this.watcher = watcher;
+			watcher.start();
 			return f2 -> {
 				watcher.trigger();
 			};
@@ -133,6 +132,9 @@ public abstract class AbstractHtmlController extends BorderPane implements Opena
 	 */
 	public void closing() {
 		closing = true;
+		if (watcher!=null) {
+			watcher.stop();
+		}
 	}
 	
 	@Override
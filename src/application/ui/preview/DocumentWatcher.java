@@ -4,39 +4,30 @@ import java.io.File;
 import java.util.logging.Logger;
 
 /**
- * Provides a runnable that performs an action whenever
+ * Provides a watcher that performs an action whenever
  * the specified file's modified date is updated to a later
- * date.
+ * date. The file is watched by the {@link FileWatchHub}.
  * @author Joel Håkansson
  *
  */
-abstract class DocumentWatcher implements Runnable {
+abstract class DocumentWatcher {
 	private static final Logger logger = Logger.getLogger(DocumentWatcher.class.getCanonicalName());
-	private final Object lock = new Object();
 	protected final File file;
-	private final long pollTime;
 	private long modified;
+	private FileWatchHub.Subscription subscription;
+	private boolean stopped;
 
 	/**
 	 * Creates a new document watcher for the specified file.
 	 * @param input the file to watch
 	 */
 	DocumentWatcher(File input) {
-		this(input, 1000);
-	}
-
-	/**
-	 * Creates a new document watcher for the specified file and 
-	 * poll time.
-	 * @param input the file to watch
-	 * @param pollTime the time to sleep between polling, in milliseconds
-	 */
-	DocumentWatcher(File input, long pollTime) {
 		this.file = input;
-		this.pollTime = pollTime;
 		this.modified = input.lastModified();
+		this.subscription = null;
+		this.stopped = false;
 	}
-	
+
 	/**
 	 * Returns true if the watcher should stay alive. Unless overridden,
 	 * the file should be monitored as long as it exists.
@@ -55,39 +46,49 @@ abstract class DocumentWatcher implements Runnable {
 	boolean shouldPerformAction() {
 		return file.exists() && modified<file.lastModified();
 	}
-	
+
 	/**
 	 * Performs the action.
 	 */
 	abstract void performAction();
 
-	@Override
-	public void run() { 
-		while (shouldMonitor()) {
-			if (shouldPerformAction()) {
-				modified = file.lastModified();
-				logger.fine("Updating " + file.getAbsolutePath());
-				performAction();
-				logger.info("Waiting for changes in " + file);
-			}
-			try {
-				synchronized (lock) {
-					lock.wait(pollTime);
-				}
-			} catch (InterruptedException e) {
-				Thread.currentThread().interrupt();
-				break;
-			}
+	/**
+	 * Starts watching the file. The action is performed immediately, if it should be.
+	 */
+	synchronized void start() {
+		subscription = FileWatchHub.getInstance().subscribe(file, this::check);
+		trigger();
+	}
+
+	/**
+	 * Stops watching the file.
+	 */
+	synchronized void stop() {
+		stopped = true;
+		if (subscription!=null) {
+			subscription.cancel();
+			logger.info("Removing watcher on " + file);
 		}
-		logger.info("Removing watcher on " + file);
 	}
-	
+
+	private synchronized void check() {
+		if (stopped) {
+			return;
+		}
+		if (!shouldMonitor()) {
+			stop();
+		} else if (shouldPerformAction()) {
+			modified = file.lastModified();
+			logger.fine("Updating " + file.getAbsolutePath());
+			performAction();
+			logger.info("Waiting for changes in " + file);
+		}
+	}
+
 	/**
 	 * Triggers the action now, if the action should be performed.
 	 */
 	public void trigger() {
-		synchronized (lock) {
-			lock.notifyAll();
-		}
+		FileWatchHub.getInstance().execute(this::check);
 	}
-}
\ No newline at end of file
+}
@@ -88,6 +88,7 @@ public class DotifyController extends BorderPane implements Converter {
 	private Set<UserOption> values;
 	private boolean closing;
 	private ExecutorService exeService;
+	private SourceDocumentWatcher watcher;
 	private BooleanProperty showOptions;
 	private BooleanProperty canRequestUpdate;
 	private String locale;
@@ -133,19 +134,17 @@ public class DotifyController extends BorderPane implements Converter {
 		canRequestUpdate = new SimpleBooleanProperty(false);
 		setRunning(0);
 		overrideParameters.setValue(options);
-		Thread th;
 		if (FeatureSwitch.PROCESS_FILE_SET.isOn()) {
 			this.outFolder = BaseFolder.with(PathTools.createTempFolder());
-			th = new Thread(new SourceDocumentWatcher(selected, outFolder, outputFormat, onSuccess));
+			watcher = new SourceDocumentWatcher(selected, outFolder, outputFormat, onSuccess);
 		} else {
 			this.outFolder = null;
 			File outFile = File.createTempFile("dotify-studio", "."+outputFormat.getExtension());
 			outFile.deleteOnExit();
-			th = new Thread(new SourceDocumentWatcher(selected, outFile, outputFormat, onSuccess));
+			watcher = new SourceDocumentWatcher(selected, outFile, outputFormat, onSuccess);
 		}
-		th.setDaemon(true);
-		th.start();
 		requestRefresh();
+		watcher.start();
 	}
 	
 	/**
@@ -288,6 +287,9 @@ public class DotifyController extends BorderPane implements Converter {
 		refreshRequested = true;
 		canRequestUpdate.set(false);
 		setRunning(0);
+		if (watcher!=null) {
+			watcher.trigger();
+		}
 	}
 	
 	@Override
@@ -346,6 +348,7 @@ public class DotifyController extends BorderPane implements Converter {
 	
 	public void closing() {
 		closing = true;
+		watcher.stop();
 		if (canRequestUpdate.get()) {
 			new Thread(()->{
 				deleteOutputFolder();
@@ -450,6 +453,8 @@ public class DotifyController extends BorderPane implements Converter {
 					isRunning = false;
 					setRunning(1);
 					canRequestUpdate.set(true);
+					// Changes made while running
+					trigger();
 					logger.log(Level.WARNING, "Update failed.", dt.getException());
 					Alert alert = new Alert(AlertType.ERROR, dt.getException().toString(), ButtonType.OK);
 					alert.showAndWait();
@@ -472,6 +477,9 @@ public class DotifyController extends BorderPane implements Converter {
 						canRequestUpdate.set(true);
 						if (closing) {
 							deleteOutputFolder();
+						} else {
+							// Changes made while running
+							trigger();
 						}
 					});
 				});
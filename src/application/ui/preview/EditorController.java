@@ -10,7 +10,9 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -21,8 +23,8 @@ import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import javax.xml.transform.Source;
 import javax.xml.transform.TransformerFactory;
@@ -46,6 +48,8 @@ import org.daisy.streamline.api.validity.ValidatorFactoryMakerService;
 import org.fxmisc.flowless.VirtualizedScrollPane;
 import org.fxmisc.richtext.CodeArea;
 import org.fxmisc.richtext.LineNumberFactory;
+import org.fxmisc.richtext.Selection;
+import org.fxmisc.richtext.SelectionImpl;
 import org.fxmisc.richtext.model.StyleSpans;
 import org.xml.sax.InputSource;
 
@@ -68,6 +72,7 @@ import javafx.beans.value.ObservableObjectValue;
 import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
+import javafx.geometry.Orientation;
 import javafx.geometry.Point2D;
 import javafx.scene.Node;
 import javafx.scene.control.Alert;
@@ -75,6 +80,8 @@ import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.control.ScrollBar;
 import javafx.scene.control.ScrollPane.ScrollBarPolicy;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
@@ -92,14 +99,20 @@ public class EditorController extends BorderPane implements OpenableEditor {
 	private static final char BYTE_ORDER_MARK = '\uFEFF';
 	private static final int SYNTAX_HIGHLIGHTING_SIZE_LIMIT = 3_100_000; // This value has been tested
 	private static final int VALIDATION_SIZE_LIMIT = 10_000_000; // This value is not tested, a lower or higher value may be better
-	private static final int SIZE_WARNING_LIMIT = Math.min(SYNTAX_HIGHLIGHTING_SIZE_LIMIT, VALIDATION_SIZE_LIMIT);
+	// Files larger than this (in bytes) are shown read-only, a part at a time
+	private static final long LARGE_FILE_SIZE_LIMIT = 32_000_000;
+	private static final int HEAD_SIZE = 4096;
+	private static final int MAX_MATCH_HIGHLIGHTS = 500;
+	private static final int SIZE_WARNING_LIMIT = FeatureSwitch.INCREMENTAL_HIGHLIGHTING.isOn()?VALIDATION_SIZE_LIMIT:Math.min(SYNTAX_HIGHLIGHTING_SIZE_LIMIT, VALIDATION_SIZE_LIMIT);
 	private static final ReadOnlyObjectProperty<SearchCapabilities> SEARCH_CAPABILITIES = new SimpleObjectProperty<>(
 			new SearchCapabilities.Builder()
-			.direction(false)
+			.direction(true)
 			.matchCase(true)
 			.wrap(true)
 			.find(true)
 			.replace(true)
+			.regex(true)
+			.wholeWords(true)
 			.build()
 	);
 
@@ -109,9 +122,22 @@ public class EditorController extends BorderPane implements OpenableEditor {
 	@FXML CheckBox autosave;
 	@FXML Label encodingLabel;
 	@FXML Label bomLabel;
+	@FXML Label readOnlyLabel;
+	@FXML ProgressBar progressBar;
 	@FXML HBox xmlTools;
 	private CodeArea codeArea;
 	private VirtualizedScrollPane<CodeArea> scrollPane;
+	private ScrollBar fileScrollBar;
+	private PagedTextView pagedView;
+	private Task<Void> indexTask;
+	private LoadTextTask loadTask;
+	// The text for the current version of the document, or null if it hasn't been needed
+	private String snapshot;
+	private TextSearch searchResult;
+	private Task<TextSearch> searchTask;
+	private Pattern searchPattern;
+	private SearchOptions searchOptions;
+	private final List<Selection<Collection<String>, String, Collection<String>>> matchHighlights = new ArrayList<>();
 	private FileInfo fileInfo = new FileInfo.Builder((File)null).build();
 	private ObjectProperty<FileDetails> fileDetails = new SimpleObjectProperty<>();
 	private ObjectProperty<Optional<ValidationReport>> validationReport = new SimpleObjectProperty<>(Optional.empty());
@@ -126,6 +152,7 @@ public class EditorController extends BorderPane implements OpenableEditor {
 	private final BindingStore bindings;
 	private final boolean readOnly;
 	private ChangeWatcher changeWatcher;
+	private IncrementalHighlighter highlighter;
 	private boolean needsUpdate = false;
 	private Long lastSaved = 0l;
 	private boolean closing = false;
@@ -176,20 +203,28 @@ public class EditorController extends BorderPane implements OpenableEditor {
 				askForUpdate();
 			}
 		});
-		codeArea.richChanges()
-			.filter(ch -> !ch.getInserted().equals(ch.getRemoved()))
-			.successionEnds(Duration.ofMillis(500))
-			.supplyTask(this::computeHighlightingAsync)
-			.awaitLatest(codeArea.richChanges())
-			.filterMap(t -> {
-				if(t.isSuccess()) {
-					return Optional.of(t.get());
-				} else {
-					t.getFailure().printStackTrace();
-					return Optional.empty();
-				}
-			})
-			.subscribe(this::applyHighlighting);
+		if (FeatureSwitch.INCREMENTAL_HIGHLIGHTING.isOn()) {
+			highlighter = new IncrementalHighlighter(codeArea);
+		} else {
+			codeArea.richChanges()
+				.filter(ch -> !ch.getInserted().equals(ch.getRemoved()))
+				.successionEnds(Duration.ofMillis(500))
+				.supplyTask(this::computeHighlightingAsync)
+				.awaitLatest(codeArea.richChanges())
+				.filterMap(t -> {
+					if(t.isSuccess()) {
+						return Optional.of(t.get());
+					} else {
+						t.getFailure().printStackTrace();
+						return Optional.empty();
+					}
+				})
+				.subscribe(this::applyHighlighting);
+		}
+		codeArea.plainTextChanges().subscribe(ch -> textChanged());
+		codeArea.estimatedScrollYProperty().values()
+			.successionEnds(Duration.ofMillis(100))
+			.subscribe(v -> highlightMatches());
 		codeArea.richChanges()
 			.filter(ch -> !ch.getInserted().equals(ch.getRemoved()))
 			.successionEnds(Duration.ofMillis(1200))
@@ -217,12 +252,20 @@ public class EditorController extends BorderPane implements OpenableEditor {
 		modifiedProperty.bind(bindings.add(atMarkProperty.not().or(hasCancelledUpdateProperty)));
 		canSaveProperty.bind(bindings.add(isLoadedProperty.and(modifiedProperty)));
 		scrollPane = new VirtualizedScrollPane<>(codeArea);
+		fileScrollBar = new ScrollBar();
+		fileScrollBar.setOrientation(Orientation.VERTICAL);
+		fileScrollBar.managedProperty().bind(fileScrollBar.visibleProperty());
+		fileScrollBar.setVisible(false);
+		pagedView = new PagedTextView(codeArea, fileScrollBar);
+		readOnlyLabel.managedProperty().bind(readOnlyLabel.visibleProperty());
+		progressBar.managedProperty().bind(progressBar.visibleProperty());
 		lineNumbers.setSelected(Settings.getSettings().shouldShowLineNumbers());
 		toggleLineNumbers();
 		wordWrap.setSelected(Settings.getSettings().shouldWrapLines());
 		toggleWordWrap();
 		
 		setCenter(scrollPane);
+		setRight(fileScrollBar);
 	}
 	
 	public static boolean supportsFormat(FileDetails editorFormat) {
@@ -234,7 +277,7 @@ public class EditorController extends BorderPane implements OpenableEditor {
 	
 	private Task<Optional<ValidationReport>> computeValidationAsync() {
 		FileInfo info = fileInfo;
-		boolean run = info.isXml() && codeArea.getLength()<VALIDATION_SIZE_LIMIT;
+		boolean run = info.isXml() && codeArea.getLength()<VALIDATION_SIZE_LIMIT && !isPaged();
 		String text = run?codeArea.getText():"";
 		Task<Optional<ValidationReport>> task = new Task<Optional<ValidationReport>>() {
 			@Override
@@ -324,12 +367,14 @@ public class EditorController extends BorderPane implements OpenableEditor {
 	}
 	
 	private synchronized void requestUpdate() {
-		if (!readOnly) {
+		if (!readOnly && !isPaged()) {
 			needsUpdate = true;
 			if (codeArea.isFocused()) {
 				askForUpdate();
 			}
 		} else {
+			// A large file is read-only and its line index no longer matches the file,
+			// so it's opened again without asking
 			Platform.runLater(()->load(fileInfo.getFile(), fileInfo.isXml(), false));
 		}
 	}
@@ -362,44 +407,182 @@ public class EditorController extends BorderPane implements OpenableEditor {
 		}
 		xmlTools.setVisible(xml);
 		FileInfo.Builder builder = new FileInfo.Builder(f);
-		try {
-			String text = loadData(Files.readAllBytes(f.toPath()), builder, xml);
-			if (text.length()>SIZE_WARNING_LIMIT) {
+		if (loadTask!=null) {
+			loadTask.cancel(true);
+			loadTask = null;
+		}
+		setLargeFile(null);
+		if (FeatureSwitch.LARGE_FILE_MODE.isOn() && f.length()>LARGE_FILE_SIZE_LIMIT) {
+			try {
+				if (openLargeFile(f, builder, xml)) {
+					xmlTools.setVisible(false);
+					isLoadedProperty.set(true);
+					loaded(f, builder);
+					return;
+				}
+			} catch (IOException | XmlEncodingDetectionException e) {
+				logger.warning("Failed to read: " + f);
+				isLoadedProperty.set(false);
+				loaded(f, builder);
+				return;
+			}
+		}
+		boolean newFile = fileInfo==null || !f.equals(fileInfo.getFile());
+		// A new file is shown as it is read, a reload replaces the text in one edit that can be undone
+		boolean stream = FeatureSwitch.ASYNC_LOADING.isOn() && newFile;
+		LoadTextTask task = new LoadTextTask(f, builder, xml, stream?this::appendLoaded:null);
+		task.setOnSucceeded(ev->{
+			if (stream) {
+				while (task.flush()) {
+					// Passes the remaining text to the code area
+				}
+			} else {
+				codeArea.replaceText(0, codeArea.getLength(), task.getValue());
+				codeArea.selectRange(0, 0);
+				if (resetScroll) {
+					codeArea.scrollToPixel(Point2D.ZERO);
+				}
+			}
+			int length = codeArea.getLength();
+			if (length>SIZE_WARNING_LIMIT) {
 				Platform.runLater(()->{
 					Alert alert = new Alert(AlertType.WARNING,
-							Messages.MESSAGE_WARNING_OPENING_LARGE_FILE_IN_EDITOR.localize(text.length()),
+							Messages.MESSAGE_WARNING_OPENING_LARGE_FILE_IN_EDITOR.localize(length),
 							ButtonType.OK);
 					alert.showAndWait();
 				});
 			}
 			codeArea.setEditable(!readOnly);
-			codeArea.replaceText(0, codeArea.getLength(), text);
-			if (fileInfo==null || !f.equals(fileInfo.getFile())) {
+			if (newFile) {
 				codeArea.getUndoManager().forgetHistory();
 			}
 			codeArea.getUndoManager().mark();
+			isLoadedProperty.set(true);
+			loaded(f, builder);
+		});
+		task.setOnFailed(ev->{
+			logger.log(Level.WARNING, "Failed to read: " + f, task.getException());
+			codeArea.setEditable(!readOnly);
+			isLoadedProperty.set(false);
+			loaded(f, builder);
+		});
+		// The text cannot be edited or saved until it has been read
+		codeArea.setEditable(false);
+		isLoadedProperty.set(false);
+		if (stream) {
+			codeArea.clear();
+			codeArea.getUndoManager().forgetHistory();
+			codeArea.getUndoManager().mark();
 			codeArea.selectRange(0, 0);
 			if (resetScroll) {
 				codeArea.scrollToPixel(Point2D.ZERO);
 			}
-			isLoadedProperty.set(true);
-		} catch (IOException | XmlEncodingDetectionException e) {
-			logger.warning("Failed to read: " + f);
-			isLoadedProperty.set(false);
-		} finally {
-			this.fileInfo = builder.build();
-			updateFileInfo(this.fileInfo);
-			// Watch document
-			if (changeWatcher!=null) {
-				changeWatcher.stop();
+		}
+		progressBar.progressProperty().bind(task.progressProperty());
+		progressBar.visibleProperty().bind(task.runningProperty());
+		loadTask = task;
+		if (FeatureSwitch.ASYNC_LOADING.isOn()) {
+			executor.execute(task);
+		} else {
+			task.run();
+		}
+	}
+
+	// Appends text while a new file is read. The text isn't an edit, so it isn't kept in the undo
+	// history and doesn't make the file modified
+	private void appendLoaded(String text) {
+		codeArea.appendText(text);
+		codeArea.getUndoManager().forgetHistory();
+		codeArea.getUndoManager().mark();
+	}
+
+	// Updates the file info and watches the file, after the file has been read or failed to be read
+	private void loaded(File f, FileInfo.Builder builder) {
+		this.fileInfo = builder.build();
+		updateFileInfo(this.fileInfo);
+		// Watch document
+		if (changeWatcher!=null) {
+			changeWatcher.stop();
+		}
+		changeWatcher = new ChangeWatcher(f);
+		changeWatcher.start();
+	}
+
+	/**
+	 * Reads the start of a file, to detect the encoding.
+	 * @param f the file
+	 * @return the first bytes of the file
+	 * @throws IOException if the file cannot be read
+	 */
+	static byte[] readHead(File f) throws IOException {
+		byte[] head = new byte[HEAD_SIZE];
+		int len = 0;
+		try (InputStream is = Files.newInputStream(f.toPath(), StandardOpenOption.READ)) {
+			int n;
+			while (len<head.length && (n = is.read(head, len, head.length-len))>-1) {
+				len += n;
 			}
-			changeWatcher = new ChangeWatcher(f);
-			Thread th = new Thread(changeWatcher);
-			th.setDaemon(true);
-			th.start();
 		}
+		return Arrays.copyOf(head, len);
 	}
-	
+
+	// Opens a file to be shown a part at a time. Returns false if the file's charset isn't supported.
+	private boolean openLargeFile(File f, FileInfo.Builder builder, boolean xml) throws IOException, XmlEncodingDetectionException {
+		loadData(readHead(f), builder, xml);
+		FileInfo info = builder.build();
+		if (!LargeTextFile.supportsCharset(info.getCharset())) {
+			return false;
+		}
+		int start = info.hasBom()?String.valueOf(BYTE_ORDER_MARK).getBytes(info.getCharset()).length:0;
+		setLargeFile(LargeTextFile.open(f, info.getCharset(), start));
+		return true;
+	}
+
+	/**
+	 * Shows a large file a part at a time, while the file is indexed in the background.
+	 * The previous large file, if any, is closed.
+	 * @param value the file, or null to stop showing a large file
+	 */
+	private void setLargeFile(LargeTextFile value) {
+		if (indexTask!=null) {
+			indexTask.cancel(true);
+			indexTask = null;
+		}
+		LargeTextFile previous = pagedView.getFile();
+		if (previous!=null) {
+			try {
+				previous.close();
+			} catch (IOException e) {
+				logger.log(Level.FINE, "Failed to close file.", e);
+			}
+		}
+		boolean paged = value!=null;
+		codeArea.setEditable(!readOnly && !paged);
+		fileScrollBar.setVisible(paged);
+		readOnlyLabel.setVisible(paged);
+		pagedView.setFile(value);
+		if (paged) {
+			Task<Void> task = new Task<Void>() {
+				@Override
+				protected Void call() throws Exception {
+					value.index(v->updateProgress(v, value.getSize()));
+					return null;
+				}
+			};
+			task.progressProperty().addListener((o, ov, nv)->pagedView.updateLineCount());
+			task.setOnSucceeded(ev->pagedView.updateLineCount());
+			progressBar.progressProperty().bind(task.progressProperty());
+			progressBar.visibleProperty().bind(task.runningProperty());
+			indexTask = task;
+			executor.execute(task);
+		}
+		toggleLineNumbers();
+	}
+
+	private boolean isPaged() {
+		return pagedView.getFile()!=null;
+	}
+
 	static String loadData(byte[] data, FileInfo.Builder builder, boolean xml) throws IOException, XmlEncodingDetectionException {
 		builder.xml(xml);
 		Charset encoding;
@@ -427,7 +610,7 @@ public class EditorController extends BorderPane implements OpenableEditor {
 
 	@FXML void toggleLineNumbers() {
 		if (lineNumbers.isSelected()) {
-			codeArea.setParagraphGraphicFactory(LineNumberFactory.get(codeArea));
+			codeArea.setParagraphGraphicFactory(isPaged()?pagedView.lineNumbers():LineNumberFactory.get(codeArea));
 		} else {
 			codeArea.setParagraphGraphicFactory(null);
 		}
@@ -442,7 +625,7 @@ public class EditorController extends BorderPane implements OpenableEditor {
 	}
 	
 	@FXML void correctFormatting() {
-		if (fileInfo.isXml()) {
+		if (fileInfo.isXml() && !isPaged()) {
 			try {
 				FileInfo.Builder builder = FileInfo.with(fileInfo);
 				Source source = new StreamSource(new ByteArrayInputStream(prepareSaveToFile(builder, fileInfo, codeArea.getText())));
@@ -457,32 +640,120 @@ public class EditorController extends BorderPane implements OpenableEditor {
 		}
 	}
 	
+	/**
+	 * Finds the next match. All matches in the document are found at once, on a
+	 * background thread, and the matches in the viewport are highlighted. The result
+	 * is reused until the document is modified, so that repeated searches only have
+	 * to select the next match.
+	 * @param text the text to find
+	 * @param opts the search options
+	 * @return true if a match was selected, or if a search was started that will
+	 * select the match when it has finished. Otherwise, false.
+	 */
 	@Override
 	public boolean findNext(String text, SearchOptions opts) {
-		int pos = codeArea.getCaretPosition();
-		Pattern pattern = Pattern.compile(
-				(opts.shouldMatchCase()?"":"(?i)")
-				+Pattern.quote(text)
-				);
-		Matcher m = pattern.matcher(codeArea.getText());
-		boolean wrap = false;
-		if (m.find(pos) || (opts.shouldWrapAround() && (wrap=m.find(0)))) {
-			int s = m.start();
-			int e = m.end();
-			if (wrap && s > pos) {
-				// no more matches;
-				return false;
+		Pattern pattern;
+		try {
+			pattern = TextSearch.compile(text, opts);
+		} catch (PatternSyntaxException e) {
+			logger.log(Level.FINE, "Invalid pattern: " + text, e);
+			return false;
+		}
+		if (snapshot==null) {
+			snapshot = codeArea.getText();
+		}
+		searchOptions = opts;
+		if (searchResult!=null && searchResult.isSearchOf(snapshot, pattern)) {
+			return selectMatch();
+		}
+		if (searchTask!=null) {
+			if (searchPattern.pattern().equals(pattern.pattern()) && searchPattern.flags()==pattern.flags()) {
+				// The same search is running
+				return true;
 			}
-			codeArea.selectRange(s, e);
-			codeArea.showParagraphInViewport(codeArea.getCurrentParagraph());
-			return true;
+			searchTask.cancel(true);
+			searchTask = null;
+		}
+		String searched = snapshot;
+		if (!FeatureSwitch.BACKGROUND_SEARCH.isOn()) {
+			setSearchResult(TextSearch.search(searched, pattern));
+			return selectMatch();
+		}
+		Task<TextSearch> task = new Task<TextSearch>() {
+			@Override
+			protected TextSearch call() throws Exception {
+				return TextSearch.search(searched, pattern);
+			}
+		};
+		task.setOnSucceeded(ev->{
+			if (searchTask==task) {
+				searchTask = null;
+				setSearchResult(task.getValue());
+				selectMatch();
+			}
+		});
+		searchTask = task;
+		searchPattern = pattern;
+		executor.execute(task);
+		return true;
+	}
+
+	// Selects the next or previous match, according to the latest search options
+	private boolean selectMatch() {
+		TextSearch r = searchResult;
+		int i = searchOptions.shouldReverseSearch()
+				?r.previous(codeArea.getSelection().getStart(), searchOptions.shouldWrapAround())
+				:r.next(codeArea.getCaretPosition(), searchOptions.shouldWrapAround());
+		if (i<0) {
+			return false;
+		}
+		codeArea.selectRange(r.getStart(i), r.getEnd(i));
+		codeArea.showParagraphInViewport(codeArea.getCurrentParagraph());
+		return true;
+	}
+
+	private void setSearchResult(TextSearch value) {
+		searchResult = value;
+		highlightMatches();
+	}
+
+	// Called when the text has changed, the search result no longer applies
+	private void textChanged() {
+		snapshot = null;
+		if (searchTask!=null) {
+			searchTask.cancel(true);
+			searchTask = null;
+		}
+		if (searchResult!=null) {
+			setSearchResult(null);
+		}
+	}
+
+	// Highlights the matches in the viewport
+	private void highlightMatches() {
+		for (Selection<Collection<String>, String, Collection<String>> s : matchHighlights) {
+			codeArea.removeSelection(s);
+			s.dispose();
+		}
+		matchHighlights.clear();
+		TextSearch r = searchResult;
+		if (r==null || r.size()==0 || codeArea.getVisibleParagraphs().isEmpty()) {
+			return;
+		}
+		int last = codeArea.lastVisibleParToAllParIndex();
+		int from = codeArea.getAbsolutePosition(codeArea.firstVisibleParToAllParIndex(), 0);
+		int to = codeArea.getAbsolutePosition(last, codeArea.getParagraphLength(last));
+		for (int i = r.next(from, false); i>-1 && i<r.size() && r.getStart(i)<to && matchHighlights.size()<MAX_MATCH_HIGHLIGHTS; i++) {
+			Selection<Collection<String>, String, Collection<String>> s = new SelectionImpl<>("search-match-" + i, codeArea, path->path.getStyleClass().add("search-match"));
+			s.selectRange(r.getStart(i), r.getEnd(i));
+			codeArea.addSelection(s);
+			matchHighlights.add(s);
 		}
-		return false;
 	}
 	
 	@Override
 	public void replace(String replace) {
-		if (codeArea.getSelection().getLength()>0) {
+		if (codeArea.getSelection().getLength()>0 && codeArea.isEditable()) {
 			codeArea.replaceSelection(replace);
 		}
 	}
@@ -501,7 +772,12 @@ public class EditorController extends BorderPane implements OpenableEditor {
 
 	@Override
 	public boolean saveAs(File f) throws IOException {
-		if (confirmSave()) {
+		if (isPaged()) {
+			// The file cannot be modified in this mode
+			Files.copy(fileInfo.getFile().toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			load(f, fileInfo.isXml(), false);
+			return true;
+		} else if (confirmSave()) {
 			updateFileInfo(saveToFileSynchronized(f, fileInfo, codeArea.getText()));
 			return true;
 		} else {
@@ -536,6 +812,9 @@ public class EditorController extends BorderPane implements OpenableEditor {
 	
 	private void updateFileInfo(FileInfo fileInfo) {
 		this.fileInfo = fileInfo;
+		if (highlighter!=null) {
+			highlighter.setEnabled(fileInfo.isXml());
+		}
 		fileDetails.set(IdentityProvider.newInstance().identify(fileInfo.getFile()));
 		encodingLabel.setText(fileInfo.getCharset().name());
 		bomLabel.setText(fileInfo.hasBom()?"BOM":"");
@@ -625,7 +904,14 @@ public class EditorController extends BorderPane implements OpenableEditor {
 	@Override
 	public void closing() {
 		closing = true;
+		if (loadTask!=null) {
+			loadTask.cancel(true);
+		}
+		setLargeFile(null);
 		executor.shutdown();
+		if (changeWatcher!=null) {
+			changeWatcher.stop();
+		}
 	}
 
 	@Override
@@ -672,7 +958,6 @@ public class EditorController extends BorderPane implements OpenableEditor {
 	}; 
 
 	private class ChangeWatcher extends DocumentWatcher {
-		private boolean shouldMonitor = true;
 
 		ChangeWatcher(File f) {
 			super(f);
@@ -680,7 +965,7 @@ public class EditorController extends BorderPane implements OpenableEditor {
 
 		@Override
 		boolean shouldMonitor() {
-			return super.shouldMonitor() && !closing && shouldMonitor && file==fileInfo.getFile();
+			return super.shouldMonitor() && !closing && file==fileInfo.getFile();
 		}
 
 		@Override
@@ -689,10 +974,6 @@ public class EditorController extends BorderPane implements OpenableEditor {
 				return super.shouldPerformAction() && lastSaved<file.lastModified();
 			}
 		}
-		
-		private void stop() {
-			this.shouldMonitor = false;
-		}
 
 		@Override
 		void performAction() {
@@ -735,7 +1016,10 @@ public class EditorController extends BorderPane implements OpenableEditor {
 
 	@Override
 	public boolean scrollTo(DocumentPosition msg) {
-		if (msg.getLineNumber()>-1) {
+		if (msg.getLineNumber()>-1 && isPaged()) {
+			pagedView.showLine(msg.getLineNumber()-1, Math.max(msg.getColumnNumber()-1, 0));
+			return true;
+		} else if (msg.getLineNumber()>-1) {
 			codeArea.moveTo(msg.getLineNumber()-1, Math.max(msg.getColumnNumber()-1, 0));
 			codeArea.requestFollowCaret();
 			return true;
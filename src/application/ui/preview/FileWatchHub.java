@@ -0,0 +1,275 @@
+package application.ui.preview;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Notifies subscribers about changes to files. This replaces a polling thread
+ * per file with a single {@link WatchService} for the application. Nothing runs
+ * until a file in a watched folder changes.</p>
+ *
+ * <p>Events are collected until none have arrived for {@value #DEBOUNCE_TIME} ms, but
+ * for at most {@value #MAX_DELAY} ms. Each subscriber is then notified once, however
+ * many events concerned its file. Subscribers are notified on a single thread.</p>
+ *
+ * <p>Files are polled instead if the folder containing them can't be watched, or if
+ * the file system doesn't provide native events.</p>
+ */
+final class FileWatchHub {
+	private static final Logger logger = Logger.getLogger(FileWatchHub.class.getCanonicalName());
+	private static final long DEBOUNCE_TIME = 100;
+	private static final long MAX_DELAY = 1000;
+	private static final long POLL_TIME = 1000;
+	private static FileWatchHub instance;
+	private final WatchService watcher;
+	// Subscriptions notified by the watch service, by folder
+	private final Map<Path, Set<Subscription>> watched;
+	private final Map<Path, WatchKey> keys;
+	// Subscriptions notified by polling
+	private final Set<Subscription> polled;
+	private final ExecutorService dispatcher;
+	private ScheduledExecutorService poller;
+	private ScheduledFuture<?> pollTask;
+
+	/**
+	 * Provides a subscription to the changes of a file.
+	 */
+	final class Subscription {
+		private final Path dir;
+		private final Path name;
+		private final File file;
+		private final Runnable listener;
+		private long modified;
+		private long length;
+
+		private Subscription(File file, Runnable listener) {
+			Path p = file.toPath().toAbsolutePath();
+			this.dir = p.getParent();
+			this.name = p.getFileName();
+			this.file = file;
+			this.listener = listener;
+			this.modified = file.lastModified();
+			this.length = file.length();
+		}
+
+		/**
+		 * Stops the notifications. Notifications that have already been dispatched
+		 * may still be delivered.
+		 */
+		void cancel() {
+			FileWatchHub.this.cancel(this);
+		}
+
+		// Returns true if the file has been modified since the previous call
+		private boolean poll() {
+			long m = file.lastModified();
+			long l = file.length();
+			boolean ret = m!=modified || l!=length;
+			modified = m;
+			length = l;
+			return ret;
+		}
+	}
+
+	private FileWatchHub() {
+		this.watched = new HashMap<>();
+		this.keys = new HashMap<>();
+		this.polled = new LinkedHashSet<>();
+		this.dispatcher = Executors.newSingleThreadExecutor(r->daemon(r, "File watch dispatcher"));
+		this.poller = null;
+		this.pollTask = null;
+		this.watcher = newWatchService();
+		if (watcher!=null) {
+			daemon(this::watch, "File watcher").start();
+		}
+	}
+
+	private static WatchService newWatchService() {
+		try {
+			WatchService ret = FileSystems.getDefault().newWatchService();
+			// The fallback implementation of the JDK polls every ten seconds, polling is faster
+			if (ret.getClass().getSimpleName().startsWith("Polling")) {
+				ret.close();
+				return null;
+			}
+			return ret;
+		} catch (IOException | UnsupportedOperationException e) {
+			logger.log(Level.INFO, "File system events are not available, polling files instead.", e);
+			return null;
+		}
+	}
+
+	private static Thread daemon(Runnable r, String name) {
+		Thread th = new Thread(r, name);
+		th.setDaemon(true);
+		return th;
+	}
+
+	/**
+	 * Gets the instance shared by the application.
+	 * @return the instance
+	 */
+	static synchronized FileWatchHub getInstance() {
+		if (instance==null) {
+			instance = new FileWatchHub();
+		}
+		return instance;
+	}
+
+	/**
+	 * Subscribes to the changes of a file. The file doesn't have to exist, but the folder
+	 * containing it must exist to be watched without polling.
+	 * @param file the file
+	 * @param listener the listener to notify when the file may have changed
+	 * @return the subscription
+	 */
+	synchronized Subscription subscribe(File file, Runnable listener) {
+		Subscription s = new Subscription(file, listener);
+		Set<Subscription> subs = s.dir!=null?watched.get(s.dir):null;
+		if (subs!=null) {
+			subs.add(s);
+		} else if (watcher!=null && s.dir!=null && register(s.dir)) {
+			subs = new LinkedHashSet<>();
+			subs.add(s);
+			watched.put(s.dir, subs);
+		} else {
+			polled.add(s);
+			if (pollTask==null) {
+				if (poller==null) {
+					poller = Executors.newSingleThreadScheduledExecutor(r->daemon(r, "File poller"));
+				}
+				pollTask = poller.scheduleWithFixedDelay(this::pollFiles, POLL_TIME, POLL_TIME, TimeUnit.MILLISECONDS);
+			}
+		}
+		return s;
+	}
+
+	private boolean register(Path dir) {
+		try {
+			keys.put(dir, dir.register(watcher,
+					StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY,
+					StandardWatchEventKinds.ENTRY_DELETE));
+			return true;
+		} catch (IOException | UnsupportedOperationException | ClosedWatchServiceException e) {
+			logger.log(Level.FINE, "Cannot watch " + dir + ", polling instead.", e);
+			return false;
+		}
+	}
+
+	private synchronized void cancel(Subscription s) {
+		Set<Subscription> subs = watched.get(s.dir);
+		if (subs!=null && subs.remove(s) && subs.isEmpty()) {
+			watched.remove(s.dir);
+			keys.remove(s.dir).cancel();
+		}
+		if (polled.remove(s) && polled.isEmpty()) {
+			// Stops polling until there is something to poll
+			pollTask.cancel(false);
+			pollTask = null;
+		}
+	}
+
+	/**
+	 * Runs a task on the thread that notifies subscribers.
+	 * @param task the task
+	 */
+	void execute(Runnable task) {
+		dispatcher.execute(task);
+	}
+
+	private void dispatch(Set<Subscription> subs) {
+		for (Subscription s : subs) {
+			dispatcher.execute(()->{
+				try {
+					s.listener.run();
+				} catch (RuntimeException e) {
+					logger.log(Level.WARNING, "Failed to notify about changes to " + s.file, e);
+				}
+			});
+		}
+	}
+
+	private void pollFiles() {
+		List<Subscription> subs;
+		synchronized (this) {
+			subs = new ArrayList<>(polled);
+		}
+		Set<Subscription> changed = new LinkedHashSet<>();
+		for (Subscription s : subs) {
+			if (s.poll()) {
+				changed.add(s);
+			}
+		}
+		dispatch(changed);
+	}
+
+	private void watch() {
+		Set<Subscription> pending = new LinkedHashSet<>();
+		long since = 0;
+		while (true) {
+			try {
+				// Waits without a time limit, unless there are events to dispatch
+				WatchKey key = pending.isEmpty()?watcher.take():watcher.poll(DEBOUNCE_TIME, TimeUnit.MILLISECONDS);
+				if (key==null) {
+					dispatch(pending);
+					pending = new LinkedHashSet<>();
+					continue;
+				}
+				Set<Path> names = new HashSet<>();
+				boolean all = false;
+				for (WatchEvent<?> e : key.pollEvents()) {
+					if (e.kind()==StandardWatchEventKinds.OVERFLOW) {
+						all = true;
+					} else {
+						names.add((Path)e.context());
+					}
+				}
+				key.reset();
+				if (pending.isEmpty()) {
+					since = System.currentTimeMillis();
+				}
+				synchronized (this) {
+					Set<Subscription> subs = watched.get((Path)key.watchable());
+					if (subs!=null) {
+						for (Subscription s : subs) {
+							if (all || names.contains(s.name)) {
+								pending.add(s);
+							}
+						}
+					}
+				}
+				if (!pending.isEmpty() && System.currentTimeMillis()-since>=MAX_DELAY) {
+					dispatch(pending);
+					pending = new LinkedHashSet<>();
+				}
+			} catch (InterruptedException e) {
+				logger.log(Level.FINE, "File watcher interrupted.", e);
+			} catch (ClosedWatchServiceException e) {
+				logger.log(Level.WARNING, "File watcher closed.", e);
+				return;
+			}
+		}
+	}
+}
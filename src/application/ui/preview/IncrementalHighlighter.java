@@ -0,0 +1,166 @@
+package application.ui.preview;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.fxmisc.richtext.CodeArea;
+import org.fxmisc.richtext.model.PlainTextChange;
+import org.fxmisc.richtext.model.StyleSpansBuilder;
+import org.fxmisc.richtext.model.TwoDimensional.Bias;
+
+import javafx.application.Platform;
+
+/**
+ * <p>Highlights the XML in a code area incrementally. The state of the lexer at the
+ * start of each paragraph is kept, see {@link XMLStyleHelper#highlight}. After an
+ * edit, the edited paragraphs are highlighted again, followed by the paragraphs after
+ * them until the state at the start of a paragraph is the same as before the edit.
+ * Only the style spans of those paragraphs are replaced.</p>
+ *
+ * <p>The paragraphs are highlighted on the application thread, at most
+ * {@value #CHUNK_SIZE} paragraphs or about {@value #CHUNK_LENGTH} characters at a time,
+ * so that a large document doesn't block the user interface while it is being
+ * highlighted.</p>
+ */
+final class IncrementalHighlighter {
+	private static final int CHUNK_SIZE = 1000;
+	private static final int CHUNK_LENGTH = 100_000;
+	private final CodeArea area;
+	// The state at the start of each paragraph, valid before dirtyFrom
+	private final List<Integer> states;
+	private boolean enabled;
+	private boolean scheduled;
+	// The first paragraph to highlight, or -1 if all paragraphs are highlighted
+	private int dirtyFrom;
+	// The paragraph after the last edited paragraph
+	private int dirtyTo;
+
+	/**
+	 * Creates a new highlighter for the code area. The highlighter is disabled until
+	 * {@link #setEnabled(boolean)} is called.
+	 * @param area the code area
+	 */
+	IncrementalHighlighter(CodeArea area) {
+		this.area = area;
+		this.states = new ArrayList<>();
+		this.enabled = false;
+		this.scheduled = false;
+		reset();
+		area.plainTextChanges().subscribe(this::changed);
+	}
+
+	/**
+	 * Enables or disables the highlighting. When disabled, the styles are removed.
+	 * @param value true to enable the highlighting, false otherwise
+	 */
+	void setEnabled(boolean value) {
+		if (value==enabled) {
+			return;
+		}
+		enabled = value;
+		if (enabled) {
+			reset();
+			schedule();
+		} else if (area.getLength()>0) {
+			StyleSpansBuilder<Collection<String>> spans = new StyleSpansBuilder<>();
+			spans.add(Collections.emptyList(), area.getLength());
+			area.setStyleSpans(0, spans.create());
+		}
+	}
+
+	// Marks all paragraphs for highlighting
+	private void reset() {
+		states.clear();
+		states.addAll(Collections.nCopies(area.getParagraphs().size(), XMLStyleHelper.TEXT));
+		dirtyFrom = 0;
+		dirtyTo = states.size();
+	}
+
+	private void changed(PlainTextChange ch) {
+		int removed = count(ch.getRemoved());
+		int inserted = count(ch.getInserted());
+		// The paragraph containing the start of the change, the text before it is unchanged
+		int first = area.offsetToPosition(ch.getPosition(), Bias.Forward).getMajor();
+		if (first+1+removed>states.size() || states.size()-removed+inserted!=area.getParagraphs().size()) {
+			reset();
+		} else {
+			states.subList(first+1, first+1+removed).clear();
+			states.addAll(first+1, Collections.nCopies(inserted, XMLStyleHelper.TEXT));
+			if (dirtyFrom<0) {
+				dirtyFrom = first;
+				dirtyTo = first+inserted+1;
+			} else {
+				if (dirtyTo>first) {
+					dirtyTo = Math.max(first, dirtyTo+inserted-removed);
+				}
+				dirtyFrom = Math.min(dirtyFrom, first);
+				dirtyTo = Math.max(dirtyTo, first+inserted+1);
+			}
+		}
+		schedule();
+	}
+
+	private static int count(String text) {
+		int ret = 0;
+		for (int i=0; i<text.length(); i++) {
+			if (text.charAt(i)=='\n') {
+				ret++;
+			}
+		}
+		return ret;
+	}
+
+	private void schedule() {
+		if (enabled && !scheduled && dirtyFrom>-1) {
+			scheduled = true;
+			Platform.runLater(this::highlightChunk);
+		}
+	}
+
+	private void highlightChunk() {
+		scheduled = false;
+		if (!enabled || dirtyFrom<0) {
+			return;
+		}
+		int count = area.getParagraphs().size();
+		if (states.size()!=count) {
+			reset();
+		}
+		int from = dirtyFrom;
+		int end = Math.min(count, from+CHUNK_SIZE);
+		StyleSpansBuilder<Collection<String>> spans = new StyleSpansBuilder<>();
+		// A line break is added before every paragraph but the first
+		int length = -1;
+		int state = states.get(from);
+		int i = from;
+		boolean done = false;
+		while (i<end && !done && length<CHUNK_LENGTH) {
+			String text = area.getText(i);
+			if (i>from) {
+				spans.add(Collections.emptyList(), 1);
+			}
+			length += text.length()+1;
+			state = XMLStyleHelper.highlight(text, state, spans);
+			i++;
+			if (i==count) {
+				done = true;
+			} else {
+				boolean unchanged = states.get(i)==state;
+				states.set(i, state);
+				done = unchanged && i>=dirtyTo;
+			}
+		}
+		if (length>0) {
+			area.setStyleSpans(area.getAbsolutePosition(from, 0), spans.create());
+		}
+		if (done) {
+			dirtyFrom = -1;
+			dirtyTo = -1;
+		} else {
+			dirtyFrom = i;
+			schedule();
+		}
+	}
+}
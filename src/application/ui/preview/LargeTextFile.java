@@ -0,0 +1,237 @@
+package application.ui.preview;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * <p>Provides read access to the lines of a large text file without reading
+ * the file into memory. Only the requested lines are read from the file and decoded.</p>
+ *
+ * <p>The lines are found by an index that is built by {@link #index(LongConsumer)},
+ * typically on a background thread. Lines can be read while the index is being built,
+ * but only the lines indexed so far are available. To keep the index small, the
+ * position of every {@value #INDEX_STEP}th line is stored.</p>
+ *
+ * <p>Only charsets where a line feed is a single byte that is never part of another
+ * character are supported, see {@link #supportsCharset(Charset)}.</p>
+ *
+ * <p>The file is read with positioned reads, it isn't mapped into memory, so it can be
+ * rewritten by other applications while it is open. The index is then out of date,
+ * and the file should be opened again.</p>
+ */
+final class LargeTextFile implements Closeable {
+	static final int INDEX_STEP = 64;
+	private static final int BLOCK_SIZE = 1 << 20;
+	private static final int READ_SIZE = 1 << 16;
+	private final FileChannel channel;
+	private final Charset charset;
+	private final long start;
+	private final long size;
+	// The buffer used by getLines, guarded by this
+	private final ByteBuffer buffer;
+	// The positions of every INDEX_STEP:th line, guarded by this
+	private long[] index;
+	private int lineCount;
+	private boolean indexed;
+
+	private LargeTextFile(FileChannel channel, Charset charset, long start) throws IOException {
+		this.channel = channel;
+		this.charset = charset;
+		this.size = channel.size();
+		this.start = Math.min(start, size);
+		this.buffer = ByteBuffer.allocate(READ_SIZE);
+		this.index = new long[]{this.start};
+		this.lineCount = 1;
+		this.indexed = false;
+	}
+
+	/**
+	 * Opens a file.
+	 * @param f the file
+	 * @param charset the charset, see {@link #supportsCharset(Charset)}
+	 * @param start the position of the first character, in bytes. This is used to skip a byte order mark.
+	 * @return a new instance
+	 * @throws IOException if the file cannot be opened
+	 * @throws IllegalArgumentException if the charset isn't supported
+	 */
+	static LargeTextFile open(File f, Charset charset, long start) throws IOException {
+		if (!supportsCharset(charset)) {
+			throw new IllegalArgumentException("Unsupported charset: " + charset);
+		}
+		FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		try {
+			return new LargeTextFile(channel, charset, start);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns true if lines in the charset can be found by searching for line feed bytes.
+	 * This is the case for UTF-8 and the ASCII compatible single byte charsets, but not
+	 * for UTF-16.
+	 * @param charset the charset
+	 * @return true if the charset is supported, false otherwise
+	 */
+	static boolean supportsCharset(Charset charset) {
+		return charset.canEncode()
+				&& Arrays.equals("\n".getBytes(charset), new byte[]{'\n'})
+				&& Arrays.equals("<".getBytes(charset), new byte[]{'<'});
+	}
+
+	/**
+	 * Builds the line index. Lines are made available as they are indexed. The method
+	 * returns early if the thread is interrupted, if the file is closed, or if the end
+	 * of the file is reached early because the file has been truncated.
+	 * @param progress receives the number of bytes indexed so far
+	 * @throws IOException if the file could not be read
+	 */
+	void index(LongConsumer progress) throws IOException {
+		long[] ix;
+		int count;
+		synchronized (this) {
+			if (indexed) {
+				return;
+			}
+			ix = index;
+			count = lineCount;
+		}
+		ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+		byte[] b = block.array();
+		long pos = start;
+		try {
+			while (pos<size) {
+				block.clear();
+				int n = channel.read(block, pos);
+				if (n<0) {
+					return;
+				}
+				for (int i = 0; i<n; i++) {
+					if (b[i]=='\n') {
+						if (count%INDEX_STEP==0) {
+							int k = count/INDEX_STEP;
+							if (k==ix.length) {
+								ix = Arrays.copyOf(ix, ix.length*2);
+							}
+							ix[k] = pos+i+1;
+						}
+						count++;
+					}
+				}
+				pos += n;
+				publish(ix, count, false);
+				progress.accept(pos);
+				if (Thread.currentThread().isInterrupted()) {
+					return;
+				}
+			}
+		} catch (ClosedChannelException e) {
+			// Closed, or interrupted while reading
+			return;
+		}
+		publish(ix, count, true);
+		progress.accept(size);
+	}
+
+	private synchronized void publish(long[] ix, int count, boolean done) {
+		index = ix;
+		lineCount = count;
+		indexed = done;
+	}
+
+	/**
+	 * Returns true if the whole file has been indexed.
+	 * @return true if the file has been indexed, false otherwise
+	 */
+	synchronized boolean isIndexed() {
+		return indexed;
+	}
+
+	/**
+	 * Gets the number of lines indexed so far.
+	 * @return the number of lines
+	 */
+	synchronized int getLineCount() {
+		return lineCount;
+	}
+
+	/**
+	 * Gets the size of the file.
+	 * @return the size, in bytes
+	 */
+	long getSize() {
+		return size;
+	}
+
+	/**
+	 * Gets the charset.
+	 * @return the charset
+	 */
+	Charset getCharset() {
+		return charset;
+	}
+
+	/**
+	 * Reads lines from the file.
+	 * @param first the index of the first line
+	 * @param count the number of lines
+	 * @return the lines, separated by line feeds. Fewer lines than requested are returned
+	 * if the end of the indexed lines, or of the file, is reached.
+	 * @throws IndexOutOfBoundsException if the first line hasn't been indexed
+	 * @throws IOException if the file could not be read
+	 */
+	synchronized String getLines(int first, int count) throws IOException {
+		if (first<0 || first>=lineCount) {
+			throw new IndexOutOfBoundsException("Line " + first + " of " + lineCount);
+		}
+		count = Math.min(count, lineCount-first);
+		if (count<1) {
+			return "";
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] b = buffer.array();
+		long pos = index[first/INDEX_STEP];
+		// The number of lines to skip, from the indexed line to the first line
+		int skip = first%INDEX_STEP;
+		int remaining = count;
+		while (remaining>0) {
+			buffer.clear();
+			int n = channel.read(buffer, pos);
+			if (n<0) {
+				break;
+			}
+			int from = 0;
+			for (int i = 0; i<n && remaining>0; i++) {
+				if (b[i]=='\n') {
+					if (skip>0) {
+						skip--;
+						from = i+1;
+					} else if (--remaining==0) {
+						// Excludes the line feed after the last line
+						out.write(b, from, i-from);
+					}
+				}
+			}
+			if (skip==0 && remaining>0) {
+				out.write(b, from, n-from);
+			}
+			pos += n;
+		}
+		return new String(out.toByteArray(), charset);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
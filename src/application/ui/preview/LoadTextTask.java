@@ -0,0 +1,172 @@
+package application.ui.preview;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+
+/**
+ * <p>Reads and decodes a text file in the background. The charset and byte order
+ * mark are detected from the start of the file and stored in the file info builder.</p>
+ *
+ * <p>When a consumer is supplied, the text is passed to it on the application thread
+ * as it is decoded, at most {@value #BATCH_SIZE} characters at a time, and the task
+ * returns null. The task waits for the consumer if more than {@value #MAX_PENDING}
+ * characters are waiting to be passed to it, so it must not run on the application
+ * thread. Otherwise, the task returns the text.</p>
+ */
+final class LoadTextTask extends Task<String> {
+	private static final int CHUNK_SIZE = 64*1024;
+	private static final int BATCH_SIZE = 512*1024;
+	private static final int MAX_PENDING = 4*BATCH_SIZE;
+	private static final char BYTE_ORDER_MARK = '\uFEFF';
+	private final File file;
+	private final FileInfo.Builder builder;
+	private final boolean xml;
+	private final Consumer<String> consumer;
+	// Decoded text that hasn't been passed to the consumer yet, guarded by itself
+	private final ArrayDeque<String> pending;
+	private int pendingLength;
+	private boolean scheduled;
+	private long bytesRead;
+
+	/**
+	 * Creates a new task.
+	 * @param file the file
+	 * @param builder the builder to store the charset and byte order mark in
+	 * @param xml true if the file is xml
+	 * @param consumer the consumer of the text, or null to return the text
+	 */
+	LoadTextTask(File file, FileInfo.Builder builder, boolean xml, Consumer<String> consumer) {
+		this.file = file;
+		this.builder = builder;
+		this.xml = xml;
+		this.consumer = consumer;
+		this.pending = new ArrayDeque<>();
+		this.pendingLength = 0;
+		this.scheduled = false;
+		this.bytesRead = 0;
+	}
+
+	@Override
+	protected String call() throws Exception {
+		EditorController.loadData(EditorController.readHead(file), builder, xml);
+		FileInfo info = builder.build();
+		long total = Math.max(1, file.length());
+		StringBuilder ret = consumer==null?new StringBuilder():null;
+		try (Reader r = new InputStreamReader(new CountingInputStream(Files.newInputStream(file.toPath())), info.getCharset())) {
+			char[] buf = new char[CHUNK_SIZE];
+			String carry = "";
+			boolean first = true;
+			int n;
+			while ((n = r.read(buf))>-1) {
+				if (isCancelled()) {
+					return null;
+				}
+				int off = 0;
+				if (first && n>0) {
+					first = false;
+					if (info.hasBom() && buf[0]==BYTE_ORDER_MARK) {
+						off = 1;
+					}
+				}
+				if (ret!=null) {
+					ret.append(buf, off, n-off);
+				} else {
+					int end = n;
+					// Don't split a surrogate pair between batches
+					if (end>off && Character.isHighSurrogate(buf[end-1])) {
+						end--;
+					}
+					publish(carry + new String(buf, off, end-off));
+					carry = new String(buf, end, n-end);
+				}
+				updateProgress(bytesRead, total);
+			}
+			if (ret==null) {
+				publish(carry);
+			}
+		}
+		return ret!=null?ret.toString():null;
+	}
+
+	private void publish(String text) throws InterruptedException {
+		if (text.isEmpty()) {
+			return;
+		}
+		synchronized (pending) {
+			// Waits for the consumer, so that the pending text doesn't grow to the size of the file
+			while (pendingLength>=MAX_PENDING) {
+				pending.wait();
+			}
+			pending.add(text);
+			pendingLength += text.length();
+			if (!scheduled) {
+				scheduled = true;
+				Platform.runLater(this::flush);
+			}
+		}
+	}
+
+	/**
+	 * Passes the next batch of decoded text to the consumer. This is called on the
+	 * application thread while the task is running. Call this method when the task has
+	 * succeeded, to get the remaining text.
+	 * @return true if there is more text to pass to the consumer, false otherwise
+	 */
+	boolean flush() {
+		StringBuilder batch = new StringBuilder();
+		boolean more;
+		synchronized (pending) {
+			while (!pending.isEmpty() && (batch.length()==0 || batch.length()+pending.peek().length()<=BATCH_SIZE)) {
+				String text = pending.poll();
+				batch.append(text);
+				pendingLength -= text.length();
+			}
+			pending.notifyAll();
+			more = !pending.isEmpty();
+			scheduled = more;
+			if (more) {
+				// Lets other events run between the batches
+				Platform.runLater(this::flush);
+			}
+		}
+		if (!isCancelled() && batch.length()>0) {
+			consumer.accept(batch.toString());
+		}
+		return more;
+	}
+
+	private class CountingInputStream extends FilterInputStream {
+
+		private CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int ret = super.read();
+			if (ret>-1) {
+				bytesRead++;
+			}
+			return ret;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int ret = super.read(b, off, len);
+			if (ret>0) {
+				bytesRead += ret;
+			}
+			return ret;
+		}
+	}
+}
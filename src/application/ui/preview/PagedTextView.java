@@ -0,0 +1,213 @@
+package application.ui.preview;
+
+import java.io.IOException;
+import java.util.function.IntFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.fxmisc.richtext.CodeArea;
+
+import javafx.application.Platform;
+import javafx.scene.Node;
+import javafx.scene.control.Label;
+import javafx.scene.control.ScrollBar;
+
+/**
+ * <p>Shows a {@link LargeTextFile} in a code area, a window of lines at a time.
+ * The window contains at most {@value #WINDOW_SIZE} lines and is moved when the
+ * viewport comes within {@value #MARGIN} lines of its edges, so that only the
+ * paragraphs around the viewport are decoded and laid out.</p>
+ *
+ * <p>Because the code area only knows about the lines in the window, a separate
+ * scroll bar shows the position in the file. The text in the code area is replaced
+ * when the window moves, so the code area must not be editable.</p>
+ */
+final class PagedTextView {
+	private static final Logger logger = Logger.getLogger(PagedTextView.class.getCanonicalName());
+	private static final int WINDOW_SIZE = 3000;
+	private static final int MARGIN = 500;
+	private final CodeArea area;
+	private final ScrollBar scrollBar;
+	private LargeTextFile file;
+	// The index of the first line in the window
+	private int first;
+	// The number of lines in the window
+	private int size;
+	private boolean adjusting;
+
+	/**
+	 * Creates a new paged text view.
+	 * @param area the code area
+	 * @param scrollBar the scroll bar that shows the position in the file
+	 */
+	PagedTextView(CodeArea area, ScrollBar scrollBar) {
+		this.area = area;
+		this.scrollBar = scrollBar;
+		this.file = null;
+		this.first = 0;
+		this.size = 0;
+		this.adjusting = false;
+		scrollBar.setMin(0);
+		scrollBar.setUnitIncrement(1);
+		scrollBar.valueProperty().addListener((o, ov, nv) -> {
+			if (!adjusting && file!=null) {
+				showLine(nv.intValue());
+			}
+		});
+		area.estimatedScrollYProperty().addListener((o, ov, nv) -> {
+			if (!adjusting && file!=null) {
+				// Waits for the layout of the new viewport
+				Platform.runLater(this::viewportChanged);
+			}
+		});
+	}
+
+	/**
+	 * Sets the file to show, or null to show nothing. The previous file is not closed.
+	 * @param value the file
+	 */
+	void setFile(LargeTextFile value) {
+		this.file = value;
+		this.first = 0;
+		this.size = 0;
+		if (file!=null) {
+			load(0, 0);
+			updateLineCount();
+		}
+	}
+
+	/**
+	 * Gets the file that is shown.
+	 * @return the file, or null
+	 */
+	LargeTextFile getFile() {
+		return file;
+	}
+
+	/**
+	 * Updates the scroll bar with the number of lines that have been indexed.
+	 * Call this while the file is being indexed. If the window is short of lines,
+	 * it is filled up.
+	 */
+	void updateLineCount() {
+		if (file==null) {
+			return;
+		}
+		int count = file.getLineCount();
+		adjusting = true;
+		try {
+			scrollBar.setMax(Math.max(0, count-1));
+			scrollBar.setBlockIncrement(Math.max(1, area.getVisibleParagraphs().size()));
+		} finally {
+			adjusting = false;
+		}
+		if (size<WINDOW_SIZE && first+size<count) {
+			load(first, firstVisible());
+		}
+	}
+
+	/**
+	 * Shows a line at the top of the viewport.
+	 * @param line the index of the line in the file
+	 */
+	void showLine(int line) {
+		showLine(line, 0);
+	}
+
+	/**
+	 * Shows a position at the top of the viewport and moves the caret there.
+	 * @param line the index of the line in the file
+	 * @param column the column
+	 */
+	void showLine(int line, int column) {
+		if (file==null) {
+			return;
+		}
+		line = Math.max(0, Math.min(line, file.getLineCount()-1));
+		if (line<first || line>=first+size-MARGIN && first+size<file.getLineCount()) {
+			if (!load(Math.max(0, line-MARGIN), line)) {
+				return;
+			}
+		} else {
+			showParagraph(line-first);
+		}
+		int p = line-first;
+		area.moveTo(p, Math.min(column, area.getParagraph(p).length()));
+	}
+
+	private void viewportChanged() {
+		if (file==null || area.getVisibleParagraphs().isEmpty()) {
+			return;
+		}
+		int top = firstVisible();
+		int bottom = first + area.lastVisibleParToAllParIndex();
+		if (top-first<MARGIN && first>0 || first+size-bottom<MARGIN && first+size<file.getLineCount()) {
+			load(Math.max(0, top-WINDOW_SIZE/2), top);
+		}
+		setScrollBarValue(top);
+	}
+
+	// Loads a window of lines and shows the specified line at the top of the viewport.
+	// Returns false if the file can't be read, in which case the window is unchanged.
+	private boolean load(int from, int top) {
+		String text;
+		try {
+			text = file.getLines(from, WINDOW_SIZE);
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Failed to read lines.", e);
+			return false;
+		}
+		adjusting = true;
+		try {
+			area.replaceText(text);
+			area.getUndoManager().forgetHistory();
+			area.getUndoManager().mark();
+			first = from;
+			size = area.getParagraphs().size();
+			// Updates the line numbers
+			if (area.getParagraphGraphicFactory()!=null) {
+				area.setParagraphGraphicFactory(lineNumbers());
+			}
+		} finally {
+			adjusting = false;
+		}
+		showParagraph(Math.max(0, Math.min(top-first, size-1)));
+		return true;
+	}
+
+	private void showParagraph(int p) {
+		adjusting = true;
+		try {
+			area.showParagraphAtTop(p);
+		} finally {
+			adjusting = false;
+		}
+		setScrollBarValue(first+p);
+	}
+
+	private void setScrollBarValue(int line) {
+		adjusting = true;
+		try {
+			scrollBar.setValue(line);
+		} finally {
+			adjusting = false;
+		}
+	}
+
+	private int firstVisible() {
+		return area.getVisibleParagraphs().isEmpty()?first:first+area.firstVisibleParToAllParIndex();
+	}
+
+	/**
+	 * Creates a paragraph graphic factory that shows the line numbers in the file.
+	 * @return the factory
+	 */
+	IntFunction<Node> lineNumbers() {
+		int offset = first;
+		return i -> {
+			Label l = new Label(String.valueOf(offset+i+1));
+			l.getStyleClass().add("lineno");
+			return l;
+		};
+	}
+}
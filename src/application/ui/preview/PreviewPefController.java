@@ -4,6 +4,11 @@ import java.io.File;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -14,11 +19,14 @@ import org.daisy.dotify.studio.api.DocumentPosition;
 import org.daisy.streamline.api.media.FileDetails;
 import org.daisy.streamline.api.validity.ValidationReport;
 
+import application.common.FeatureSwitch;
 import application.l10n.Messages;
+import application.ui.preview.server.MainPage;
 import application.ui.preview.server.Start;
 import application.ui.preview.server.StartupDetails;
 import application.ui.preview.server.preview.stax.BookReaderResult;
 import application.ui.preview.server.preview.stax.StaxPreviewParser;
+import javafx.application.Platform;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.ReadOnlyBooleanProperty;
@@ -45,6 +53,11 @@ public class PreviewPefController extends AbstractHtmlController {
 	private Start start;
 	private EmbossView embossView;
 	private String pageUrl;
+	// Identifies the latest call to updateValidation
+	private int validationRequest = 0;
+	// Checks for changes before reloading, one check at a time. The check waits for the
+	// work of the preview executor, so it must not run on one of its workers.
+	private final ExecutorService executor = Executors.newWorkStealingPool(1);
 
 	/**
 	 * Creates a new preview controller.
@@ -52,6 +65,12 @@ public class PreviewPefController extends AbstractHtmlController {
 	public PreviewPefController() {
 		super();
 		canEmbossProperty = BooleanProperty.readOnlyBooleanProperty(new SimpleBooleanProperty(true));
+		// Render the book in focus ahead of other open books
+		browser.focusedProperty().addListener((o, ov, nv)->{
+			if (nv && start!=null && start.getMainPage()!=null) {
+				start.getMainPage().activate();
+			}
+		});
 	}
 
 	/**
@@ -94,24 +113,65 @@ public class PreviewPefController extends AbstractHtmlController {
 	
 	/**
 	 * Reloads the web view. This in turn, will trigger a file update, if the file
-	 * has changed.
+	 * has changed. The file is checked for changes in the background first. The web
+	 * view is only reloaded if the content that it shows has changed since it was loaded.
 	 */
 	public void reload() {
-		super.reload();
-		updateValidation();
+		if (start==null || start.getMainPage()==null) {
+			super.reload();
+			updateValidation();
+			return;
+		}
+		MainPage page = start.getMainPage();
+		String location = browser.getEngine().getLocation();
+		Task<Boolean> check = new Task<Boolean>() {
+			@Override
+			protected Boolean call() throws Exception {
+				// Waits for the digest, if the file has changed but not its size
+				page.checkFile().get();
+				return !FeatureSwitch.CONDITIONAL_RELOAD.isOn() || location==null || page.isModified(location);
+			}
+		};
+		check.setOnSucceeded(ev -> {
+			if (check.getValue()) {
+				super.reload();
+			}
+			updateValidation();
+		});
+		check.setOnFailed(ev -> {
+			Logger.getLogger(this.getClass().getCanonicalName()).log(Level.FINE, "Failed to check for changes.", check.getException());
+			super.reload();
+			updateValidation();
+		});
+		executor.execute(check);
 	}
 	
+	/**
+	 * Updates the validation report when the validation of the current contents
+	 * of the file completes. The preview is rendered without waiting for the validation,
+	 * so if the report has issues, the web view is reloaded to display them.
+	 */
 	private void updateValidation() {
-		if (start!=null) {
-			Optional<BookReaderResult> res = start.getMainPage().getBookReaderResult();
-			if (res.isPresent()) {
-				validationReport.set(Optional.of(res.get().getValidationReport()));
-			} else {
-				validationReport.set(Optional.empty());
-			}
-		} else {
+		int request = ++validationRequest;
+		if (start==null || start.getMainPage()==null) {
 			validationReport.set(Optional.empty());
-		}		
+			return;
+		}
+		CompletableFuture<BookReaderResult> result = start.getMainPage().getBookReaderResultAsync();
+		// If the validation has already completed, the web view shows its issues
+		boolean provisional = !result.isDone();
+		result.whenComplete((res, e)->Platform.runLater(()->{
+			// A later request replaces this one. The ingest is cancelled when the file changes,
+			// in which case the report of the new contents is requested on the next reload.
+			if (request!=validationRequest || e instanceof CancellationException || e!=null && e.getCause() instanceof CancellationException) {
+				return;
+			}
+			ValidationReport report = res!=null?res.getValidationReport():null;
+			validationReport.set(Optional.ofNullable(report));
+			if (provisional && report!=null && (!report.isValid() || !report.getMessages().isEmpty())) {
+				browser.getEngine().reload();
+			}
+		}));
 	}
 
 	/**
@@ -119,6 +179,7 @@ public class PreviewPefController extends AbstractHtmlController {
 	 */
 	public void closing() {
 		super.closing();
+		executor.shutdownNow();
 		if (start!=null) {
 			start.stopServer();
 		}
@@ -170,14 +231,18 @@ public class PreviewPefController extends AbstractHtmlController {
 	@Override
 	public boolean scrollTo(DocumentPosition location) {
 		int volume = start.getMainPage().getVolumeForPosition(location);
-		String url = pageUrl+"?book.xml&volume="+volume+"#"+StaxPreviewParser.messageId(location);
-		browser.getEngine().load(url);
 		// returns true if there is a validation message at the given location, false otherwise
-		return validationReport.get()
+		boolean hasMessage = validationReport.get()
 				.map(v->v.getMessages().stream()).orElse(Stream.empty())
 				.map(v->DocumentPosition.with(v.getLineNumber(), v.getColumnNumber()))
 				.filter(v->v.equals(location))
 				.count()>0;
+		// The virtual preview only contains the pages near the visible part of the volume, so it can't go to a message directly
+		OptionalInt page = hasMessage && !FeatureSwitch.VIRTUAL_PREVIEW.isOn()?OptionalInt.empty():start.getMainPage().getPageForPosition(location);
+		String anchor = page.isPresent()?"pagenum"+page.getAsInt():StaxPreviewParser.messageId(location);
+		String url = pageUrl+(pageUrl.indexOf('?')>-1?"&":"?")+"book.xml&volume="+volume+"#"+anchor;
+		browser.getEngine().load(url);
+		return hasMessage;
 	}
 
 }
@@ -0,0 +1,188 @@
+package application.ui.preview;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.daisy.dotify.studio.api.SearchOptions;
+
+/**
+ * <p>Provides all matches of a pattern in a text. The matches are found once,
+ * after that the next or previous match from a position is found with a binary
+ * search.</p>
+ *
+ * <p>The text is a snapshot of a document, so the result can be reused as long as
+ * the document hasn't changed. Empty matches are not included.</p>
+ */
+final class TextSearch {
+	private static final String WORD_CHAR = "[\\p{L}\\p{N}_]";
+	private final String text;
+	private final Pattern pattern;
+	private final int[] starts;
+	private final int[] ends;
+	private final int size;
+
+	private TextSearch(String text, Pattern pattern, int[] starts, int[] ends, int size) {
+		this.text = text;
+		this.pattern = pattern;
+		this.starts = starts;
+		this.ends = ends;
+		this.size = size;
+	}
+
+	/**
+	 * Creates a pattern for the search text and options. Unless regular expressions
+	 * are used, the text is matched literally.
+	 * @param text the search text
+	 * @param opts the options
+	 * @return the pattern
+	 * @throws PatternSyntaxException if the text is used as a regular expression and is invalid
+	 */
+	static Pattern compile(String text, SearchOptions opts) {
+		String regex = opts.shouldUseRegex()?text:Pattern.quote(text);
+		if (opts.shouldMatchWholeWords()) {
+			regex = "(?<!" + WORD_CHAR + ")(?:" + regex + ")(?!" + WORD_CHAR + ")";
+		}
+		return Pattern.compile(regex, opts.shouldMatchCase()?0:Pattern.CASE_INSENSITIVE|Pattern.UNICODE_CASE);
+	}
+
+	/**
+	 * Finds all matches of the pattern in the text.
+	 * @param text the text
+	 * @param pattern the pattern
+	 * @return the result
+	 * @throws CancellationException if the thread is interrupted
+	 */
+	static TextSearch search(String text, Pattern pattern) {
+		int[] starts = new int[16];
+		int[] ends = new int[16];
+		int size = 0;
+		Matcher m = pattern.matcher(new InterruptibleText(text));
+		while (m.find()) {
+			if (m.end()>m.start()) {
+				if (size==starts.length) {
+					starts = Arrays.copyOf(starts, size*2);
+					ends = Arrays.copyOf(ends, size*2);
+				}
+				starts[size] = m.start();
+				ends[size] = m.end();
+				size++;
+			}
+		}
+		return new TextSearch(text, pattern, starts, ends, size);
+	}
+
+	/**
+	 * Provides a text that checks if the thread is interrupted as it is read. A search
+	 * can read the text for a long time without finding a match, for example if the
+	 * pattern backtracks, so checking between matches isn't enough.
+	 */
+	private static final class InterruptibleText implements CharSequence {
+		private static final int CHECK_INTERVAL = 0xFFFF;
+		private final String text;
+		private int reads;
+
+		private InterruptibleText(String text) {
+			this.text = text;
+			this.reads = 0;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if ((++reads & CHECK_INTERVAL)==0 && Thread.currentThread().isInterrupted()) {
+				throw new CancellationException("Search interrupted.");
+			}
+			return text.charAt(index);
+		}
+
+		@Override
+		public int length() {
+			return text.length();
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return text.subSequence(start, end);
+		}
+
+		@Override
+		public String toString() {
+			return text;
+		}
+	}
+
+	/**
+	 * Returns true if this is the result of searching the text for the pattern. The text
+	 * must be the same instance as the one that was searched.
+	 * @param text the text
+	 * @param pattern the pattern
+	 * @return true if this result applies, false otherwise
+	 */
+	boolean isSearchOf(String text, Pattern pattern) {
+		return this.text==text
+				&& this.pattern.pattern().equals(pattern.pattern())
+				&& this.pattern.flags()==pattern.flags();
+	}
+
+	/**
+	 * Gets the number of matches.
+	 * @return the number of matches
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the start of a match.
+	 * @param i the index of the match
+	 * @return the start position, inclusive
+	 */
+	int getStart(int i) {
+		return starts[i];
+	}
+
+	/**
+	 * Gets the end of a match.
+	 * @param i the index of the match
+	 * @return the end position, exclusive
+	 */
+	int getEnd(int i) {
+		return ends[i];
+	}
+
+	/**
+	 * Finds the first match that starts at or after a position.
+	 * @param pos the position
+	 * @param wrap true to return the first match if there is none after the position
+	 * @return the index of the match, or -1 if there is none
+	 */
+	int next(int pos, boolean wrap) {
+		int i = indexOf(pos);
+		if (i<size) {
+			return i;
+		}
+		return wrap && size>0?0:-1;
+	}
+
+	/**
+	 * Finds the last match that starts before a position.
+	 * @param pos the position
+	 * @param wrap true to return the last match if there is none before the position
+	 * @return the index of the match, or -1 if there is none
+	 */
+	int previous(int pos, boolean wrap) {
+		int i = indexOf(pos)-1;
+		if (i>=0) {
+			return i;
+		}
+		return wrap && size>0?size-1:-1;
+	}
+
+	// Returns the index of the first match that starts at or after the position
+	private int indexOf(int pos) {
+		int i = Arrays.binarySearch(starts, 0, size, pos);
+		return i<0?-i-1:i;
+	}
+}
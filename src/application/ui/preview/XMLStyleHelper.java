@@ -2,25 +2,29 @@ package application.ui.preview;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.fxmisc.richtext.model.StyleSpans;
 import org.fxmisc.richtext.model.StyleSpansBuilder;
 
 class XMLStyleHelper {
-	private static final Pattern XML_TAG = Pattern
-			.compile("(?<ELEMENT>(</?\\h*)(\\w[\\w-]*(?:\\:\\w[\\w-]*)?)([^<>]*)(\\h*/?>))" + "|(?<COMMENT><!--[^<>]+-->)" + "|(?<PI><\\?[^<>]+\\?>)" + "|(?<ENTITY>&[^&;]+;)");
-
-	private static final Pattern ATTRIBUTES = Pattern.compile("(\\w[\\w-]*(?:\\:\\w[\\w-]*)?\\h*)(=)(\\h*\"[^\"]*\")");
-
-	private static final int GROUP_OPEN_BRACKET = 2;
-	private static final int GROUP_ELEMENT_NAME = 3;
-	private static final int GROUP_ATTRIBUTES_SECTION = 4;
-	private static final int GROUP_CLOSE_BRACKET = 5;
-	private static final int GROUP_ATTRIBUTE_NAME = 1;
-	private static final int GROUP_EQUAL_SYMBOL = 2;
-	private static final int GROUP_ATTRIBUTE_VALUE = 3;
+	// The states of the lexer, see highlight
+	static final int TEXT = 0;
+	static final int COMMENT = 1;
+	static final int PI = 2;
+	static final int CDATA = 3;
+	static final int TAG = 4;
+	static final int DOUBLE_QUOTED_VALUE = 5;
+	static final int SINGLE_QUOTED_VALUE = 6;
+	private static final int MAX_ENTITY_LENGTH = 32;
+
+	private static final Collection<String> NO_STYLE = Collections.emptyList();
+	private static final Collection<String> COMMENT_STYLE = Collections.singleton("comment");
+	private static final Collection<String> PI_STYLE = Collections.singleton("pi");
+	private static final Collection<String> ENTITY_STYLE = Collections.singleton("entity");
+	private static final Collection<String> TAGMARK_STYLE = Collections.singleton("tagmark");
+	private static final Collection<String> ANYTAG_STYLE = Collections.singleton("anytag");
+	private static final Collection<String> ATTRIBUTE_STYLE = Collections.singleton("attribute");
+	private static final Collection<String> AVALUE_STYLE = Collections.singleton("avalue");
 	
 	static StyleSpans<Collection<String>> noStyles(String text) {
 		StyleSpansBuilder<Collection<String>> spansBuilder = new StyleSpansBuilder<>();
@@ -28,54 +32,207 @@ class XMLStyleHelper {
 		return spansBuilder.create();
 	}
 
+	/**
+	 * Computes the highlighting of a text in a single pass, see {@link #highlight(CharSequence, int, StyleSpansBuilder)}.
+	 * @param text the text
+	 * @return the style spans
+	 */
 	static StyleSpans<Collection<String>> computeHighlighting(String text) {
-		Matcher matcher = XML_TAG.matcher(text);
-		int lastKwEnd = 0;
 		StyleSpansBuilder<Collection<String>> spansBuilder = new StyleSpansBuilder<>();
-		while (matcher.find()) {
-			spansBuilder.add(Collections.emptyList(), matcher.start() - lastKwEnd);
-			if (matcher.group("COMMENT") != null) {
-				spansBuilder.add(Collections.singleton("comment"), matcher.end() - matcher.start());
-			} else if (matcher.group("PI") != null) {
-				spansBuilder.add(Collections.singleton("pi"), matcher.end() - matcher.start());
-			} else if (matcher.group("ENTITY") != null) {
-				spansBuilder.add(Collections.singleton("entity"), matcher.end() - matcher.start());
-			} else {
-				if (matcher.group("ELEMENT") != null) {
-					String attributesText = matcher.group(GROUP_ATTRIBUTES_SECTION);
-
-					spansBuilder.add(Collections.singleton("tagmark"),
-							matcher.end(GROUP_OPEN_BRACKET) - matcher.start(GROUP_OPEN_BRACKET));
-					spansBuilder.add(Collections.singleton("anytag"),
-							matcher.end(GROUP_ELEMENT_NAME) - matcher.end(GROUP_OPEN_BRACKET));
-
-					if (!attributesText.isEmpty()) {
-
-						lastKwEnd = 0;
-
-						Matcher amatcher = ATTRIBUTES.matcher(attributesText);
-						while (amatcher.find()) {
-							spansBuilder.add(Collections.emptyList(), amatcher.start() - lastKwEnd);
-							spansBuilder.add(Collections.singleton("attribute"),
-									amatcher.end(GROUP_ATTRIBUTE_NAME) - amatcher.start(GROUP_ATTRIBUTE_NAME));
-							spansBuilder.add(Collections.singleton("tagmark"),
-									amatcher.end(GROUP_EQUAL_SYMBOL) - amatcher.end(GROUP_ATTRIBUTE_NAME));
-							spansBuilder.add(Collections.singleton("avalue"),
-									amatcher.end(GROUP_ATTRIBUTE_VALUE) - amatcher.end(GROUP_EQUAL_SYMBOL));
-							lastKwEnd = amatcher.end();
+		// The builder requires at least one span
+		spansBuilder.add(NO_STYLE, 0);
+		highlight(text, TEXT, spansBuilder);
+		return spansBuilder.create();
+	}
+
+	// Collects consecutive characters with the same style into one span
+	private static final class SpanWriter {
+		private final StyleSpansBuilder<Collection<String>> builder;
+		private Collection<String> style = NO_STYLE;
+		private int length = 0;
+
+		private SpanWriter(StyleSpansBuilder<Collection<String>> builder) {
+			this.builder = builder;
+		}
+
+		private void add(Collection<String> style, int length) {
+			if (style!=this.style) {
+				flush();
+				this.style = style;
+			}
+			this.length += length;
+		}
+
+		private void flush() {
+			if (length>0) {
+				builder.add(style, length);
+				length = 0;
+			}
+		}
+	}
+
+	/**
+	 * Adds the highlighting of a text to a builder, in a single pass over the characters.
+	 * The highlighting only depends on the text and the state at the start of it, which
+	 * allows the lines of a document to be highlighted one at a time. The style collections
+	 * are shared between spans.
+	 * @param line the text, for example a line without its line break
+	 * @param state the state at the start of the text
+	 * @param builder the builder
+	 * @return the state at the end of the text
+	 */
+	static int highlight(CharSequence line, int state, StyleSpansBuilder<Collection<String>> builder) {
+		SpanWriter spans = new SpanWriter(builder);
+		int len = line.length();
+		int i = 0;
+		while (i<len) {
+			int start = i;
+			char c = line.charAt(i);
+			switch (state) {
+				case COMMENT:
+					i = indexOf(line, "-->", i);
+					state = i>-1?TEXT:COMMENT;
+					i = i>-1?i:len;
+					spans.add(COMMENT_STYLE, i-start);
+					break;
+				case PI:
+					i = indexOf(line, "?>", i);
+					state = i>-1?TEXT:PI;
+					i = i>-1?i:len;
+					spans.add(PI_STYLE, i-start);
+					break;
+				case CDATA:
+					i = indexOf(line, "]]>", i);
+					state = i>-1?TEXT:CDATA;
+					i = i>-1?i:len;
+					spans.add(NO_STYLE, i-start);
+					break;
+				case DOUBLE_QUOTED_VALUE: case SINGLE_QUOTED_VALUE:
+					i = indexOf(line, state==DOUBLE_QUOTED_VALUE?"\"":"'", i);
+					state = i>-1?TAG:state;
+					i = i>-1?i:len;
+					spans.add(AVALUE_STYLE, i-start);
+					break;
+				case TAG:
+					if (c=='>') {
+						i++;
+						state = TEXT;
+						spans.add(TAGMARK_STYLE, 1);
+					} else if (c=='/' && i+1<len && line.charAt(i+1)=='>') {
+						i+=2;
+						state = TEXT;
+						spans.add(TAGMARK_STYLE, 2);
+					} else if (c=='=') {
+						i++;
+						spans.add(TAGMARK_STYLE, 1);
+					} else if (c=='"' || c=='\'') {
+						i++;
+						state = c=='"'?DOUBLE_QUOTED_VALUE:SINGLE_QUOTED_VALUE;
+						spans.add(AVALUE_STYLE, 1);
+					} else if (c=='<') {
+						// The tag isn't closed, start over
+						state = TEXT;
+					} else if (isNameStart(c)) {
+						i = nameEnd(line, i);
+						spans.add(ATTRIBUTE_STYLE, i-start);
+					} else {
+						do {
+							i++;
+						} while (i<len && !isTagDelimiter(line.charAt(i)) && !isNameStart(line.charAt(i)));
+						spans.add(NO_STYLE, i-start);
+					}
+					break;
+				default:
+					if (c=='<') {
+						int n = i+1<len && line.charAt(i+1)=='/'?i+2:i+1;
+						if (startsWith(line, i, "<!--")) {
+							i+=4;
+							state = COMMENT;
+							spans.add(COMMENT_STYLE, 4);
+						} else if (startsWith(line, i, "<![CDATA[")) {
+							i+=9;
+							state = CDATA;
+							spans.add(NO_STYLE, 9);
+						} else if (startsWith(line, i, "<?")) {
+							i+=2;
+							state = PI;
+							spans.add(PI_STYLE, 2);
+						} else if (n<len && isNameStart(line.charAt(n))) {
+							i = nameEnd(line, n);
+							state = TAG;
+							spans.add(TAGMARK_STYLE, n-start);
+							spans.add(ANYTAG_STYLE, i-n);
+						} else {
+							i++;
+							spans.add(NO_STYLE, 1);
 						}
-						if (attributesText.length() > lastKwEnd)
-							spansBuilder.add(Collections.emptyList(), attributesText.length() - lastKwEnd);
+					} else if (c=='&' && entityEnd(line, i)>-1) {
+						i = entityEnd(line, i);
+						spans.add(ENTITY_STYLE, i-start);
+					} else {
+						do {
+							i++;
+						} while (i<len && line.charAt(i)!='<' && line.charAt(i)!='&');
+						spans.add(NO_STYLE, i-start);
 					}
+			}
+		}
+		spans.flush();
+		return state;
+	}
 
-					lastKwEnd = matcher.end(GROUP_ATTRIBUTES_SECTION);
+	private static boolean isTagDelimiter(char c) {
+		return c=='>' || c=='/' || c=='=' || c=='"' || c=='\'' || c=='<';
+	}
 
-					spansBuilder.add(Collections.singleton("tagmark"), matcher.end(GROUP_CLOSE_BRACKET) - lastKwEnd);
-				}
+	// Returns the index after the first occurrence of the string, or -1 if there isn't one
+	private static int indexOf(CharSequence line, String str, int from) {
+		for (int i=from; i+str.length()<=line.length(); i++) {
+			if (startsWith(line, i, str)) {
+				return i+str.length();
 			}
-			lastKwEnd = matcher.end();
 		}
-		spansBuilder.add(Collections.emptyList(), text.length() - lastKwEnd);
-		return spansBuilder.create();
+		return -1;
+	}
+
+	private static boolean startsWith(CharSequence line, int index, String str) {
+		if (index+str.length()>line.length()) {
+			return false;
+		}
+		for (int i=0; i<str.length(); i++) {
+			if (line.charAt(index+i)!=str.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isNameStart(char c) {
+		return Character.isLetter(c) || c=='_' || c==':';
+	}
+
+	private static int nameEnd(CharSequence line, int index) {
+		int i = index+1;
+		while (i<line.length()) {
+			char c = line.charAt(i);
+			if (!(Character.isLetterOrDigit(c) || c=='_' || c==':' || c=='-' || c=='.')) {
+				break;
+			}
+			i++;
+		}
+		return i;
+	}
+
+	// Returns the index after the entity that starts at the index, or -1 if there isn't one
+	private static int entityEnd(CharSequence line, int index) {
+		for (int i=index+1; i<line.length() && i-index<=MAX_ENTITY_LENGTH; i++) {
+			char c = line.charAt(i);
+			if (c==';') {
+				return i>index+1?i+1:-1;
+			} else if (c=='&' || c=='<' || Character.isWhitespace(c)) {
+				return -1;
+			}
+		}
+		return -1;
 	}
 }
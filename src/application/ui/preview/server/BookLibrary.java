@@ -0,0 +1,191 @@
+package application.ui.preview.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import com.googlecode.ajui.Content;
+import com.googlecode.ajui.Context;
+import com.googlecode.ajui.XHTMLTagger;
+
+import application.common.BuildInfo;
+
+/**
+ * <p>Provides the books of a preview server. A request selects a book with the
+ * <code>book</code> argument, for example <code>view.html?book=2&amp;volume=3</code>.
+ * If the argument is missing and the library contains a single book, that book is used.
+ * Otherwise, a list of the books is returned.</p>
+ *
+ * <p>A book is loaded when it is first requested. Books that are kept loaded, such as the
+ * books that are open in the application, stay loaded until they are removed. Of the other
+ * books, only the most recently used are kept loaded. The maximum number can be set with the
+ * system property <code>application.preview.max-books</code>. The rendered volumes of all books
+ * share the disk cache of the preview.</p>
+ */
+public class BookLibrary implements Content {
+	private static final int DEFAULT_MAX_LOADED = 8;
+	private final int maxLoaded;
+	// In access order, the least recently used first
+	private final Map<String, Book> books;
+	private int nextId;
+
+	private static final class Book {
+		private final File file;
+		private final boolean keepLoaded;
+		private MainPage page;
+
+		private Book(File file, boolean keepLoaded) {
+			this.file = file;
+			this.keepLoaded = keepLoaded;
+			this.page = null;
+		}
+	}
+
+	/**
+	 * Creates a new empty library.
+	 */
+	public BookLibrary() {
+		this(Integer.getInteger("application.preview.max-books", DEFAULT_MAX_LOADED));
+	}
+
+	BookLibrary(int maxLoaded) {
+		this.maxLoaded = Math.max(1, maxLoaded);
+		this.books = new LinkedHashMap<>(16, 0.75f, true);
+		this.nextId = 0;
+	}
+
+	/**
+	 * Adds a book to the library.
+	 * @param f the file
+	 * @param keepLoaded true if the book should stay loaded until it is removed,
+	 * 		false if it may be unloaded when other books are used
+	 * @return the identifier of the book
+	 */
+	public synchronized String add(File f, boolean keepLoaded) {
+		nextId++;
+		String id = Integer.toString(nextId);
+		books.put(id, new Book(f, keepLoaded));
+		return id;
+	}
+
+	/**
+	 * Removes a book from the library.
+	 * @param id the identifier of the book
+	 */
+	public void remove(String id) {
+		Book b;
+		synchronized (this) {
+			b = books.remove(id);
+		}
+		if (b!=null && b.page!=null) {
+			b.page.close();
+		}
+	}
+
+	/**
+	 * Gets the page of a book, loading the book if necessary.
+	 * @param id the identifier of the book
+	 * @return the page, or an empty optional if the library doesn't contain the book
+	 */
+	public Optional<MainPage> getPage(String id) {
+		List<MainPage> unload = Collections.emptyList();
+		MainPage ret;
+		synchronized (this) {
+			Book b = books.get(id);
+			if (b==null) {
+				return Optional.empty();
+			}
+			if (b.page==null) {
+				b.page = new MainPage(b.file, id);
+				unload = evict();
+			}
+			ret = b.page;
+		}
+		// Closed outside of the lock, so that other books can be served meanwhile
+		for (MainPage p : unload) {
+			p.close();
+		}
+		return Optional.of(ret);
+	}
+
+	// Unloads the least recently used books that aren't kept loaded, until at most maxLoaded of them remain
+	private List<MainPage> evict() {
+		int loaded = 0;
+		for (Book b : books.values()) {
+			if (b.page!=null && !b.keepLoaded) {
+				loaded++;
+			}
+		}
+		List<MainPage> ret = new ArrayList<>();
+		Iterator<Book> it = books.values().iterator();
+		while (loaded>maxLoaded && it.hasNext()) {
+			Book b = it.next();
+			if (b.page!=null && !b.keepLoaded) {
+				ret.add(b.page);
+				b.page = null;
+				loaded--;
+			}
+		}
+		return ret;
+	}
+
+	@Override
+	public Reader getContent(String key, Context context) throws IOException {
+		String id = context.getArgs().get("book");
+		if (id==null) {
+			synchronized (this) {
+				if (books.size()==1) {
+					id = books.keySet().iterator().next();
+				}
+			}
+		}
+		Optional<MainPage> page = id!=null?getPage(id):Optional.empty();
+		if (page.isPresent()) {
+			return page.get().getContent(key, context);
+		} else {
+			return new StringReader(buildIndex());
+		}
+	}
+
+	private synchronized String buildIndex() {
+		XHTMLTagger sb = new XHTMLTagger();
+		sb.start("html").attr("xmlns", "http://www.w3.org/1999/xhtml")
+		.start("head")
+		.start("meta").attr("http-equiv", "content-type").attr("content", "text/html; charset=UTF-8").end()
+		.start("title").text(BuildInfo.NAME).end()
+		.end();
+		sb.start("body").tag("h1", BuildInfo.NAME).start("ul");
+		List<Map.Entry<String, Book>> entries = new ArrayList<>(books.entrySet());
+		entries.sort(Comparator.comparing(e->e.getValue().file.getName()));
+		for (Map.Entry<String, Book> e : entries) {
+			sb.start("li").start("a").attr("href", "view.html?book=" + e.getKey()).text(e.getValue().file.getName()).end().end();
+		}
+		sb.end().end().end();
+		return sb.getResult();
+	}
+
+	@Override
+	public void close() {
+		List<MainPage> pages = new ArrayList<>();
+		synchronized (this) {
+			for (Book b : books.values()) {
+				if (b.page!=null) {
+					pages.add(b.page);
+					b.page = null;
+				}
+			}
+		}
+		for (MainPage p : pages) {
+			p.close();
+		}
+	}
+}
@@ -3,6 +3,7 @@ package application.ui.preview.server;
 import java.io.File;
 import java.net.URI;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 import org.daisy.braille.utils.pef.PEFBook;
 
@@ -33,10 +34,36 @@ public class BookViewController {
 		return bookReader.getResult().getBook();
 	}
 
+	/**
+	 * Gets the generation of the book, which changes every time that the contents
+	 * of the file changes, and when the result of reading it becomes available.
+	 * @return the generation
+	 */
+	public long getGeneration() {
+		return bookReader.getGeneration();
+	}
+
+	/**
+	 * Checks the book file for changes.
+	 * @return a future that completes when the check is done
+	 * @see BookReader#checkFile()
+	 */
+	public CompletableFuture<Void> checkFile() {
+		return bookReader.checkFile();
+	}
+
 	public BookReaderResult getBookReaderResult() {
 		return bookReader.getResult();
 	}
 
+	/**
+	 * Gets the result of reading the book, without waiting for it.
+	 * @return the result future
+	 */
+	public CompletableFuture<BookReaderResult> getBookReaderResultAsync() {
+		return bookReader.getResultAsync();
+	}
+
 	public boolean bookIsValid() {
 		return bookReader.getResult().isValid();
 	}
@@ -45,15 +72,30 @@ public class BookViewController {
 		return new AboutBookView(bookReader.getResult().getBook(), bookReader.getResult().getValidationMessages());
 	}
 
-	public StaxPreviewController getPreviewView() {
+	/**
+	 * Gets the preview controller, which is created the first time that it is needed.
+	 * This is called from the server threads as well as from the viewer.
+	 * @return the preview controller
+	 */
+	public synchronized StaxPreviewController getPreviewView() {
 		if (controller==null) {
 			controller = new StaxPreviewController(bookReader, settings);
 		}
 		return controller;
 	}
 
-	public void close() {
+	/**
+	 * Gives the background work for this book precedence over that of other books.
+	 */
+	public void activate() {
+		bookReader.activate();
+	}
+
+	public synchronized void close() {
 		bookReader.cancel();
+		if (controller!=null) {
+			controller.close();
+		}
 	}
 
 }
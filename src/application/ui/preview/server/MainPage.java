@@ -6,15 +6,19 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.daisy.dotify.studio.api.DocumentPosition;
 
 import java.util.Optional;
+import java.util.OptionalInt;
 
 import com.googlecode.ajui.Content;
 import com.googlecode.ajui.Context;
@@ -27,25 +31,108 @@ import application.ui.preview.server.preview.stax.BookReaderResult;
 public class MainPage implements Content {
 	public final static String ENCODING = "utf-8";
 	private final BookViewController bookController;
+	private final String id;
+	// The generation of the book that the content was last read from, by content key
+	private final Map<String, Long> served;
 
-	public MainPage(File f) {
+	/**
+	 * Creates a new main page.
+	 * @param f the file
+	 * @param id the identifier of the book in the library, added to the links of the page
+	 */
+	public MainPage(File f, String id) {
 		bookController = new BookViewController(f);
+		this.id = id;
+		served = new ConcurrentHashMap<>();
 	}
 
 	public URI getBookURI() {
 		return bookController.getBookURI();
 	}
 
+	/**
+	 * Checks the book file for changes. A change that keeps the size of the file may not
+	 * be visible to {@link #isModified(String)} until the returned future completes.
+	 * @return a future that completes when the check is done
+	 */
+	public CompletableFuture<Void> checkFile() {
+		return bookController.checkFile();
+	}
+
 	public Optional<BookReaderResult> getBookReaderResult() {
 		return Optional.ofNullable(bookController.getBookReaderResult());
 	}
+
+	/**
+	 * Gets the result of reading the book, including the validation report, without waiting for it.
+	 * @return the result future
+	 */
+	public CompletableFuture<BookReaderResult> getBookReaderResultAsync() {
+		return bookController.getBookReaderResultAsync();
+	}
 	
 	public int getVolumeForPosition(DocumentPosition p) {
 		return bookController.getPreviewView().getVolumeForPosition(p);
 	}
 
-	private Reader previewReader(String key, Context context) {
-		String volume = context.getArgs().get("volume");
+	public OptionalInt getPageForPosition(DocumentPosition p) {
+		return bookController.getPreviewView().getPageForPosition(p);
+	}
+
+	/**
+	 * Gives the background work for this book precedence over that of other books.
+	 */
+	public void activate() {
+		bookController.activate();
+	}
+
+	/**
+	 * Returns true if the content at the specified location has changed since it was
+	 * last returned by this page. This corresponds to a conditional request with the
+	 * entity tag of the previous response, and allows the viewer to skip reloading
+	 * content that hasn't changed.
+	 * @param location the location of the content
+	 * @return true if the content has changed, or has not been read, false otherwise
+	 */
+	public boolean isModified(String location) {
+		URI uri;
+		try {
+			uri = new URI(location);
+		} catch (URISyntaxException e) {
+			return true;
+		}
+		String name = uri.getPath()!=null?uri.getPath().substring(uri.getPath().lastIndexOf('/')+1):"";
+		String key = name.indexOf('.')>-1?name.substring(0, name.indexOf('.')):name;
+		Map<String, String> args = new HashMap<>();
+		if (uri.getQuery()!=null) {
+			for (String arg : uri.getQuery().split("&")) {
+				String[] kv = arg.split("=", 2);
+				args.put(kv[0], kv.length>1?kv[1]:"");
+			}
+		}
+		String tagKey = getTagKey(key, args);
+		if (tagKey!=null) {
+			return !Long.valueOf(bookController.getGeneration()).equals(served.get(tagKey));
+		} else if ("pages".equals(key) || "navigation".equals(key)) {
+			return true;
+		} else {
+			return bookController.getPreviewView().isModified(getVolume(args));
+		}
+	}
+
+	// Gets the key of the content that only depends on the contents of the book, or null
+	private static String getTagKey(String key, Map<String, String> args) {
+		if ("book".equals(key)) {
+			return key;
+		} else if ("meta".equals(args.get("method"))) {
+			return "meta";
+		} else {
+			return null;
+		}
+	}
+
+	private static int getVolume(Map<String, String> args) {
+		String volume = args.get("volume");
 		int v = 1;
 		try {
 			v = Integer.parseInt(volume);
@@ -53,16 +140,43 @@ public class MainPage implements Content {
 
 		}
 		if (v<1) {v=1;}
-		return bookController.getPreviewView().getReader(v);
+		return v;
+	}
+
+	private Reader previewReader(String key, Context context) {
+		return bookController.getPreviewView().getReader(getVolume(context.getArgs()));
+	}
+
+	private Reader pagesReader(Context context) {
+		String pages = context.getArgs().get("pages");
+		int v = getVolume(context.getArgs());
+		// a range of page numbers, such as 120-140
+		String[] range = (pages!=null?pages:"").split("-", 2);
+		try {
+			int from = Integer.parseInt(range[0].trim());
+			int to = range.length>1?Integer.parseInt(range[1].trim()):from;
+			return bookController.getPreviewView().getPagesReader(v, from, to);
+		} catch (NumberFormatException e) {
+			return new StringReader("{\"volume\":" + v + ",\"pages\":[]}");
+		}
 	}
 
 	@Override
 	public Reader getContent(String key, Context context) throws IOException {
+		String tagKey = getTagKey(key, context.getArgs());
+		if (tagKey!=null) {
+			// Before reading, so that a change while reading is detected by isModified
+			served.put(tagKey, bookController.getGeneration());
+		}
 		if ("book".equals(key)) {
 			return new InputStreamReader(bookController.getBookURI().toURL().openStream(), bookController.getBook().getInputEncoding());
 		} else if ("preview-new".equals(key)) {
 			//TODO: this is the same as the default
 			return previewReader(key, context);
+		} else if ("pages".equals(key)) {
+			return pagesReader(context);
+		} else if ("navigation".equals(key)) {
+			return bookController.getPreviewView().getNavigationReader();
 		} else if ("meta".equals(context.getArgs().get("method"))) {
 			return new StringReader(buildHTML(bookController.getAboutBookView().getHTML(context), Messages.ABOUT_THE_BOOK.localize(), true));
 		} else {
@@ -82,11 +196,16 @@ public class MainPage implements Content {
 
 	private Map<String, String> getBodyAttributes() {
 		HashMap<String, String> bodyAtts = new HashMap<>();
-		bodyAtts.put("onload", "get('ping.xml?updates=true'+getUpdateString())");
+		bodyAtts.put("onload", "get('"+link("ping.xml?updates=true")+"'+getUpdateString())");
 		bodyAtts.put("class", "ui");
 		return bodyAtts;
 	}
 
+	// Adds the book to a link to other content of the book
+	private String link(String url) {
+		return url + (url.indexOf('?')>-1?"&":"?") + "book=" + id;
+	}
+
 	private List<String> getStylePaths() {
 		List<String> styles = new ArrayList<>();
 		styles.add("styles/default/base.css");
@@ -128,10 +247,10 @@ public class MainPage implements Content {
 			sb.start("div").attr("id", "view");
 			sb.start("form").attr("action", "#").attr("method", "get").start("p")
 			.start("span").attr("id", "item-preview")
-			.start("a").attr("href", "view.html").text(Messages.PREVIEW_VIEW.localize()).end()
+			.start("a").attr("href", link("view.html")).text(Messages.PREVIEW_VIEW.localize()).end()
 			.end()
 			.start("span")
-			.start("a").attr("href", "index.html?method=meta").text(Messages.MENU_ABOUT_BOOK.localize()).end()
+			.start("a").attr("href", link("index.html?method=meta")).text(Messages.MENU_ABOUT_BOOK.localize()).end()
 			.end()
 			.start("input").attr("id", "connected").attr("type", "submit").attr("value", "").attr("title", "Avsluta").attr("disabled", "disabled").end()
 			.start("input").attr("id", "notConnected").attr("type", "submit").attr("value", "").attr("title", "Avsluta").attr("disabled", "disabled").end()
@@ -0,0 +1,105 @@
+package application.ui.preview.server;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import com.googlecode.ajui.BrowserUI;
+
+/**
+ * <p>Provides a preview server that hosts many books, see {@link BookLibrary}.
+ * The application uses a single instance for all open books.</p>
+ *
+ * <p>The server can also be started without the application, to serve the PEF-files
+ * in a folder to a browser:</p>
+ * <pre>java -cp ... application.ui.preview.server.PreviewServer folder</pre>
+ */
+public final class PreviewServer {
+	private static PreviewServer instance;
+	private final BookLibrary library;
+	private final BrowserUI ui;
+	private final String baseUrl;
+
+	private PreviewServer(BookLibrary library, boolean log) throws Exception {
+		this.library = library;
+		BrowserUI.Builder buildUi = new BrowserUI.Builder(Start.RESOURCES_PATH);
+		buildUi.timeout(5000);
+		if (!log) {
+			buildUi.logStream(null);
+		}
+		ui = buildUi.build();
+		ui.registerContents(library);
+		String url = ui.start("index.html");
+		baseUrl = url.substring(0, url.lastIndexOf('/')+1);
+	}
+
+	/**
+	 * Gets the server shared by the books that are open in the application.
+	 * The server is started the first time that this method is called.
+	 * @return the server
+	 * @throws Exception if the server could not be started
+	 */
+	public static synchronized PreviewServer getInstance() throws Exception {
+		if (instance==null) {
+			instance = new PreviewServer(new BookLibrary(), false);
+		}
+		return instance;
+	}
+
+	/**
+	 * Stops the server shared by the books that are open in the application, if it
+	 * has been started. Call this when the application closes.
+	 */
+	public static synchronized void shutdown() {
+		if (instance!=null) {
+			instance.ui.stopServer();
+			instance = null;
+		}
+	}
+
+	/**
+	 * Gets the library of the server.
+	 * @return the library
+	 */
+	public BookLibrary getLibrary() {
+		return library;
+	}
+
+	/**
+	 * Gets the url of the preview of a book.
+	 * @param id the identifier of the book
+	 * @return the url
+	 */
+	public String getUrl(String id) {
+		return baseUrl + "view.html?book=" + id;
+	}
+
+	/**
+	 * Gets the url of the list of books.
+	 * @return the url
+	 */
+	public String getIndexUrl() {
+		return baseUrl + "index.html";
+	}
+
+	/**
+	 * Serves the PEF-files in a folder until the process is stopped.
+	 * @param args the folder
+	 * @throws Exception if the server could not be started
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length!=1 || !new File(args[0]).isDirectory()) {
+			System.out.println("Expected: folder");
+			System.exit(1);
+		}
+		BookLibrary library = new BookLibrary();
+		File[] files = new File(args[0]).listFiles((dir, name)->name.toLowerCase().endsWith(".pef"));
+		Arrays.sort(files);
+		for (File f : files) {
+			library.add(f, false);
+		}
+		PreviewServer server = new PreviewServer(library, true);
+		System.out.println(server.getIndexUrl());
+		new CountDownLatch(1).await();
+	}
+}
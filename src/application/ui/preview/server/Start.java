@@ -4,23 +4,35 @@ import java.util.Objects;
 
 import com.googlecode.ajui.BrowserUI;
 
+import application.common.FeatureSwitch;
+
 public class Start {
-	private static final String RESOURCES_PATH = Start.class.getPackage().getName().replace('.', '/')+"/resource-files";
+	static final String RESOURCES_PATH = Start.class.getPackage().getName().replace('.', '/')+"/resource-files";
 	private MainPage content;
 	private BrowserUI ui;
+	private PreviewServer server;
+	private String id;
 
 	public String start(StartupDetails args) throws Exception  {
 		Objects.requireNonNull(args);
+		if (FeatureSwitch.SHARED_PREVIEW_SERVER.isOn() && !args.shouldDisplay()) {
+			server = PreviewServer.getInstance();
+			id = server.getLibrary().add(args.getFile(), true);
+			content = server.getLibrary().getPage(id).get();
+			return server.getUrl(id);
+		}
 		BrowserUI.Builder buildUi = new BrowserUI.Builder(RESOURCES_PATH);
 		buildUi.timeout(5000);
 		if (!args.shouldLog()) { 
 			buildUi.logStream(null);
 		}
 		String page = "";
-		content = new MainPage(args.getFile());
+		BookLibrary library = new BookLibrary();
+		id = library.add(args.getFile(), true);
+		content = library.getPage(id).get();
 		page = "view.html";
 		ui = buildUi.build();
-		ui.registerContents(content);
+		ui.registerContents(library);
 		if (args.shouldDisplay()) {
 			ui.display(page);
 			return null;
@@ -34,7 +46,12 @@ public class Start {
 	}
 	
 	public void stopServer() {
-		ui.stopServer();
+		if (server!=null) {
+			// The server is shared with other books
+			server.getLibrary().remove(id);
+		} else {
+			ui.stopServer();
+		}
 	}
 
 }
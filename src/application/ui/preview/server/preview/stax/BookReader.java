@@ -1,29 +1,24 @@
 package application.ui.preview.server.preview.stax;
 
 import java.io.File;
-import java.net.URI;
-import java.util.Date;
 import java.util.Objects;
-import java.util.concurrent.ExecutionException;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.concurrent.CompletableFuture;
 
-import org.daisy.braille.utils.pef.PEFBook;
-import org.daisy.streamline.api.validity.ValidationReport;
 import org.daisy.streamline.api.validity.ValidatorFactoryMaker;
 import org.daisy.streamline.api.validity.ValidatorFactoryMakerService;
 
-import javafx.concurrent.Task;
-
 public class BookReader {
-	private static final Logger logger = Logger.getLogger(BookReader.class.getCanonicalName());
 	private final File source;
-	private Task<BookReaderResult> bookReader;
+	private final PreviewExecutor.Priority priority;
+	private final ChangeDetector changes;
+	private PefIngest ingest;
+	private long generation = 0;
 	private org.daisy.streamline.api.validity.Validator pv = null;
-	private long lastUpdated = 0;
 
 	public BookReader(final File f) {
 		this.source = Objects.requireNonNull(f);
+		this.priority = PreviewExecutor.getInstance().newPriority();
+		this.changes = new ChangeDetector(source, priority, this::contentsChanged);
 		ValidatorFactoryMakerService factory = ValidatorFactoryMaker.newInstance();
 		pv = factory.newValidator("application/x-pef+xml");
 		fileChanged();
@@ -34,50 +29,88 @@ public class BookReader {
 	}
 
 	public boolean cancel() {
-		return bookReader.cancel();
+		return ingest.cancel();
+	}
+
+	/**
+	 * Gives the background work for this book precedence over that of other books.
+	 */
+	public void activate() {
+		priority.raise();
+	}
+
+	/**
+	 * Gets the priority of the background work for this book.
+	 * @return the priority
+	 */
+	PreviewExecutor.Priority getPriority() {
+		return priority;
 	}
 
 	private synchronized boolean fileChanged() {
-		if (lastUpdated<source.lastModified()) {
-			if (bookReader!=null && !bookReader.isDone()) {
-				cancel();
-			}
-			lastUpdated = System.currentTimeMillis();
-			bookReader = new Task<BookReaderResult>() {
-				@Override
-				protected BookReaderResult call() throws Exception {
-					Date d = new Date();
-					try {
-						ValidationReport report = null;
-						if (pv != null) {
-							report = pv.validate(source.toURI().toURL());
-						}
-						if (isCancelled()) {
-							return null;
-						}
-						URI uri = source.toURI();
-						PEFBook p = PEFBook.load(uri);
-						return new BookReaderResult(p, source, uri, report);
-					} finally {
-						logger.info("Book Reader (file): " + (new Date().getTime() - d.getTime()));
-					}
-				}
-			};
-			new Thread(bookReader).start();
+		if (changes.hasChanged()) {
+			contentsChanged();
 			return true;
 		} else {
 			return false;
 		}
 	}
 
-	public synchronized BookReaderResult getResult() {
-		fileChanged();
-		try {
-			return bookReader.get();
-		} catch (InterruptedException | ExecutionException e1) {
-			logger.log(Level.INFO, "An error occurred.", e1);
-			return null;
+	private synchronized void contentsChanged() {
+		if (ingest!=null && !ingest.isDone()) {
+			cancel();
 		}
+		ingest = new PefIngest(source, changes.digest(), pv, priority.newGroup());
+		generation++;
+	}
+
+	/**
+	 * Checks the file for changes. A change that keeps the size of the file is found
+	 * by a digest computation in the background, in the meantime the current ingest
+	 * is used. The returned future completes when that computation is done, and a
+	 * new ingest has been started if the contents has changed.
+	 * @return the future
+	 */
+	public CompletableFuture<Void> checkFile() {
+		synchronized (this) {
+			fileChanged();
+			return changes.pending();
+		}
+	}
+
+	/**
+	 * Gets the current ingest of the file, without waiting for it to complete.
+	 * A new ingest is started if the contents of the file has changed, see {@link #checkFile()}.
+	 * @return the ingest
+	 */
+	synchronized PefIngest getIngest() {
+		fileChanged();
+		return ingest;
+	}
+
+	/**
+	 * Gets the generation of the book, which changes every time that the contents
+	 * of the file changes, and when the result of reading it becomes available.
+	 * @return the generation
+	 */
+	public synchronized long getGeneration() {
+		fileChanged();
+		return generation*2 + (ingest.isDone()?1:0);
+	}
+
+	public BookReaderResult getResult() {
+		// Waits outside of the lock, so that the ingest is available to others while the validation completes
+		return getIngest().getResult();
+	}
+
+	/**
+	 * Gets the result of reading the current contents of the file, without waiting for it.
+	 * The future completes exceptionally if the file could not be read, or if the contents
+	 * changed before the reading completed.
+	 * @return the result future
+	 */
+	public CompletableFuture<BookReaderResult> getResultAsync() {
+		return getIngest().getResultAsync();
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,129 @@
+package application.ui.preview.server.preview.stax;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Detects changes to the contents of a file. The size and the time of last
+ * modification of the file are checked first. If the size has changed, so has the
+ * contents. If only the time of last modification has changed, a digest of the
+ * contents is computed and compared with the previous one. This way, a file that
+ * is touched, or written again with the same contents, isn't reported as changed.</p>
+ *
+ * <p>The digest is computed by the {@link PreviewExecutor} and the caller doesn't
+ * wait for it. Until it has been computed, the contents is considered unchanged.
+ * If it turns out that the contents has changed, the change is reported to the
+ * listener instead.</p>
+ *
+ * <p>The digest of the reported contents is available from {@link #digest()}. It is
+ * the same as {@link RenderFingerprint#digest(File)}, so that the file doesn't have
+ * to be read again to identify the contents.</p>
+ *
+ * <p>A change that keeps both the size and the time of last modification of the
+ * file isn't detected.</p>
+ */
+final class ChangeDetector {
+	private static final Logger logger = Logger.getLogger(ChangeDetector.class.getCanonicalName());
+	private final File file;
+	private final PreviewExecutor.Priority priority;
+	private final Runnable listener;
+	private boolean checked;
+	// The size and time of last modification of the contents that was last reported
+	private long size;
+	private long lastModified;
+	// The digest of the contents that was last reported, null if the file could not be read
+	private CompletableFuture<byte[]> digest;
+	// The latest digest computation and the time of last modification that it is for
+	private CompletableFuture<Void> pending;
+	private long pendingLastModified;
+	// Identifies the latest check, so that the result of an earlier one is ignored
+	private int checks;
+
+	/**
+	 * Creates a new change detector.
+	 * @param file the file
+	 * @param priority the priority of the digest computations
+	 * @param listener the listener to notify when a change is found by a digest
+	 * 			computation, called on the thread that computed it
+	 */
+	ChangeDetector(File file, PreviewExecutor.Priority priority, Runnable listener) {
+		this.file = file;
+		this.priority = priority;
+		this.listener = listener;
+		this.checked = false;
+		this.pending = null;
+		this.checks = 0;
+	}
+
+	/**
+	 * Returns true if the contents of the file has changed since the previous call.
+	 * The first call always returns true. If a digest must be computed to find out,
+	 * this method returns false and the listener is notified if the contents has changed.
+	 * @return true if the contents has changed, false otherwise
+	 */
+	synchronized boolean hasChanged() {
+		long size = file.length();
+		long lastModified = file.lastModified();
+		if (!checked || size!=this.size) {
+			checks++;
+			this.checked = true;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.digest = computeDigest();
+			this.pending = digest.thenAccept(v->{});
+			this.pendingLastModified = lastModified;
+			return true;
+		} else if (lastModified!=this.lastModified && lastModified!=pendingLastModified) {
+			check(lastModified);
+		}
+		return false;
+	}
+
+	private void check(long lastModified) {
+		int id = ++checks;
+		CompletableFuture<byte[]> candidate = computeDigest();
+		pendingLastModified = lastModified;
+		pending = digest.thenCombine(candidate, (a, b)->!Arrays.equals(a, b)).thenAccept(changed->{
+			synchronized (this) {
+				if (id!=checks) {
+					return;
+				}
+				this.lastModified = lastModified;
+				if (changed) {
+					this.digest = candidate;
+				}
+			}
+			if (changed) {
+				listener.run();
+			}
+		});
+	}
+
+	/**
+	 * Gets the latest digest computation started by {@link #hasChanged()}. The returned
+	 * future completes after the listener has been notified of a change.
+	 * @return the future
+	 */
+	synchronized CompletableFuture<Void> pending() {
+		return pending!=null?pending:CompletableFuture.completedFuture(null);
+	}
+
+	/**
+	 * Gets the digest of the contents that was last reported as changed, either by
+	 * {@link #hasChanged()} or to the listener.
+	 * @return the digest future, completed with null if the file could not be read
+	 */
+	synchronized CompletableFuture<byte[]> digest() {
+		return digest;
+	}
+
+	private CompletableFuture<byte[]> computeDigest() {
+		return priority.newGroup().submit(()->RenderFingerprint.digest(file)).exceptionally(e->{
+			logger.log(Level.FINE, "Failed to read " + file, e);
+			return null;
+		});
+	}
+}
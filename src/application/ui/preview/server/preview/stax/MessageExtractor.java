@@ -1,13 +1,11 @@
 package application.ui.preview.server.preview.stax;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
 
-import javax.xml.stream.Location;
-
 import org.daisy.dotify.studio.api.DocumentPosition;
 import org.daisy.streamline.api.validity.ValidatorMessage;
 
@@ -17,66 +15,85 @@ import org.daisy.streamline.api.validity.ValidatorMessage;
  */
 class MessageExtractor { 
 	private static final List<ValidatorMessage> EMPTY_LIST = Collections.emptyList();
-	private static final Comparator<? super ValidatorMessage> MESSAGE_COMPARATOR = (t1, t2)->toDocumentPosition(t1).compareTo(toDocumentPosition(t2)); 
-	private Iterator<ValidatorMessage> messages;
-	private ValidatorMessage current;
-	private DocumentPosition lastSeenLocation;
+	private final ValidatorMessage[] messages;
+	private final PositionIndex positions;
+	private int next;
+	private long lastSeenLocation;
 
 	/**
 	 * Creates a new instance with the supplied messages.
 	 * @param messages the validation messages
 	 */
 	MessageExtractor(List<ValidatorMessage> messages) {
+		ValidatorMessage[] m = messages.toArray(new ValidatorMessage[messages.size()]);
+		long[] p = new long[m.length];
+		boolean sorted = true;
+		for (int i=0; i<m.length; i++) {
+			p[i] = toPosition(m[i]);
+			sorted &= i==0 || p[i-1]<=p[i];
+		}
 		// Make sure messages are in document order. They should be already, but since the implementation requires it, we better make sure.
-		this.messages = messages.stream().sorted(MESSAGE_COMPARATOR).iterator();
+		if (!sorted) {
+			Arrays.sort(m, Comparator.comparingLong(MessageExtractor::toPosition));
+			for (int i=0; i<m.length; i++) {
+				p[i] = toPosition(m[i]);
+			}
+		}
+		this.messages = m;
+		this.positions = new PositionIndex(p);
+		this.next = 0;
+		this.lastSeenLocation = Long.MIN_VALUE;
+	}
+	
+	/**
+	 * Returns true if there are messages left to extract.
+	 * @return true if there are more messages, false otherwise
+	 */
+	boolean hasMessages() {
+		return next<messages.length;
 	}
 	
-	List<ValidatorMessage> extractMessages(Location startLoc, Location endLoc) {
-		if (!messages.hasNext() && current == null) {
+	List<ValidatorMessage> extractMessages(DocumentPosition start, DocumentPosition end) {
+		return extractMessages(start.toLong(), end.toLong());
+	}
+
+	/**
+	 * Extracts the messages in the specified range. Messages before the range are discarded.
+	 * @param start the packed start position, inclusive
+	 * @param end the packed end position, inclusive
+	 * @return the messages in the range
+	 * @see DocumentPosition#pack(int, int)
+	 */
+	List<ValidatorMessage> extractMessages(long start, long end) {
+		if (!hasMessages()) {
 			return EMPTY_LIST;
 		}
-		DocumentPosition end = DocumentPosition.with(endLoc);
-		DocumentPosition start = DocumentPosition.with(startLoc);
-		if (start.getLineNumber()<0) {
+		if (DocumentPosition.unpackLine(start)<0) {
 			throw new IllegalArgumentException("Line must be >= 0");
 		}
-		if (start.getColumnNumber()<0) {
+		if (DocumentPosition.unpackColumn(start)<0) {
 			throw new IllegalArgumentException("Column must be >= 0");
 		}
-		if (end.isBefore(start)) {
+		if (end<start) {
 			throw new IllegalArgumentException("Illegal range.");
 		}
-		if (lastSeenLocation!=null && end.isBefore(lastSeenLocation)) {
+		if (end<lastSeenLocation) {
 			throw new IllegalArgumentException("Locations must be in order.");
 		}
 		lastSeenLocation = end;
-		List<ValidatorMessage> ret = null;
-		do {
-			if (current==null && messages.hasNext()) {
-				current = messages.next();
-			}
-			if (current!=null) {
-				if (toDocumentPosition(current).isBefore(start)) {
-					// we've passed this location, discard
-					current = null;
-				} else if (toDocumentPosition(current).isBeforeOrEqual(end)) {
-					if (ret == null) {
-						ret = new ArrayList<>();
-					}
-					ret.add(current);
-					current = null;
-				}
-			}
-		} while (current==null && messages.hasNext());
-		if (ret==null) {
+		// we've passed the messages before start, discard
+		int from = positions.firstNotBefore(start, next);
+		int to = positions.firstAfter(end, from);
+		next = to;
+		if (from==to) {
 			return EMPTY_LIST;
 		} else {
-			return ret;
+			return new ArrayList<>(Arrays.asList(messages).subList(from, to));
 		}
 	}
 	
-	private static DocumentPosition toDocumentPosition(ValidatorMessage m) {
-		return DocumentPosition.with(m.getLineNumber(), m.getColumnNumber());
+	private static long toPosition(ValidatorMessage m) {
+		return DocumentPosition.pack(m.getLineNumber(), m.getColumnNumber());
 	}
 	
 	public static String messageId(ValidatorMessage m) {
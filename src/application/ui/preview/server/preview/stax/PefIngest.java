@@ -0,0 +1,172 @@
+package application.ui.preview.server.preview.stax;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.daisy.braille.utils.pef.PEFBook;
+import org.daisy.streamline.api.validity.ValidationReport;
+import org.daisy.streamline.api.validity.Validator;
+
+/**
+ * <p>Provides the ingest of a PEF-file. The validation and the loading of the book are
+ * started at the same time, and the book is made available as soon as it has been loaded.
+ * This allows the preview to start rendering without waiting for the validation, which
+ * is by far the slowest of the stages.</p>
+ *
+ * <p>Since the validation report is only used by the preview to mark validation issues,
+ * a preview rendered with {@link #provisionalReport()} is identical to one rendered with
+ * the final report, unless {@link #hasIssues(ValidationReport)} returns true for the
+ * final report.</p>
+ */
+class PefIngest {
+	private static final Logger logger = Logger.getLogger(PefIngest.class.getCanonicalName());
+	private final File source;
+	private final PreviewExecutor.Group group;
+	private final CompletableFuture<byte[]> digest;
+	private final CompletableFuture<PEFBook> book;
+	private final CompletableFuture<ValidationReport> report;
+	private final CompletableFuture<BookReaderResult> result;
+
+	/**
+	 * Creates a new ingest and starts processing the file.
+	 * @param source the file
+	 * @param digest the digest of the contents of the file, see {@link #getDigest()}
+	 * @param pv the validator, or null if the file should not be validated
+	 * @param group the group to run the stages in
+	 */
+	PefIngest(File source, CompletableFuture<byte[]> digest, Validator pv, PreviewExecutor.Group group) {
+		this.source = source;
+		this.digest = digest;
+		this.group = group;
+		URI uri = source.toURI();
+		this.report = stage("Validation", ()->{
+			if (pv == null) {
+				return null;
+			}
+			return pv.validate(uri.toURL());
+		});
+		this.book = stage("Book loading", ()->PEFBook.load(uri));
+		this.result = book.thenCombine(report, (b, r)->new BookReaderResult(b, source, uri, r));
+	}
+
+	private <T> CompletableFuture<T> stage(String name, Callable<T> s) {
+		return group.submit(()->{
+			long t0 = System.currentTimeMillis();
+			try {
+				return s.call();
+			} finally {
+				logger.info(name + " (file): " + (System.currentTimeMillis() - t0));
+			}
+		});
+	}
+
+	File getFile() {
+		return source;
+	}
+
+	/**
+	 * Gets the digest of the contents of the file, computed when the change to the
+	 * contents was detected. It identifies the contents in the page index and the
+	 * preview cache, see {@link RenderFingerprint#digest(File)}.
+	 * @return the digest future, completed with null if the file could not be read
+	 */
+	CompletableFuture<byte[]> getDigest() {
+		return digest;
+	}
+
+	/**
+	 * Gets the book, waiting for it to be loaded if necessary. This method does not wait for the
+	 * validation to complete.
+	 * @return the book, or an empty optional if the book could not be loaded
+	 */
+	Optional<PEFBook> getBook() {
+		return Optional.ofNullable(await(book));
+	}
+
+	/**
+	 * Gets the validation report. Note that the report may be null if the validation failed.
+	 * @return the validation report future
+	 */
+	CompletableFuture<ValidationReport> getValidationReport() {
+		return report;
+	}
+
+	/**
+	 * Gets the result, waiting for both the book and the validation report if necessary.
+	 * @return the result, or null if the book could not be loaded
+	 */
+	BookReaderResult getResult() {
+		return await(result);
+	}
+
+	/**
+	 * Gets the result without waiting for it. The future completes exceptionally
+	 * if the book could not be loaded or if the ingest is cancelled.
+	 * @return the result future
+	 */
+	CompletableFuture<BookReaderResult> getResultAsync() {
+		return result;
+	}
+
+	boolean isDone() {
+		return result.isDone();
+	}
+
+	/**
+	 * Cancels the ingest. Stages that are already running are interrupted,
+	 * and their results are discarded.
+	 * @return true if the ingest was cancelled, false otherwise
+	 */
+	boolean cancel() {
+		boolean ret = !book.isDone() || !report.isDone();
+		group.cancel();
+		return ret;
+	}
+
+	/**
+	 * Gets a report to use while the validation is still running.
+	 * @return a report without messages
+	 */
+	ValidationReport provisionalReport() {
+		URL url = null;
+		try {
+			url = source.toURI().toURL();
+		} catch (MalformedURLException e) {
+			// the url is informative only
+		}
+		return new ValidationReport.Builder(url).build();
+	}
+
+	/**
+	 * Returns true if the report will affect the preview, in other words, if the preview of a
+	 * book with this report is different from a preview made with the {@link #provisionalReport()}.
+	 * A missing report has issues, since the preview then shows a validation warning.
+	 * @param report the report, may be null
+	 * @return true if the report has issues, false otherwise
+	 */
+	static boolean hasIssues(ValidationReport report) {
+		return report==null || !report.isValid() || !report.getMessages().isEmpty();
+	}
+
+	private static <T> T await(CompletableFuture<T> f) {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException | CancellationException e) {
+			logger.log(Level.INFO, "An error occurred.", e);
+			return null;
+		}
+	}
+
+}
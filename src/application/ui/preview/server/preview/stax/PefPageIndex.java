@@ -0,0 +1,685 @@
+package application.ui.preview.server.preview.stax;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.daisy.dotify.studio.api.DocumentPosition;
+
+/**
+ * <p>Provides an index of the volumes and pages in a PEF-file. For each volume and
+ * page, the index contains its byte range and its position in the file, together with
+ * the page number used by the preview. For each page, the index also contains the
+ * section number and the inherited layout, which makes it possible to read a page
+ * without reading the rest of the file.</p>
+ *
+ * <p>The index is stored in a sidecar file in the cache directory, so that a file
+ * only has to be scanned once. The sidecar is validated against a digest of the
+ * contents of the file before it is used, since a file can be written again with
+ * the same size and time of last modification. Sidecars that haven't been used
+ * for {@value #MAX_AGE_DAYS} days are removed.</p>
+ */
+final class PefPageIndex {
+	private static final Logger logger = Logger.getLogger(PefPageIndex.class.getCanonicalName());
+	/**
+	 *  Modify this value when making incompatible changes to the sidecar format
+	 */
+	private static final String INDEX_VERSION = "3";
+	private static final String INDEX_SUFFIX = ".idx";
+	private static final int MAX_AGE_DAYS = 30;
+	private static final File DEFAULT_DIR = new File(System.getProperty("user.home"), ".dotify/cache/index");
+	private final File file;
+	private final String encoding;
+	private final Volumes volumes;
+	private final Pages pages;
+	private final List<Layout> layouts;
+	private final List<byte[]> headers;
+	private final PositionIndex pageStarts;
+	private final VolumeIndex volumeIndex;
+
+	/**
+	 * Provides the layout attributes of a page, including inherited values.
+	 */
+	static final class Layout {
+		private final int rows;
+		private final int cols;
+		private final int rowgap;
+		private final boolean duplex;
+
+		Layout(int rows, int cols, int rowgap, boolean duplex) {
+			this.rows = rows;
+			this.cols = cols;
+			this.rowgap = rowgap;
+			this.duplex = duplex;
+		}
+
+		int getRows() {
+			return rows;
+		}
+
+		int getCols() {
+			return cols;
+		}
+
+		int getRowgap() {
+			return rowgap;
+		}
+
+		boolean isDuplex() {
+			return duplex;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + cols;
+			result = prime * result + (duplex ? 1231 : 1237);
+			result = prime * result + rowgap;
+			result = prime * result + rows;
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			Layout other = (Layout) obj;
+			if (cols != other.cols)
+				return false;
+			if (duplex != other.duplex)
+				return false;
+			if (rowgap != other.rowgap)
+				return false;
+			if (rows != other.rows)
+				return false;
+			return true;
+		}
+	}
+
+	private PefPageIndex(File file, String encoding, Volumes volumes, Pages pages, List<Layout> layouts, List<byte[]> headers) {
+		this.file = file;
+		this.encoding = encoding;
+		this.volumes = volumes;
+		this.pages = pages;
+		this.layouts = layouts;
+		this.headers = headers;
+		this.pageStarts = new PositionIndex(Arrays.copyOf(pages.startPositions, pages.size));
+		List<VolumeIndex.Volume> vols = new ArrayList<>();
+		for (int i=0; i<volumes.size; i++) {
+			vols.add(new VolumeIndex.Volume(i+1, volumes.starts[i], volumes.ends[i], volumes.lines[i],
+					volumes.firstPages[i], DocumentPosition.fromLong(volumes.endPositions[i]), volumes.headers[i]));
+		}
+		this.volumeIndex = new VolumeIndex(file, Charset.forName(encoding), vols);
+	}
+
+	/**
+	 * Gets the index for the specified file, using the sidecar file in the default
+	 * cache directory if it matches the digest. Otherwise, the file is scanned and the
+	 * sidecar is updated.
+	 * @param file the PEF-file
+	 * @param digest the digest of the contents of the file, see {@link RenderFingerprint#digest(File)},
+	 * 			or null if it isn't available, in which case the file is scanned without using a sidecar
+	 * @return the index, or an empty optional if the file could not be indexed
+	 */
+	static Optional<PefPageIndex> load(File file, byte[] digest) {
+		return load(file, digest, DEFAULT_DIR);
+	}
+
+	/**
+	 * Gets the index for the specified file, using the sidecar file in the specified
+	 * directory if it matches the digest. Otherwise, the file is scanned and the
+	 * sidecar is updated.
+	 * @param file the PEF-file
+	 * @param digest the digest of the contents of the file, see {@link RenderFingerprint#digest(File)},
+	 * 			or null if it isn't available, in which case the file is scanned without using a sidecar
+	 * @param dir the sidecar directory
+	 * @return the index, or an empty optional if the file could not be indexed
+	 */
+	static Optional<PefPageIndex> load(File file, byte[] digest, File dir) {
+		if (digest==null) {
+			return scan(file);
+		}
+		File sidecar = new File(dir, sidecarName(file));
+		Optional<PefPageIndex> ret = read(file, digest, sidecar);
+		if (ret.isPresent()) {
+			// Update the time stamp of the sidecar, it is used when pruning
+			sidecar.setLastModified(System.currentTimeMillis());
+		} else {
+			MessageDigest md = RenderFingerprint.newDigest();
+			ret = scan(file, md);
+			// Don't store the index if the file has changed since the digest was computed
+			if (ret.isPresent() && Arrays.equals(digest, md.digest())) {
+				ret.get().write(sidecar, digest);
+				prune(dir);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Scans the file and creates a new index, without using a sidecar file.
+	 * @param file the PEF-file
+	 * @return the index, or an empty optional if the file could not be indexed
+	 */
+	static Optional<PefPageIndex> scan(File file) {
+		return scan(file, RenderFingerprint.newDigest());
+	}
+
+	/**
+	 * Scans the file and creates a new index, updating the digest with the contents of the file.
+	 * @param file the PEF-file
+	 * @param md the digest
+	 * @return the index, or an empty optional if the file could not be indexed
+	 */
+	private static Optional<PefPageIndex> scan(File file, MessageDigest md) {
+		long t0 = System.currentTimeMillis();
+		try (InputStream is = new DigestInputStream(new FileInputStream(file), md)) {
+			PefScanner scanner = new PefScanner(is);
+			IndexHandler h = new IndexHandler(scanner);
+			if (!scanner.scan(h) || !Charset.isSupported(scanner.getEncoding())) {
+				return Optional.empty();
+			}
+			return Optional.of(new PefPageIndex(file, scanner.getEncoding(), h.volumes, h.pages, h.layouts, h.headers));
+		} catch (IOException | RuntimeException e) {
+			logger.log(Level.FINE, "Failed to index file.", e);
+			return Optional.empty();
+		} finally {
+			logger.fine("Page index scan (file): " + (System.currentTimeMillis() - t0));
+		}
+	}
+
+	/**
+	 * Gets the volume index of the file.
+	 * @return the volume index
+	 */
+	VolumeIndex getVolumeIndex() {
+		return volumeIndex;
+	}
+
+	/**
+	 * Gets the number of pages in the file.
+	 * @return the number of pages
+	 */
+	int getPageCount() {
+		return pages.size;
+	}
+
+	/**
+	 * Gets the page number, as counted by the preview, of the page containing
+	 * the specified position.
+	 * @param p the position
+	 * @return the page number, or an empty optional if the position isn't inside a page
+	 */
+	OptionalInt getPageNumber(DocumentPosition p) {
+		long pos = p.toLong();
+		// the last page starting at or before the position
+		int i = pageStarts.firstAfter(pos, 0) - 1;
+		if (i<0 || pages.endPositions[i]<pos) {
+			return OptionalInt.empty();
+		}
+		return OptionalInt.of(pages.numbers[i]);
+	}
+
+	/**
+	 * Gets the index of the first page with a page number that is greater than or
+	 * equal to the specified page number.
+	 * @param pageNumber the page number, as counted by the preview
+	 * @return the index, or the number of pages if there is no such page
+	 */
+	int indexOf(int pageNumber) {
+		// page numbers increase through the file
+		return lowerBound(pages.numbers, pages.size, pageNumber);
+	}
+
+	/**
+	 * Gets the index of the first page in the specified volume.
+	 * @param volume the volume number
+	 * @return the index, or the number of pages if there is no such volume
+	 */
+	int firstPageInVolume(int volume) {
+		return lowerBound(pages.volumes, pages.size, volume);
+	}
+
+	private static int lowerBound(int[] a, int size, int value) {
+		int lo = 0;
+		int hi = size;
+		while (lo<hi) {
+			int mid = (lo + hi) >>> 1;
+			if (a[mid]<value) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Gets the page number of a page, as counted by the preview.
+	 * @param i the page index
+	 * @return the page number
+	 */
+	int getPageNumber(int i) {
+		return pages.numbers[i];
+	}
+
+	/**
+	 * Gets the volume number of a page.
+	 * @param i the page index
+	 * @return the volume number
+	 */
+	int getVolume(int i) {
+		return pages.volumes[i];
+	}
+
+	/**
+	 * Gets the section number of a page, within its volume.
+	 * @param i the page index
+	 * @return the section number
+	 */
+	int getSection(int i) {
+		return pages.sections[i];
+	}
+
+	/**
+	 * Returns true if the page is the first page in its section.
+	 * @param i the page index
+	 * @return true if the page is the first page in its section, false otherwise
+	 */
+	boolean isFirstInSection(int i) {
+		return i==0 || pages.volumes[i-1]!=pages.volumes[i] || pages.sections[i-1]!=pages.sections[i];
+	}
+
+	/**
+	 * Gets the layout of a page, including the attributes of the page itself.
+	 * @param i the page index
+	 * @return the layout
+	 */
+	Layout getLayout(int i) {
+		return layouts.get(pages.layouts[i]);
+	}
+
+	/**
+	 * Gets the number to add to line numbers in the page fragment in order to
+	 * get the line number in the file.
+	 * @param i the page index
+	 * @return the line offset
+	 * @see #newPageInputStream(int)
+	 */
+	int getLineOffset(int i) {
+		// the page element starts on the second line of the fragment
+		return DocumentPosition.unpackLine(pages.startPositions[i]) - 2;
+	}
+
+	/**
+	 * Opens a new input stream containing the specified page as a stand-alone document.
+	 * The page is read with a single seek, the rest of the file isn't read.
+	 * @param i the page index
+	 * @return a new input stream
+	 * @throws IOException if the page could not be read
+	 */
+	InputStream newPageInputStream(int i) throws IOException {
+		ByteBuffer body = ByteBuffer.allocate((int)(pages.ends[i]-pages.starts[i]));
+		try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			while (body.hasRemaining() && fc.read(body, pages.starts[i]+body.position())>-1) {
+				// read until the buffer is full
+			}
+		}
+		byte[] footer = ("</" + VolumeIndex.FRAGMENT_ROOT + ">").getBytes(encoding);
+		return new SequenceInputStream(
+				Collections.enumeration(Arrays.asList(
+						new ByteArrayInputStream(headers.get(pages.headers[i])),
+						new ByteArrayInputStream(body.array(), 0, body.position()),
+						new ByteArrayInputStream(footer))));
+	}
+
+	private static String sidecarName(File file) {
+		MessageDigest md = RenderFingerprint.newDigest();
+		RenderFingerprint.update(md, INDEX_VERSION, file.getAbsolutePath());
+		return RenderFingerprint.toHex(md.digest()) + INDEX_SUFFIX;
+	}
+
+	/**
+	 * Reads the index from a sidecar file.
+	 * @param file the PEF-file
+	 * @param digest the digest of the contents of the file
+	 * @param sidecar the sidecar file
+	 * @return the index, or an empty optional if the sidecar doesn't exist, is for
+	 * 			a different version of the file, or could not be read
+	 */
+	static Optional<PefPageIndex> read(File file, byte[] digest, File sidecar) {
+		if (!sidecar.isFile()) {
+			return Optional.empty();
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)))) {
+			if (!INDEX_VERSION.equals(in.readUTF()) || in.readInt()!=digest.length) {
+				return Optional.empty();
+			}
+			byte[] expected = new byte[digest.length];
+			in.readFully(expected);
+			if (!Arrays.equals(expected, digest)) {
+				return Optional.empty();
+			}
+			String encoding = in.readUTF();
+			int volumeCount = in.readInt();
+			Volumes volumes = new Volumes();
+			for (int i=0; i<volumeCount; i++) {
+				long start = in.readLong();
+				long end = in.readLong();
+				int line = in.readInt();
+				int firstPage = in.readInt();
+				long endPosition = in.readLong();
+				byte[] header = new byte[in.readInt()];
+				in.readFully(header);
+				volumes.add(start, end, line, firstPage, endPosition, header);
+			}
+			int layoutCount = in.readInt();
+			List<Layout> layouts = new ArrayList<>();
+			for (int i=0; i<layoutCount; i++) {
+				layouts.add(new Layout(in.readInt(), in.readInt(), in.readInt(), in.readBoolean()));
+			}
+			int headerCount = in.readInt();
+			List<byte[]> headers = new ArrayList<>();
+			for (int i=0; i<headerCount; i++) {
+				byte[] header = new byte[in.readInt()];
+				in.readFully(header);
+				headers.add(header);
+			}
+			int pageCount = in.readInt();
+			Pages pages = new Pages();
+			for (int i=0; i<pageCount; i++) {
+				int p = pages.next();
+				pages.starts[p] = in.readLong();
+				pages.ends[p] = in.readLong();
+				pages.startPositions[p] = in.readLong();
+				pages.endPositions[p] = in.readLong();
+				pages.numbers[p] = in.readInt();
+				pages.volumes[p] = in.readInt();
+				pages.sections[p] = in.readInt();
+				pages.layouts[p] = checkIndex(in.readInt(), layoutCount);
+				pages.headers[p] = checkIndex(in.readInt(), headerCount);
+			}
+			return Optional.of(new PefPageIndex(file, encoding, volumes, pages, layouts, headers));
+		} catch (IOException | RuntimeException e) {
+			logger.log(Level.FINE, "Failed to read page index.", e);
+			return Optional.empty();
+		}
+	}
+
+	private static int checkIndex(int index, int size) throws IOException {
+		if (index<0 || index>=size) {
+			throw new IOException("Corrupt page index.");
+		}
+		return index;
+	}
+
+	/**
+	 * Writes the index to a sidecar file.
+	 * @param sidecar the sidecar file
+	 * @param digest the digest of the contents of the file
+	 */
+	void write(File sidecar, byte[] digest) {
+		File tmp = new File(sidecar.getParentFile(), sidecar.getName() + "-" + UUID.randomUUID() + ".tmp");
+		try {
+			Files.createDirectories(sidecar.getParentFile().toPath());
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+				out.writeUTF(INDEX_VERSION);
+				out.writeInt(digest.length);
+				out.write(digest);
+				out.writeUTF(encoding);
+				out.writeInt(volumes.size);
+				for (int i=0; i<volumes.size; i++) {
+					out.writeLong(volumes.starts[i]);
+					out.writeLong(volumes.ends[i]);
+					out.writeInt(volumes.lines[i]);
+					out.writeInt(volumes.firstPages[i]);
+					out.writeLong(volumes.endPositions[i]);
+					out.writeInt(volumes.headers[i].length);
+					out.write(volumes.headers[i]);
+				}
+				out.writeInt(layouts.size());
+				for (Layout l : layouts) {
+					out.writeInt(l.rows);
+					out.writeInt(l.cols);
+					out.writeInt(l.rowgap);
+					out.writeBoolean(l.duplex);
+				}
+				out.writeInt(headers.size());
+				for (byte[] header : headers) {
+					out.writeInt(header.length);
+					out.write(header);
+				}
+				out.writeInt(pages.size);
+				for (int i=0; i<pages.size; i++) {
+					out.writeLong(pages.starts[i]);
+					out.writeLong(pages.ends[i]);
+					out.writeLong(pages.startPositions[i]);
+					out.writeLong(pages.endPositions[i]);
+					out.writeInt(pages.numbers[i]);
+					out.writeInt(pages.volumes[i]);
+					out.writeInt(pages.sections[i]);
+					out.writeInt(pages.layouts[i]);
+					out.writeInt(pages.headers[i]);
+				}
+			}
+			Files.move(tmp.toPath(), sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Failed to write page index for " + file, e);
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * Removes the sidecar files, and any temporary files left behind, that haven't
+	 * been used for {@value #MAX_AGE_DAYS} days.
+	 * @param dir the sidecar directory
+	 */
+	static void prune(File dir) {
+		long limit = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(MAX_AGE_DAYS);
+		File[] files = dir.listFiles(f->(f.getName().endsWith(INDEX_SUFFIX) || f.getName().endsWith(".tmp"))
+				&& f.isFile() && f.lastModified()<limit);
+		if (files!=null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+	}
+
+	private static class Volumes {
+		private long[] starts = new long[8];
+		private long[] ends = new long[8];
+		private int[] lines = new int[8];
+		private int[] firstPages = new int[8];
+		private long[] endPositions = new long[8];
+		private byte[][] headers = new byte[8][];
+		private int size = 0;
+
+		private void add(long start, long end, int line, int firstPage, long endPosition, byte[] header) {
+			if (size==starts.length) {
+				int len = size*2;
+				starts = Arrays.copyOf(starts, len);
+				ends = Arrays.copyOf(ends, len);
+				lines = Arrays.copyOf(lines, len);
+				firstPages = Arrays.copyOf(firstPages, len);
+				endPositions = Arrays.copyOf(endPositions, len);
+				headers = Arrays.copyOf(headers, len);
+			}
+			starts[size] = start;
+			ends[size] = end;
+			lines[size] = line;
+			firstPages[size] = firstPage;
+			endPositions[size] = endPosition;
+			headers[size] = header;
+			size++;
+		}
+	}
+
+	private static class Pages {
+		private long[] starts = new long[256];
+		private long[] ends = new long[256];
+		private long[] startPositions = new long[256];
+		private long[] endPositions = new long[256];
+		private int[] numbers = new int[256];
+		private int[] volumes = new int[256];
+		private int[] sections = new int[256];
+		private int[] layouts = new int[256];
+		private int[] headers = new int[256];
+		private int size = 0;
+
+		/**
+		 * Adds a page. The values of the page are set by the caller.
+		 * @return the index of the new page
+		 */
+		private int next() {
+			if (size==starts.length) {
+				int len = size*2;
+				starts = Arrays.copyOf(starts, len);
+				ends = Arrays.copyOf(ends, len);
+				startPositions = Arrays.copyOf(startPositions, len);
+				endPositions = Arrays.copyOf(endPositions, len);
+				numbers = Arrays.copyOf(numbers, len);
+				volumes = Arrays.copyOf(volumes, len);
+				sections = Arrays.copyOf(sections, len);
+				layouts = Arrays.copyOf(layouts, len);
+				headers = Arrays.copyOf(headers, len);
+			}
+			return size++;
+		}
+	}
+
+	private static class IndexHandler implements PefScanner.Handler {
+		private final PefScanner scanner;
+		private final Volumes volumes = new Volumes();
+		private final Pages pages = new Pages();
+		private final List<Layout> layouts = new ArrayList<>();
+		private final Map<Layout, Integer> layoutIndex = new HashMap<>();
+		private final List<byte[]> headers = new ArrayList<>();
+		private final Map<String, Integer> headerIndex = new HashMap<>();
+		private int pageNumber = 1;
+		private Layout volumeLayout;
+		private Layout sectionLayout;
+		private int sectionNumber;
+		private long start;
+		private int line;
+		private int firstPage;
+		private byte[] header;
+		private int page;
+
+		private IndexHandler(PefScanner scanner) {
+			this.scanner = scanner;
+		}
+
+		@Override
+		public void startElement(PefScanner.Element e) {
+			// The page numbering must be the same as in StaxPreviewParser
+			if (e.isPef("volume")) {
+				volumeLayout = layout(e, null);
+				sectionNumber = 0;
+				start = e.getOffset();
+				line = e.getLineNumber();
+				firstPage = pageNumber;
+				header = header(scanner, e.getColumnNumber() - 1).getBytes(Charset.forName(scanner.getEncoding()));
+			} else if (e.isPef("section")) {
+				sectionLayout = layout(e, volumeLayout);
+				sectionNumber++;
+				if (pageNumber % 2 == 0) {
+					pageNumber++;
+				}
+			} else if (e.isPef("page")) {
+				Layout pageLayout = layout(e, sectionLayout);
+				page = pages.next();
+				pages.starts[page] = e.getOffset();
+				pages.startPositions[page] = DocumentPosition.pack(e.getLineNumber(), e.getColumnNumber());
+				pages.numbers[page] = pageNumber;
+				pages.volumes[page] = volumes.size + 1;
+				pages.sections[page] = sectionNumber;
+				pages.layouts[page] = layoutIndex.computeIfAbsent(pageLayout, k->{
+					layouts.add(k);
+					return layouts.size()-1;
+				});
+				pages.headers[page] = headerIndex.computeIfAbsent(header(scanner, e.getColumnNumber() - 1), k->{
+					headers.add(k.getBytes(Charset.forName(scanner.getEncoding())));
+					return headers.size()-1;
+				});
+				pageNumber += pageLayout.duplex?1:2;
+			}
+		}
+
+		@Override
+		public void endElement(PefScanner.Element e) {
+			if (e.isPef("volume")) {
+				volumes.add(start, e.getEndOffset(), line, firstPage,
+						DocumentPosition.pack(e.getLineNumber(), e.getColumnNumber()), header);
+			} else if (e.isPef("page")) {
+				pages.ends[page] = e.getEndOffset();
+				pages.endPositions[page] = DocumentPosition.pack(e.getLineNumber(), e.getColumnNumber());
+			}
+		}
+
+		/**
+		 * Gets the layout of an element, in the same way as StaxPreviewParser.
+		 * @param e the element
+		 * @param inherit the inherited layout, or null
+		 * @return the layout
+		 */
+		private static Layout layout(PefScanner.Element e, Layout inherit) {
+			String rows = e.getAttribute("rows");
+			String cols = e.getAttribute("cols");
+			String rowgap = e.getAttribute("rowgap");
+			String duplex = e.getAttribute("duplex");
+			return new Layout(
+					rows!=null?Integer.parseInt(rows):inherit==null?0:inherit.rows,
+					cols!=null?Integer.parseInt(cols):inherit==null?0:inherit.cols,
+					rowgap!=null?Integer.parseInt(rowgap):inherit==null?0:inherit.rowgap,
+					duplex!=null?Boolean.parseBoolean(duplex):inherit==null?true:inherit.duplex);
+		}
+
+		private static String header(PefScanner scanner, int indent) {
+			StringBuilder sb = new StringBuilder();
+			sb.append("<?xml version=\"1.0\" encoding=\"").append(scanner.getEncoding()).append("\"?>");
+			sb.append('<').append(VolumeIndex.FRAGMENT_ROOT);
+			for (String[] ns : scanner.getNamespacesInScope()) {
+				sb.append(" xmlns").append(ns[0].isEmpty()?"":":"+ns[0]).append("=\"").append(ns[1]).append('"');
+			}
+			sb.append(">\n");
+			for (int i=0; i<indent; i++) {
+				sb.append(' ');
+			}
+			return sb.toString();
+		}
+	}
+}
@@ -0,0 +1,523 @@
+package application.ui.preview.server.preview.stax;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * <p>Provides a fast, byte level scanner for PEF-files. The scanner reports the start
+ * and end of elements together with their byte offsets and document positions, without
+ * decoding the text content. This makes it considerably faster than a full parse, which
+ * makes it suitable for building indexes into a file.</p>
+ *
+ * <p>The scanner only supports ASCII compatible encodings and documents without an
+ * internal DTD subset. It does not check that the document is well-formed.</p>
+ */
+class PefScanner {
+	static final String PEF_NS = "http://www.daisy.org/ns/2008/pef";
+	private static final int BUFFER_SIZE = 1<<16;
+	private static final int NAME_CACHE_SIZE = 16;
+
+	/**
+	 * Provides a handler for scanner events.
+	 */
+	interface Handler {
+		/**
+		 * Called when an element starts.
+		 * @param e the element, only valid until the method returns
+		 */
+		void startElement(Element e);
+		/**
+		 * Called when an element ends. This method is called also for empty elements.
+		 * @param e the element, only valid until the method returns
+		 */
+		void endElement(Element e);
+	}
+
+	/**
+	 * Provides information about the current element.
+	 */
+	static final class Element {
+		private final List<String> attNames = new ArrayList<>();
+		private final List<String> attValues = new ArrayList<>();
+		private String namespace;
+		private String localName;
+		private long offset;
+		private long endOffset;
+		private int line;
+		private int column;
+
+		/**
+		 * Gets the namespace of the element.
+		 * @return the namespace, or an empty string
+		 */
+		String getNamespace() {
+			return namespace;
+		}
+
+		String getLocalName() {
+			return localName;
+		}
+
+		boolean isPef(String name) {
+			return PEF_NS.equals(namespace) && name.equals(localName);
+		}
+
+		/**
+		 * Gets the value of the attribute without namespace with the specified name.
+		 * Only available in {@link Handler#startElement(Element)}.
+		 * @param name the name
+		 * @return the value, or null if not present
+		 */
+		String getAttribute(String name) {
+			for (int i=0; i<attNames.size(); i++) {
+				if (name.equals(attNames.get(i))) {
+					return attValues.get(i);
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Gets the byte offset of the first character of the tag.
+		 * @return the offset
+		 */
+		long getOffset() {
+			return offset;
+		}
+
+		/**
+		 * Gets the byte offset immediately following the tag.
+		 * @return the offset
+		 */
+		long getEndOffset() {
+			return endOffset;
+		}
+
+		/**
+		 * Gets the line number, starting with 1. For start elements, this is the line of the first
+		 * character of the tag. For end elements, it is the line immediately following the tag.
+		 * @return the line number
+		 */
+		int getLineNumber() {
+			return line;
+		}
+
+		/**
+		 * Gets the column number, starting with 1. For start elements, this is the column of the first
+		 * character of the tag. For end elements, it is the column immediately following the tag.
+		 * Columns are counted in characters.
+		 * @return the column number
+		 */
+		int getColumnNumber() {
+			return column;
+		}
+	}
+
+	private final InputStream is;
+	private final byte[] buf;
+	private final byte[][] nameCacheKeys;
+	private final String[] nameCacheValues;
+	private final List<List<String[]>> nsStack;
+	private final Element element;
+	private int bufLen;
+	private int bufPos;
+	private long bufStart;
+	private int line;
+	private int column;
+	private boolean multiByte;
+	private boolean lastWasCR;
+	private String encoding;
+	private int nameCacheNext;
+
+	/**
+	 * Creates a new scanner. The scanner does not close the stream.
+	 * @param is the input stream
+	 */
+	PefScanner(InputStream is) {
+		this.is = is;
+		this.buf = new byte[BUFFER_SIZE];
+		this.nameCacheKeys = new byte[NAME_CACHE_SIZE][];
+		this.nameCacheValues = new String[NAME_CACHE_SIZE];
+		this.nsStack = new ArrayList<>();
+		this.element = new Element();
+		this.bufLen = 0;
+		this.bufPos = 0;
+		this.bufStart = 0;
+		this.line = 1;
+		this.column = 0;
+		this.multiByte = true;
+		this.lastWasCR = false;
+		this.encoding = "UTF-8";
+		this.nameCacheNext = 0;
+	}
+
+	/**
+	 * Gets the document encoding. The value is only valid once scanning has started.
+	 * @return the encoding
+	 */
+	String getEncoding() {
+		return encoding;
+	}
+
+	/**
+	 * Gets the namespace declarations in scope of the current element, excluding
+	 * declarations on the element itself. Each declaration is a string array
+	 * with the prefix (or an empty string for the default namespace) and the namespace.
+	 * @return the namespace declarations
+	 */
+	List<String[]> getNamespacesInScope() {
+		List<String[]> ret = new ArrayList<>();
+		for (int i=0; i<nsStack.size()-1; i++) {
+			ret.addAll(nsStack.get(i));
+		}
+		return ret;
+	}
+
+	/**
+	 * Scans the input.
+	 * @param h the handler
+	 * @return true if the input was scanned, false if the input is not supported by this scanner
+	 * @throws IOException if an I/O error occurs
+	 */
+	boolean scan(Handler h) throws IOException {
+		if (!detectEncoding()) {
+			return false;
+		}
+		int b;
+		while ((b = read())>-1) {
+			if (b=='<') {
+				long offset = bufStart + bufPos - 1;
+				int l = line;
+				int c = column;
+				b = read();
+				if (b=='!') {
+					if (!skipDeclaration()) {
+						return false;
+					}
+				} else if (b=='?') {
+					skipUntil('?', '>');
+				} else if (b=='/') {
+					scanEndTag(h);
+				} else if (b>-1) {
+					scanStartTag(b, offset, l, c, h);
+				}
+			}
+		}
+		return true;
+	}
+
+	private boolean detectEncoding() throws IOException {
+		int b1 = peek(0);
+		int b2 = peek(1);
+		if (b1==0xEF && b2==0xBB && peek(2)==0xBF) {
+			// skip UTF-8 BOM, it isn't counted as a column
+			bufPos += 3;
+		} else if ((b1==0xFE && b2==0xFF) || (b1==0xFF && b2==0xFE) || b1==0 || b2==0) {
+			// UTF-16 or UTF-32
+			return false;
+		}
+		if (peek(0)=='<' && peek(1)=='?' && peek(2)=='x' && peek(3)=='m' && peek(4)=='l' && isWhitespace(peek(5))) {
+			StringBuilder decl = new StringBuilder();
+			int b;
+			while ((b = peek(decl.length()))>-1 && b!='>' && decl.length()<BUFFER_SIZE) {
+				decl.append((char)b);
+			}
+			int i = decl.indexOf("encoding");
+			if (i>-1) {
+				int q = i + "encoding".length();
+				while (q<decl.length() && decl.charAt(q)!='"' && decl.charAt(q)!='\'') {
+					q++;
+				}
+				int e = q<decl.length()?decl.indexOf(""+decl.charAt(q), q+1):-1;
+				if (e>-1) {
+					encoding = decl.substring(q+1, e);
+				}
+			}
+		}
+		String enc = encoding.toUpperCase(Locale.ROOT);
+		if ("UTF-8".equals(enc) || "UTF8".equals(enc)) {
+			multiByte = true;
+			return true;
+		} else if ("US-ASCII".equals(enc) || "ASCII".equals(enc) || enc.startsWith("ISO-8859-") || enc.startsWith("WINDOWS-125")) {
+			multiByte = false;
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	private boolean skipDeclaration() throws IOException {
+		int b = read();
+		if (b=='-') {
+			// comment
+			read();
+			int dashes = 0;
+			while ((b = read())>-1) {
+				if (b=='>' && dashes>=2) {
+					return true;
+				}
+				dashes = b=='-'?dashes+1:0;
+			}
+		} else if (b=='[') {
+			// CDATA
+			int brackets = 0;
+			while ((b = read())>-1) {
+				if (b=='>' && brackets>=2) {
+					return true;
+				}
+				brackets = b==']'?brackets+1:0;
+			}
+		} else {
+			// DOCTYPE
+			char quote = 0;
+			while ((b = read())>-1) {
+				if (quote!=0) {
+					if (b==quote) {
+						quote = 0;
+					}
+				} else if (b=='"' || b=='\'') {
+					quote = (char)b;
+				} else if (b=='[') {
+					// Internal subsets may declare entities, which would make fragments of the document invalid
+					return false;
+				} else if (b=='>') {
+					return true;
+				}
+			}
+		}
+		return true;
+	}
+
+	private void skipUntil(int c1, int c2) throws IOException {
+		int prev = -1;
+		int b;
+		while ((b = read())>-1) {
+			if (prev==c1 && b==c2) {
+				return;
+			}
+			prev = b;
+		}
+	}
+
+	private void scanStartTag(int first, long offset, int l, int c, Handler h) throws IOException {
+		String qname = readName(first);
+		element.attNames.clear();
+		element.attValues.clear();
+		List<String[]> ns = new ArrayList<>(0);
+		boolean empty = false;
+		int b;
+		while ((b = read())>-1) {
+			if (b=='>') {
+				break;
+			} else if (b=='/') {
+				empty = true;
+			} else if (!isWhitespace(b)) {
+				String name = readName(b);
+				while ((b = read())>-1 && b!='"' && b!='\'') {
+					// skip whitespace and equals sign
+				}
+				String value = readUntil(b);
+				if ("xmlns".equals(name)) {
+					ns.add(new String[]{"", value});
+				} else if (name.startsWith("xmlns:")) {
+					ns.add(new String[]{name.substring(6), value});
+				} else {
+					element.attNames.add(name);
+					element.attValues.add(value);
+				}
+			}
+		}
+		nsStack.add(ns);
+		setName(qname);
+		element.offset = offset;
+		element.endOffset = bufStart + bufPos;
+		element.line = l;
+		element.column = c;
+		h.startElement(element);
+		if (empty) {
+			endElement(h);
+		}
+	}
+
+	private void scanEndTag(Handler h) throws IOException {
+		String qname = readName(read());
+		int b;
+		while ((b = read())>-1 && b!='>') {
+			// skip whitespace
+		}
+		setName(qname);
+		endElement(h);
+	}
+
+	private void endElement(Handler h) {
+		element.endOffset = bufStart + bufPos;
+		element.offset = element.endOffset;
+		element.line = line;
+		element.column = column + 1;
+		h.endElement(element);
+		if (!nsStack.isEmpty()) {
+			nsStack.remove(nsStack.size()-1);
+		}
+	}
+
+	private void setName(String qname) {
+		int i = qname.indexOf(':');
+		String prefix = i>-1?qname.substring(0, i):"";
+		element.localName = i>-1?qname.substring(i+1):qname;
+		element.namespace = resolve(prefix);
+	}
+
+	private String resolve(String prefix) {
+		for (int i=nsStack.size()-1; i>=0; i--) {
+			List<String[]> decls = nsStack.get(i);
+			for (int j=decls.size()-1; j>=0; j--) {
+				String[] decl = decls.get(j);
+				if (decl[0].equals(prefix)) {
+					return decl[1];
+				}
+			}
+		}
+		return "";
+	}
+
+	private String readName(int first) throws IOException {
+		if (first<0) {
+			return "";
+		}
+		int start = bufPos - 1;
+		if (bufLen-start<256) {
+			// the name may cross the buffer boundary, move it to the start of the buffer first
+			compact(start);
+			fill();
+			start = bufPos - 1;
+		}
+		int b = first;
+		// names longer than the buffer are truncated
+		while (!isNameEnd(b) && bufPos<bufLen) {
+			b = read();
+		}
+		if (isNameEnd(b)) {
+			// push back the terminating byte
+			unread(b);
+		}
+		return name(start, bufPos);
+	}
+
+	private static boolean isNameEnd(int b) {
+		return isWhitespace(b) || b=='>' || b=='/' || b=='=';
+	}
+
+	private String name(int start, int end) {
+		int len = Math.max(0, end-start);
+		for (int i=0; i<NAME_CACHE_SIZE; i++) {
+			byte[] k = nameCacheKeys[i];
+			if (k!=null && k.length==len && equals(k, start)) {
+				return nameCacheValues[i];
+			}
+		}
+		byte[] k = new byte[len];
+		System.arraycopy(buf, start, k, 0, len);
+		String v = new String(k, StandardCharsets.ISO_8859_1);
+		nameCacheKeys[nameCacheNext] = k;
+		nameCacheValues[nameCacheNext] = v;
+		nameCacheNext = (nameCacheNext + 1) % NAME_CACHE_SIZE;
+		return v;
+	}
+
+	private boolean equals(byte[] k, int start) {
+		for (int i=0; i<k.length; i++) {
+			if (k[i]!=buf[start+i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String readUntil(int quote) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		int b;
+		while ((b = read())>-1 && b!=quote) {
+			sb.append((char)b);
+		}
+		return sb.toString();
+	}
+
+	private int peek(int i) throws IOException {
+		if (bufPos+i>=bufLen) {
+			compact(bufPos);
+			fill();
+		}
+		return bufPos+i<bufLen?buf[bufPos+i]&0xFF:-1;
+	}
+
+	private int read() throws IOException {
+		if (bufPos>=bufLen) {
+			bufStart += bufLen;
+			bufPos = 0;
+			bufLen = 0;
+			fill();
+			if (bufLen==0) {
+				return -1;
+			}
+		}
+		int b = buf[bufPos++]&0xFF;
+		if (b=='\n') {
+			if (!lastWasCR) {
+				line++;
+			}
+			column = 0;
+			lastWasCR = false;
+		} else if (b=='\r') {
+			line++;
+			column = 0;
+			lastWasCR = true;
+		} else {
+			lastWasCR = false;
+			if (!multiByte || (b & 0xC0)!=0x80) {
+				column++;
+			}
+		}
+		return b;
+	}
+
+	private void unread(int b) {
+		bufPos--;
+		// names never contain line breaks, so only the column needs to be restored
+		if (b!='\n' && b!='\r' && (!multiByte || (b & 0xC0)!=0x80)) {
+			column--;
+		} else if (b=='\n' || b=='\r') {
+			// restore the line count, the following read will count it again
+			if (b=='\r' || !lastWasCR) {
+				line--;
+			}
+			lastWasCR = false;
+		}
+	}
+
+	private void compact(int from) {
+		int len = bufLen - from;
+		System.arraycopy(buf, from, buf, 0, len);
+		bufStart += from;
+		bufPos -= from;
+		bufLen = len;
+	}
+
+	private void fill() throws IOException {
+		int read;
+		while (bufLen<buf.length && (read = is.read(buf, bufLen, buf.length-bufLen))>-1) {
+			bufLen += read;
+			if (read==0) {
+				break;
+			}
+		}
+	}
+
+	private static boolean isWhitespace(int b) {
+		return b==' ' || b=='\t' || b=='\n' || b=='\r';
+	}
+
+}
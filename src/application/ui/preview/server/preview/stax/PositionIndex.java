@@ -0,0 +1,93 @@
+package application.ui.preview.server.preview.stax;
+
+import java.util.List;
+
+import org.daisy.dotify.studio.api.DocumentPosition;
+
+/**
+ * Provides a sorted index of packed document positions. Lookups use binary search.
+ * @see DocumentPosition#pack(int, int)
+ */
+final class PositionIndex {
+	private final long[] positions;
+
+	/**
+	 * Creates a new index.
+	 * @param positions the packed positions, in ascending order
+	 */
+	PositionIndex(long[] positions) {
+		this.positions = positions;
+	}
+
+	/**
+	 * Creates a new index from a list of positions.
+	 * @param positions the positions, in ascending order
+	 * @return a new index
+	 */
+	static PositionIndex of(List<DocumentPosition> positions) {
+		long[] ret = new long[positions.size()];
+		for (int i=0; i<ret.length; i++) {
+			ret[i] = positions.get(i).toLong();
+		}
+		return new PositionIndex(ret);
+	}
+
+	/**
+	 * Gets the number of positions in the index.
+	 * @return the size
+	 */
+	int size() {
+		return positions.length;
+	}
+
+	/**
+	 * Gets the number of positions before the specified position.
+	 * @param p the packed position
+	 * @return the number of positions before <code>p</code>
+	 */
+	int countBefore(long p) {
+		return firstNotBefore(p, 0);
+	}
+
+	/**
+	 * Gets the index of the first position, at or after <code>from</code>,
+	 * that isn't before the specified position.
+	 * @param p the packed position
+	 * @param from the index to start from
+	 * @return the index, or the size of the index if all positions are before <code>p</code>
+	 */
+	int firstNotBefore(long p, int from) {
+		int lo = from;
+		int hi = positions.length;
+		while (lo<hi) {
+			int mid = (lo + hi) >>> 1;
+			if (positions[mid]<p) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Gets the index of the first position, at or after <code>from</code>,
+	 * that is after the specified position.
+	 * @param p the packed position
+	 * @param from the index to start from
+	 * @return the index, or the size of the index if no position is after <code>p</code>
+	 */
+	int firstAfter(long p, int from) {
+		int lo = from;
+		int hi = positions.length;
+		while (lo<hi) {
+			int mid = (lo + hi) >>> 1;
+			if (positions[mid]<=p) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+}
@@ -0,0 +1,215 @@
+package application.ui.preview.server.preview.stax;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import org.daisy.dotify.studio.api.DocumentPosition;
+import org.daisy.streamline.api.validity.ValidationReport;
+
+/**
+ * <p>Provides a persistent cache of rendered preview volumes. Entries are keyed by
+ * a digest of the PEF-file and the settings that affect the rendering, which means
+ * that an entry is never out of date. The total size of the cache is limited,
+ * the least recently used entries are removed first.</p>
+ *
+ * <p>The files of an entry are never handed out directly, since the entry may be
+ * removed while they are in use. Instead, {@link #get(String)} returns links to them.
+ * Entries are read, added and removed while holding the lock of the cache.</p>
+ *
+ * <p>Only previews of books without validation issues are cached, since the preview
+ * of validation messages can't be reused.</p>
+ */
+class PreviewCache {
+	private static final Logger logger = Logger.getLogger(PreviewCache.class.getCanonicalName());
+	/**
+	 *  Modify this value when making incompatible changes to the cache
+	 */
+	private static final String CACHE_VERSION = "2";
+	private static final String POSITIONS_FILE = "positions";
+	private static final long DEFAULT_MAX_SIZE = 1024L * 1024 * 1024;
+	private static PreviewCache instance;
+	private final File dir;
+	private final long maxSize;
+
+	/**
+	 * Provides a cache entry. The volume files are owned by the receiver of the entry,
+	 * see {@link PreviewCache#get(String)}.
+	 */
+	static final class Entry {
+		private final List<File> volumes;
+		private final List<DocumentPosition> volumeEndPositions;
+
+		private Entry(List<File> volumes, List<DocumentPosition> volumeEndPositions) {
+			this.volumes = volumes;
+			this.volumeEndPositions = volumeEndPositions;
+		}
+
+		List<File> getVolumes() {
+			return volumes;
+		}
+
+		List<DocumentPosition> getVolumeEndPositions() {
+			return volumeEndPositions;
+		}
+	}
+
+	/**
+	 * Creates a new cache.
+	 * @param dir the cache directory
+	 * @param maxSize the maximum size of the cache, in bytes
+	 */
+	PreviewCache(File dir, long maxSize) {
+		this.dir = dir;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Gets the default cache instance.
+	 * @return the cache
+	 */
+	static synchronized PreviewCache getInstance() {
+		if (instance==null) {
+			instance = new PreviewCache(new File(System.getProperty("user.home"), ".dotify/cache/preview"), DEFAULT_MAX_SIZE);
+		}
+		return instance;
+	}
+
+	/**
+	 * Computes the cache key for the specified contents and report, using the current settings.
+	 * @param digest the digest of the contents of the PEF-file, see {@link RenderFingerprint#digest(File)}
+	 * @param report the validation report
+	 * @return the key, or an empty optional if the preview should not be cached
+	 */
+	static Optional<String> key(byte[] digest, ValidationReport report) {
+		if (digest==null || PefIngest.hasIssues(report)) {
+			return Optional.empty();
+		}
+		MessageDigest md = RenderFingerprint.newDigest();
+		RenderFingerprint.update(md, CACHE_VERSION);
+		RenderFingerprint.update(md, RenderFingerprint.settings());
+		md.update(digest);
+		return Optional.of(RenderFingerprint.toHex(md.digest()));
+	}
+
+	/**
+	 * Gets the entry with the specified key. The volume files of the returned entry are
+	 * links to the files in the cache, which remain valid if the entry is removed from the
+	 * cache. The caller is responsible for deleting them.
+	 * @param key the key
+	 * @return the entry, or an empty optional if the key isn't in the cache
+	 */
+	synchronized Optional<Entry> get(String key) {
+		File entry = new File(dir, key);
+		File positions = new File(entry, POSITIONS_FILE);
+		if (!positions.isFile()) {
+			return Optional.empty();
+		}
+		List<File> volumes = new ArrayList<>();
+		try {
+			List<DocumentPosition> ends = new ArrayList<>();
+			for (String line : Files.readAllLines(positions.toPath(), StandardCharsets.UTF_8)) {
+				String[] lc = line.split(" ");
+				ends.add(DocumentPosition.with(Integer.parseInt(lc[0]), Integer.parseInt(lc[1])));
+				File v = new File(entry, volumes.size()+1 + ".html");
+				if (!v.isFile()) {
+					throw new IOException("Missing volume: " + v);
+				}
+				volumes.add(VolumeFile.link(v));
+			}
+			// Update the time stamp of the entry, it is used for the eviction order
+			entry.setLastModified(System.currentTimeMillis());
+			return Optional.of(new Entry(volumes, ends));
+		} catch (IOException | RuntimeException e) {
+			logger.log(Level.FINE, "Failed to read cache entry.", e);
+			for (File f : volumes) {
+				f.delete();
+			}
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * Adds an entry to the cache.
+	 * @param key the key
+	 * @param volumes the rendered volumes
+	 * @param volumeEndPositions the end position of each volume
+	 */
+	synchronized void put(String key, List<File> volumes, List<DocumentPosition> volumeEndPositions) {
+		if (volumes.size()!=volumeEndPositions.size()) {
+			throw new IllegalArgumentException();
+		}
+		File entry = new File(dir, key);
+		if (entry.exists()) {
+			return;
+		}
+		File tmp = new File(dir, key + "-" + UUID.randomUUID() + ".tmp");
+		try {
+			Files.createDirectories(tmp.toPath());
+			for (int i=0; i<volumes.size(); i++) {
+				Files.copy(volumes.get(i).toPath(), new File(tmp, i+1 + ".html").toPath());
+			}
+			Files.write(new File(tmp, POSITIONS_FILE).toPath(),
+					volumeEndPositions.stream()
+						.map(p->p.getLineNumber() + " " + p.getColumnNumber())
+						.collect(Collectors.toList()),
+					StandardCharsets.UTF_8);
+			Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Failed to add cache entry.", e);
+		} finally {
+			delete(tmp);
+		}
+		evict();
+	}
+
+	/**
+	 * Removes the least recently used entries until the cache is within its size limit.
+	 */
+	synchronized void evict() {
+		File[] entries = dir.listFiles(f->f.isDirectory() && !f.getName().endsWith(".tmp"));
+		if (entries==null) {
+			return;
+		}
+		long size = 0;
+		List<File> order = new ArrayList<>(Arrays.asList(entries));
+		// most recently used first
+		order.sort(Comparator.comparingLong(File::lastModified).reversed());
+		for (File entry : order) {
+			long s = size(entry);
+			if (size+s>maxSize) {
+				delete(entry);
+			} else {
+				size += s;
+			}
+		}
+	}
+
+	private static long size(File entry) {
+		File[] files = entry.listFiles();
+		return files==null?0:Arrays.stream(files).mapToLong(File::length).sum();
+	}
+
+	private static void delete(File entry) {
+		File[] files = entry.listFiles();
+		if (files!=null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		entry.delete();
+	}
+
+}
@@ -0,0 +1,245 @@
+package application.ui.preview.server.preview.stax;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Provides the executor used for the background work of all previews, such as loading,
+ * validating and rendering books. The number of worker threads is bounded, regardless
+ * of the number of open books. It can be set with the system property
+ * <code>application.preview.threads</code> and defaults to the number of processors.</p>
+ *
+ * <p>Tasks are submitted to a {@link Group}, which can be cancelled as a unit. Cancelling
+ * a group returns immediately: queued tasks are removed and running tasks are interrupted.
+ * Each group has a {@link Priority}, shared by the groups of the same book. Workers take
+ * tasks from the group with the most recently raised priority first, and in submission
+ * order within a group.</p>
+ */
+final class PreviewExecutor {
+	private static final Logger logger = Logger.getLogger(PreviewExecutor.class.getCanonicalName());
+	private static final PreviewExecutor INSTANCE = new PreviewExecutor(
+			Integer.getInteger("application.preview.threads", Runtime.getRuntime().availableProcessors()));
+	private final AtomicLong clock;
+	private final List<Group> groups;
+	private final int maxThreads;
+	private int threads;
+	private int idle;
+	private int queued;
+
+	/**
+	 * Provides the priority of one or more groups.
+	 */
+	final class Priority {
+		private volatile long value;
+
+		private Priority() {
+			raise();
+		}
+
+		/**
+		 * Gives the groups with this priority precedence over all other groups,
+		 * until the priority of another group is raised.
+		 */
+		void raise() {
+			value = clock.incrementAndGet();
+		}
+
+		/**
+		 * Creates a new group with this priority.
+		 * @return a new group
+		 */
+		Group newGroup() {
+			return new Group(this);
+		}
+	}
+
+	/**
+	 * Provides a group of tasks that are cancelled together.
+	 */
+	final class Group {
+		private final Priority priority;
+		private final ArrayDeque<Job<?>> queue;
+		private final Set<Job<?>> running;
+		private boolean cancelled;
+
+		private Group(Priority priority) {
+			this.priority = priority;
+			this.queue = new ArrayDeque<>();
+			this.running = new HashSet<>();
+			this.cancelled = false;
+		}
+
+		/**
+		 * Submits a task. If the group has been cancelled, the returned
+		 * future is cancelled as well.
+		 * @param task the task
+		 * @return a future that completes with the result of the task
+		 */
+		<T> CompletableFuture<T> submit(Callable<T> task) {
+			Job<T> job = new Job<>(this, task);
+			synchronized (PreviewExecutor.this) {
+				if (cancelled) {
+					job.future.cancel(false);
+				} else {
+					if (queue.isEmpty()) {
+						groups.add(this);
+					}
+					queue.add(job);
+					queued++;
+					signal();
+				}
+			}
+			return job.future;
+		}
+
+		/**
+		 * Cancels the tasks in the group. Tasks that have not started are removed from the
+		 * queue and their futures are cancelled. Threads running a task in the group are
+		 * interrupted. This method does not wait for running tasks to stop.
+		 */
+		void cancel() {
+			List<Job<?>> cancel = new ArrayList<>();
+			synchronized (PreviewExecutor.this) {
+				cancelled = true;
+				cancel.addAll(queue);
+				queued -= queue.size();
+				queue.clear();
+				groups.remove(this);
+				cancel.addAll(running);
+			}
+			for (Job<?> j : cancel) {
+				j.future.cancel(false);
+			}
+			synchronized (PreviewExecutor.this) {
+				// only the tasks that are still running, the threads may have moved on to other tasks
+				for (Job<?> j : running) {
+					j.thread.interrupt();
+				}
+			}
+		}
+
+		/**
+		 * Returns true if the group has been cancelled.
+		 * @return true if the group has been cancelled, false otherwise
+		 */
+		boolean isCancelled() {
+			synchronized (PreviewExecutor.this) {
+				return cancelled;
+			}
+		}
+	}
+
+	private static final class Job<T> {
+		private final Group group;
+		private final Callable<T> task;
+		private final CompletableFuture<T> future;
+		private Thread thread;
+
+		private Job(Group group, Callable<T> task) {
+			this.group = group;
+			this.task = task;
+			this.future = new CompletableFuture<>();
+		}
+
+		private void run() {
+			try {
+				future.complete(task.call());
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+		}
+	}
+
+	PreviewExecutor(int maxThreads) {
+		this.clock = new AtomicLong();
+		this.groups = new ArrayList<>();
+		this.maxThreads = Math.max(1, maxThreads);
+		this.threads = 0;
+		this.idle = 0;
+		this.queued = 0;
+	}
+
+	/**
+	 * Gets the executor shared by all previews.
+	 * @return the executor
+	 */
+	static PreviewExecutor getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Creates a new priority.
+	 * @return a new priority, higher than all existing priorities
+	 */
+	Priority newPriority() {
+		return new Priority();
+	}
+
+	// Wakes an idle worker, and starts a new one if there are more tasks than idle workers
+	private void signal() {
+		notify();
+		if (queued>idle && threads<maxThreads) {
+			threads++;
+			Thread th = new Thread(this::work, "Preview worker " + threads);
+			th.setDaemon(true);
+			th.start();
+		}
+	}
+
+	private synchronized Job<?> next() throws InterruptedException {
+		while (groups.isEmpty()) {
+			idle++;
+			try {
+				wait();
+			} finally {
+				idle--;
+			}
+		}
+		Group g = null;
+		for (Group c : groups) {
+			if (g==null || c.priority.value>g.priority.value) {
+				g = c;
+			}
+		}
+		Job<?> ret = g.queue.poll();
+		queued--;
+		if (g.queue.isEmpty()) {
+			groups.remove(g);
+		}
+		ret.thread = Thread.currentThread();
+		g.running.add(ret);
+		return ret;
+	}
+
+	private synchronized void done(Job<?> job) {
+		job.group.running.remove(job);
+		job.thread = null;
+		// Clears the interrupt of a cancelled task, so that it doesn't affect the next task
+		Thread.interrupted();
+	}
+
+	private void work() {
+		while (true) {
+			Job<?> job;
+			try {
+				job = next();
+			} catch (InterruptedException e) {
+				logger.log(Level.FINE, "Worker interrupted while idle.", e);
+				continue;
+			}
+			try {
+				job.run();
+			} finally {
+				done(job);
+			}
+		}
+	}
+}
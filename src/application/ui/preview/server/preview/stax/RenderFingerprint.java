@@ -0,0 +1,149 @@
+package application.ui.preview.server.preview.stax;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+import org.daisy.braille.utils.pef.PEFBook;
+import org.daisy.streamline.api.validity.ValidationReport;
+
+import application.common.BuildInfo;
+import application.common.FeatureSwitch;
+import application.common.Settings;
+import application.common.Settings.Keys;
+
+/**
+ * <p>Provides fingerprints of the input to the preview rendering. Two renderings
+ * with the same fingerprint produce the same output.</p>
+ *
+ * <p>The rendering of a volume depends on the contents of the volume, but also on
+ * book level information, such as the metadata and the number of sheets in each volume,
+ * which is used in the navigation. The book level information is captured by
+ * {@link #book(PEFBook, ValidationReport)}.</p>
+ */
+final class RenderFingerprint {
+	/**
+	 *  Modify this value when making changes to the preview
+	 */
+	private static final String VERSION = "4";
+
+	private RenderFingerprint() {
+		throw new AssertionError("No instances allowed.");
+	}
+
+	/**
+	 * Gets the settings that affect the rendering.
+	 * @return the settings values
+	 */
+	static List<String> settings() {
+		Settings s = Settings.getSettings();
+		return Arrays.asList(VERSION, BuildInfo.VERSION, Locale.getDefault().toLanguageTag(),
+				s.getString(Keys.charset), s.getString(Keys.brailleFont), s.getString(Keys.textFont),
+				"" + FeatureSwitch.LAZY_TEXT_VIEW.isOn(), "" + FeatureSwitch.SHARED_NAVIGATION.isOn(),
+				"" + FeatureSwitch.COMPACT_PREVIEW.isOn());
+	}
+
+	/**
+	 * Computes the book level fingerprint, including the current settings.
+	 * @param book the book
+	 * @param report the validation report
+	 * @return the fingerprint, or an empty optional if the rendering depends on the
+	 * 			validation messages, in which case it can't be reused
+	 */
+	static Optional<String> book(PEFBook book, ValidationReport report) {
+		if (PefIngest.hasIssues(report)) {
+			return Optional.empty();
+		}
+		MessageDigest md = newDigest();
+		update(md, settings());
+		for (String key : book.getMetadataKeys()) {
+			update(md, key);
+			for (String value : book.getMetadata(key)) {
+				update(md, value);
+			}
+		}
+		update(md, "" + book.getVolumes());
+		for (int i=1; i<=book.getVolumes(); i++) {
+			update(md, book.getSheets(i) + ":" + book.getFirstPage(i) + ":" + book.getLastPage(i));
+			for (int j=1; j<=book.getSectionsInVolume(i); j++) {
+				update(md, "" + book.getSheets(i, j));
+			}
+		}
+		return Optional.of(toHex(md.digest()));
+	}
+
+	/**
+	 * Computes the fingerprint of a volume.
+	 * @param book the book level fingerprint
+	 * @param index the volume index
+	 * @param v the volume
+	 * @return the fingerprint
+	 * @throws IOException if the volume could not be read
+	 */
+	static String volume(String book, VolumeIndex index, VolumeIndex.Volume v) throws IOException {
+		MessageDigest md = newDigest();
+		update(md, book, "" + v.getNumber(), "" + v.getFirstPage());
+		try (InputStream is = index.newInputStream(v)) {
+			update(md, is);
+		}
+		return toHex(md.digest());
+	}
+
+	/**
+	 * Computes the digest of the contents of a file.
+	 * @param file the file
+	 * @return the digest
+	 * @throws IOException if the file could not be read
+	 */
+	static byte[] digest(File file) throws IOException {
+		MessageDigest md = newDigest();
+		try (InputStream is = new FileInputStream(file)) {
+			update(md, is);
+		}
+		return md.digest();
+	}
+
+	static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// SHA-256 is required to be supported by all java platforms
+			throw new AssertionError(e);
+		}
+	}
+
+	static void update(MessageDigest md, String ... values) {
+		update(md, Arrays.asList(values));
+	}
+
+	static void update(MessageDigest md, List<String> values) {
+		for (String v : values) {
+			md.update(String.valueOf(v).getBytes(StandardCharsets.UTF_8));
+			md.update((byte)0);
+		}
+	}
+
+	static void update(MessageDigest md, InputStream is) throws IOException {
+		byte[] buf = new byte[1<<16];
+		int len;
+		while ((len = is.read(buf))>-1) {
+			md.update(buf, 0, len);
+		}
+	}
+
+	static String toHex(byte[] digest) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,135 @@
+package application.ui.preview.server.preview.stax;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * <p>Provides a scheduler for volumes that can be rendered independently of each other.
+ * Volumes are rendered in document order, unless a volume is requested, in which case the
+ * volume is moved to the front of the queue. The volumes following and preceding the requested
+ * volume are moved up as well, since they are likely to be requested next.</p>
+ */
+class RenderScheduler {
+	private final List<CompletableFuture<File>> volumes;
+	private final LinkedList<Integer> queue;
+	private final VolumeTask task;
+	private boolean cancelled;
+
+	/**
+	 * Provides a task that renders a volume.
+	 */
+	@FunctionalInterface
+	interface VolumeTask {
+		/**
+		 * Renders the specified volume.
+		 * @param volume the volume number, starting with 1
+		 * @return the rendered file
+		 * @throws Exception if the volume could not be rendered
+		 */
+		File render(int volume) throws Exception;
+	}
+
+	/**
+	 * Creates a new scheduler. The scheduler doesn't render anything until {@link #start(PreviewExecutor.Group, int)}
+	 * is called, but volumes can be requested before that.
+	 * @param size the number of volumes
+	 * @param task the render task
+	 */
+	RenderScheduler(int size, VolumeTask task) {
+		List<CompletableFuture<File>> v = new ArrayList<>();
+		this.queue = new LinkedList<>();
+		for (int i=1; i<=size; i++) {
+			v.add(new CompletableFuture<>());
+			queue.add(i);
+		}
+		this.volumes = Collections.unmodifiableList(v);
+		this.task = task;
+		this.cancelled = false;
+	}
+
+	/**
+	 * Starts rendering. Each volume is rendered in a separate task, so that the tasks
+	 * of other groups with a higher priority can run between volumes.
+	 * @param group the group to run the tasks in
+	 * @param parallelism the maximum number of volumes to render at the same time
+	 */
+	void start(PreviewExecutor.Group group, int parallelism) {
+		for (int i=0; i<Math.max(1, Math.min(parallelism, volumes.size())); i++) {
+			group.submit(()->work(group));
+		}
+	}
+
+	/**
+	 * Gets the future of the specified volume. Note that the volume will not
+	 * be rendered ahead of other volumes unless it is also requested.
+	 * @param volume the volume number, starting with 1
+	 * @return the future
+	 */
+	CompletableFuture<File> getVolume(int volume) {
+		return volumes.get(volume-1);
+	}
+
+	/**
+	 * Gets a future that is completed when all volumes have been rendered.
+	 * @return the future
+	 */
+	CompletableFuture<Void> getCompletion() {
+		return CompletableFuture.allOf(volumes.toArray(new CompletableFuture<?>[0]));
+	}
+
+	/**
+	 * Requests the specified volume. If the volume isn't already being rendered,
+	 * it is moved to the front of the queue, followed by its neighbours.
+	 * @param volume the volume number, starting with 1
+	 * @return the future of the volume
+	 */
+	synchronized CompletableFuture<File> request(int volume) {
+		promote(volume-1);
+		promote(volume+1);
+		promote(volume);
+		return getVolume(volume);
+	}
+
+	private void promote(int volume) {
+		if (queue.remove(Integer.valueOf(volume))) {
+			queue.addFirst(volume);
+		}
+	}
+
+	/**
+	 * Cancels rendering. Volumes that have not been rendered are completed
+	 * with a {@link java.util.concurrent.CancellationException}.
+	 */
+	void cancel() {
+		synchronized (this) {
+			cancelled = true;
+			queue.clear();
+		}
+		for (CompletableFuture<File> f : volumes) {
+			f.cancel(false);
+		}
+	}
+
+	private synchronized Integer next() {
+		return cancelled?null:queue.pollFirst();
+	}
+
+	private Void work(PreviewExecutor.Group group) {
+		Integer v = next();
+		if (v!=null) {
+			CompletableFuture<File> f = getVolume(v);
+			try {
+				f.complete(task.render(v));
+			} catch (Exception e) {
+				f.completeExceptionally(e);
+			}
+			group.submit(()->work(group));
+		}
+		return null;
+	}
+
+}
@@ -1,23 +1,47 @@
 package application.ui.preview.server.preview.stax;
 
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
-import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import javax.xml.stream.XMLStreamException;
+
+import org.daisy.braille.utils.pef.PEFBook;
 import org.daisy.dotify.studio.api.DocumentPosition;
+import org.daisy.streamline.api.validity.ValidationReport;
 
+import application.common.FeatureSwitch;
 import application.common.Settings;
 import application.common.Settings.Keys;
 
 public class StaxPreviewController {
+	private static final Logger logger = Logger.getLogger(StaxPreviewController.class.getCanonicalName());
 	private final BookReader r;
 	private final Settings settings;
 	private StaxPreviewRenderer renderer;
+	private PEFBook book;
+	private PefIngest ingest;
+	private CompletableFuture<ValidationReport> pendingValidation;
 	private String brailleFont, textFont, charset;
-	private long lastUpdated;
+	// Identifies the current renderer, see isModified
+	private long generation;
+	// The generation that each volume was last read from, by volume number
+	private final Map<Integer, Long> served;
 
 	/**
 	 * Creates a new stax preview controller.
@@ -28,53 +52,212 @@ public class StaxPreviewController {
 	public StaxPreviewController(final BookReader r, Settings settings) {
 		this.settings = settings;
 		this.r = r;
-		update(false);
+		this.served = new HashMap<>();
+		updateFile();
 		brailleFont = settings.getString(Keys.brailleFont);
 		textFont = settings.getString(Keys.textFont);
 		charset = settings.getString(Keys.charset);
 	}
 	
-	private void update(boolean force) {
-		synchronized (r) {
-			if (!force && lastUpdated+10000>System.currentTimeMillis()) {
-				return;
+	/**
+	 * Updates the preview if the contents of the file has changed.
+	 * @return true if the preview was updated, false otherwise
+	 * @see BookReader#getIngest()
+	 */
+	private boolean updateFile() {
+		PefIngest ingest = r.getIngest();
+		boolean changed;
+		synchronized (this) {
+			changed = ingest!=this.ingest;
+			this.ingest = ingest;
+		}
+		if (changed) {
+			update(ingest);
+		}
+		return changed;
+	}
+	
+	private void update(PefIngest ingest) {
+		PEFBook book = ingest.getBook().orElse(null);
+		if (book==null) {
+			return;
+		}
+		CompletableFuture<ValidationReport> validation = ingest.getValidationReport();
+		synchronized (this) {
+			this.book = book;
+			// Volumes that haven't changed since the previous rendering are reused
+			Map<String, File> reusable = renderer!=null?renderer.linkRenderedVolumes():Collections.emptyMap();
+			if (validation.isDone()) {
+				pendingValidation = null;
+				setRenderer(new StaxPreviewRenderer(book, getReport(validation), ingest.getDigest(), reusable, r.getPriority()));
+			} else {
+				// Don't wait for the validation, it is checked again in updateValidation()
+				pendingValidation = validation;
+				setRenderer(new StaxPreviewRenderer(book, ingest.provisionalReport(), ingest.getDigest(), reusable, r.getPriority()));
 			}
-			lastUpdated = System.currentTimeMillis();			
 		}
-		BookReaderResult brr = r.getResult();
+	}
+	
+	/**
+	 * Replaces the provisional preview if the validation has completed
+	 * and the report contains issues that should be displayed. If the validation
+	 * was cancelled or failed, the provisional preview is kept.
+	 */
+	private synchronized void updateValidation() {
+		if (pendingValidation!=null && pendingValidation.isDone()) {
+			ValidationReport report = getReport(pendingValidation);
+			pendingValidation = null;
+			if (report!=null && PefIngest.hasIssues(report)) {
+				setRenderer(new StaxPreviewRenderer(book, report, ingest.getDigest(), r.getPriority()));
+			}
+		}
+	}
+	
+	private void setRenderer(StaxPreviewRenderer value) {
 		if (renderer!=null) {
 			// abort rendering and delete files
 			renderer.abort();
 		}
 		// set up new renderer
-		renderer = new StaxPreviewRenderer(brr.getBook(), brr.getValidationReport());
+		renderer = value;
+		generation++;
 	}
 	
-	private boolean settingsChanged() {
+	private static ValidationReport getReport(CompletableFuture<ValidationReport> validation) {
+		try {
+			return validation.join();
+		} catch (CompletionException | CancellationException e) {
+			logger.log(Level.INFO, "Validation failed.", e);
+			return null;
+		}
+	}
+	
+	/**
+	 * Gets the settings that affect the preview and that have changed since the previous call.
+	 * @return the changed settings
+	 */
+	private Set<Keys> changedSettings() {
 		String brailleFont = settings.getString(Keys.brailleFont);
 		String textFont = settings.getString(Keys.textFont);
 		String charset = settings.getString(Keys.charset);
-		boolean changed = 
-			(this.brailleFont!=null && !this.brailleFont.equals(brailleFont)) ||
-			(this.textFont!=null && !this.textFont.equals(textFont)) ||
-			(this.charset!=null && !this.charset.equals(charset));
+		Set<Keys> changed = EnumSet.noneOf(Keys.class);
+		if (this.brailleFont!=null && !this.brailleFont.equals(brailleFont)) {
+			changed.add(Keys.brailleFont);
+		}
+		if (this.textFont!=null && !this.textFont.equals(textFont)) {
+			changed.add(Keys.textFont);
+		}
+		if (this.charset!=null && !this.charset.equals(charset)) {
+			changed.add(Keys.charset);
+		}
 		this.brailleFont = brailleFont;
 		this.textFont = textFont;
 		this.charset = charset;
 		return changed;
 	}
+	
+	/**
+	 * Updates the preview after a change of the settings. The book is only
+	 * read again if the change affects more than the head of each volume.
+	 * @param changed the changed settings
+	 */
+	private void restyle(Set<Keys> changed) {
+		PefIngest ingest;
+		synchronized (this) {
+			// With the text view created in the browser, the table is only used in the head
+			if (renderer!=null && (FeatureSwitch.LAZY_TEXT_VIEW.isOn() || !changed.contains(Keys.charset))) {
+				setRenderer(renderer.restyle(r.getPriority()));
+				return;
+			}
+			ingest = this.ingest;
+		}
+		update(ingest);
+	}
+
+	/**
+	 * Updates the preview if the file, the validation or the settings have changed.
+	 */
+	private void refresh() {
+		Set<Keys> changed = changedSettings();
+		if (!updateFile() && !changed.isEmpty()) {
+			restyle(changed);
+		}
+		updateValidation();
+	}
+
+	/**
+	 * Returns true if the rendering of the volume has changed since it was last
+	 * returned by {@link #getReader(int)}. This corresponds to a conditional request
+	 * with the entity tag of the previous response.
+	 * @param vol the volume number
+	 * @return true if the volume has changed, or has not been read, false otherwise
+	 */
+	public boolean isModified(int vol) {
+		refresh();
+		synchronized (this) {
+			return renderer==null || !Long.valueOf(generation).equals(served.get(vol));
+		}
+	}
 
 	public Reader getReader(int vol) {
+		// The volume is being displayed
+		r.activate();
 		try {
-			boolean fileChanged = false;
-			synchronized(r) {
-				fileChanged = lastUpdated<r.getFile().lastModified();
+			refresh();
+			StaxPreviewRenderer renderer;
+			synchronized (this) {
+				renderer = this.renderer;
+				served.put(vol, generation);
+			}
+			if (renderer==null) {
+				return new StringReader("Failed to read");
+			}
+			if (FeatureSwitch.VIRTUAL_PREVIEW.isOn()) {
+				String shell = renderer.getShell(vol);
+				if (shell!=null) {
+					return new StringReader(shell);
+				}
 			}
-			if (settingsChanged() || fileChanged) {
-				update(fileChanged);
+			InputStream is;
+			if (FeatureSwitch.STREAMING_PREVIEW.isOn()) {
+				is = renderer.getInputStream(vol);
+			} else {
+				File f = renderer.getFile(vol);
+				is = f!=null?new FileInputStream(f):null;
 			}
-			return new InputStreamReader(new FileInputStream(renderer.getFile(vol)), "UTF-8");
-		} catch (FileNotFoundException | UnsupportedEncodingException e) {
+			if (is==null) {
+				return new StringReader("Failed to read");
+			}
+			return new InputStreamReader(is, "UTF-8");
+		} catch (IOException e) {
+			return new StringReader("Failed to read");
+		} catch (XMLStreamException e) {
+			logger.log(Level.WARNING, "Failed to render volume.", e);
+			return new StringReader("Failed to read");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return new StringReader("Failed to read");
+		}
+	}
+	
+	/**
+	 * Gets the pages in a volume with page numbers in the specified range, as JSON.
+	 * This is used by the preview when {@link FeatureSwitch#VIRTUAL_PREVIEW} is on.
+	 * @param vol the volume number
+	 * @param from the first page number, inclusive
+	 * @param to the last page number, inclusive
+	 * @return a reader
+	 */
+	public Reader getPagesReader(int vol, int from, int to) {
+		StaxPreviewRenderer renderer = getRenderer();
+		if (renderer==null) {
+			return new StringReader("Failed to read");
+		}
+		try {
+			String pages = renderer.getPages(vol, from, to);
+			return new StringReader(pages!=null?pages:"Failed to read");
+		} catch (XMLStreamException | IOException e) {
+			logger.log(Level.WARNING, "Failed to render pages.", e);
 			return new StringReader("Failed to read");
 		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
@@ -82,8 +265,53 @@ public class StaxPreviewController {
 		}
 	}
 	
+	/**
+	 * Gets the navigation and the information about the book that are
+	 * shared by all volumes.
+	 * @return a reader
+	 */
+	public Reader getNavigationReader() {
+		StaxPreviewRenderer renderer = getRenderer();
+		if (renderer==null) {
+			return new StringReader("Failed to read");
+		}
+		try {
+			return new StringReader(renderer.getNavigation());
+		} catch (XMLStreamException e) {
+			logger.log(Level.WARNING, "Failed to render navigation.", e);
+			return new StringReader("Failed to read");
+		}
+	}
+	
+	private synchronized StaxPreviewRenderer getRenderer() {
+		return renderer;
+	}
+	
+	/**
+	 * Aborts rendering and deletes the rendered files.
+	 */
+	public synchronized void close() {
+		setRenderer(null);
+	}
+	
+	/**
+	 * Gets the volume that contains a position in the file.
+	 * @param p the position
+	 * @return the volume number, or 1 if there is nothing to show
+	 */
 	public int getVolumeForPosition(DocumentPosition p) {
-		return renderer.getVolumeForPosition(p);
+		StaxPreviewRenderer renderer = getRenderer();
+		return renderer!=null?renderer.getVolumeForPosition(p):1;
+	}
+
+	/**
+	 * Gets the page that contains a position in the file.
+	 * @param p the position
+	 * @return the page number, or an empty optional if it isn't known
+	 */
+	public OptionalInt getPageForPosition(DocumentPosition p) {
+		StaxPreviewRenderer renderer = getRenderer();
+		return renderer!=null?renderer.getPageForPosition(p):OptionalInt.empty();
 	}
 
 }
\ No newline at end of file
@@ -4,39 +4,40 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
-import javax.xml.namespace.QName;
 import javax.xml.stream.Location;
-import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.XMLStreamWriter;
-import javax.xml.stream.events.Attribute;
-import javax.xml.stream.events.XMLEvent;
 
 import org.daisy.braille.utils.pef.PEFBook;
-import org.daisy.dotify.api.factory.FactoryProperties;
-import org.daisy.dotify.api.table.BrailleConstants;
-import org.daisy.dotify.api.table.Table;
-import org.daisy.dotify.api.table.TableCatalog;
-import org.daisy.dotify.common.text.ConditionalMapper;
-import org.daisy.dotify.common.text.SimpleUCharReplacer;
 import org.daisy.dotify.studio.api.DocumentPosition;
 import org.daisy.streamline.api.validity.ValidationReport;
 import org.daisy.streamline.api.validity.ValidatorMessage;
 
+import application.common.FeatureSwitch;
 import application.common.Settings;
 import application.common.Settings.Keys;
 import application.l10n.Messages;
@@ -45,89 +46,55 @@ import application.ui.preview.server.MainPage;
 public class StaxPreviewParser {
 	private static final Logger logger = Logger.getLogger(StaxPreviewParser.class.getCanonicalName());
 	private static final String PEF_NS = "http://www.daisy.org/ns/2008/pef";
-	private static final QName VOLUME = new QName(PEF_NS, "volume");
-	private static final QName SECTION = new QName(PEF_NS, "section");
-	private static final QName PAGE = new QName(PEF_NS, "page");
-	private static final QName ROW = new QName(PEF_NS, "row");
+	private static final String VOLUME = "volume";
+	private static final String SECTION = "section";
+	private static final String PAGE = "page";
+	private static final String ROW = "row";
 	private static final String HTML_NS = "http://www.w3.org/1999/xhtml";
-	
-	private static final StringParser<Integer> toInt = (value) -> Integer.parseInt(value);
-	private static final StringParser<Boolean> toBoolean = (value) -> Boolean.parseBoolean(value);
-	
-	@FunctionalInterface
-	private static interface StringParser<T> {
-		T toObject(String in);
-	}
-	
-	static final ConditionalMapper NUMBER_PROCESSOR = ConditionalMapper.withTrigger('⠼')
-													.map("⠚⠁⠃⠉⠙⠑⠋⠛⠓⠊", "0123456789")
-													.putIgnorable('⠄')
-													.putIgnorable('⠂')
-													.build();
+	private static final String HEAD_END = "</head>";
 	
 	private final List<File> volumes;
+	// The end positions of the parsed volumes and an index of them, guarded by this
 	private final List<DocumentPosition> volumeEndPositions;
+	private PositionIndex volumeEndIndex;
 	private final PEFBook book;
 	private final XMLOutputFactory outFactory;
-	private final SimpleUCharReplacer cr;
+	private final TextTable textTable;
 	private final MessageExtractor extractor;
 	private final ValidationReport report;
+	private final RowBuffer rows;
+	// the row gaps that have a style rule in the current volume
+	private final Set<Integer> rowgapClasses;
+	private BiConsumer<Integer, VolumeFile> volumeListener;
 	private int pageNumber;
-	private boolean abort;
+	private int lineOffset;
+	private volatile boolean abort;
 	private XMLStreamWriter out;
+	private VolumeFile current;
+	private long pendingRowStart;
+	private boolean pendingRow;
 	private boolean isProcessing;
 	private boolean used;
+	private boolean virtual;
 
 	StaxPreviewParser(PEFBook book, ValidationReport report) {
 		this.book = book;
-		this.extractor = new MessageExtractor(report.getMessages());
+		this.extractor = new MessageExtractor(report!=null?report.getMessages():Collections.emptyList());
 		this.report = report;
 		this.volumes = new ArrayList<>();
 		this.volumeEndPositions = new ArrayList<>();
+		this.volumeEndIndex = PositionIndex.of(volumeEndPositions);
+		this.rows = new RowBuffer();
+		this.rowgapClasses = new HashSet<>();
 		this.outFactory = XMLOutputFactory.newInstance();
+		this.volumeListener = (v, f)->{};
 		this.pageNumber = 1;
+		this.lineOffset = 0;
 		this.abort = false;
 		this.isProcessing = false;
 		this.used = false;
-		// Configures a char replacer instead of using braille converter directly in order to preserve 
-		// the previous behavior of xpath function translate, in other words, keeping characters with  
-		// no translation. This is not supported by the braille converter.
-		this.cr = new SimpleUCharReplacer();
-		getTable()
-			.map(v->v.newBrailleConverter())
-			.ifPresent(bc->{
-				if (bc.supportsEightDot()) {
-					String input = BrailleConstants.BRAILLE_PATTERNS_256;
-					String tr = bc.toText(input);
-					for (int i=0; i<tr.length(); i++) {
-						cr.put((int)input.charAt(i), ""+tr.charAt(i));
-					}
-				} else {
-					String input = BrailleConstants.BRAILLE_PATTERNS_64;
-					String tr = bc.toText(input);
-					for (int i=0; i<tr.length(); i++) {
-						cr.put((int)input.charAt(i), ""+tr.charAt(i));
-					}
-				}
-			});
-	}
-
-	private static Optional<Table> getTable() {
-		String charset = Settings.getSettings().getString(Keys.charset);
-		Optional<Table> table = Optional.empty();
-		if (charset!=null) { 
-			table = Optional.ofNullable(TableCatalog.newInstance().get(charset));
-		}
-		if (!table.isPresent()) {
-			TableCatalog tc = TableCatalog.newInstance();
-			Collection<FactoryProperties> list = tc.list();
-			table = list.stream()
-					.filter(v->v.getIdentifier().endsWith(".EN_US"))
-					.findFirst()
-					.map(v->tc.get(v.getIdentifier()));
-			table.ifPresent(t->Settings.getSettings().getSetPref(Keys.charset, t.getIdentifier()));
-		}
-		return table;
+		this.virtual = false;
+		this.textTable = TextTable.getInstance();
 	}
 	
 	private static class ParsingCancelledException extends Exception {
@@ -146,106 +113,238 @@ public class StaxPreviewParser {
 		used = true;
 	}
 	
+	/**
+	 * Sets a listener that is notified when the parser starts writing a volume.
+	 * The volume file can be read while it is being written.
+	 * @param volumeListener the listener, receiving the volume number and the volume file
+	 */
+	void setVolumeListener(BiConsumer<Integer, VolumeFile> volumeListener) {
+		this.volumeListener = volumeListener;
+	}
+
 	void staxParse() throws MalformedURLException, XMLStreamException, IOException {
 		assertUnused();
 		long t0 = System.currentTimeMillis();
-		isProcessing = true;
+		startProcessing();
 		try (InputStream is = book.getURI().toURL().openStream()) {
 			XMLInputFactory inFactory = XMLInputFactory.newInstance();
-			XMLEventReader input = inFactory.createXMLEventReader(is);
-			XMLEvent event;
+			XMLStreamReader input = inFactory.createXMLStreamReader(is);
 			int volNumber = 0;
 			while (input.hasNext()) {
-				event = input.nextEvent();
+				int type = input.next();
 				if (abort) { throw new ParsingCancelledException(); }
-				if (event.isStartElement() && event.asStartElement().getName().equals(VOLUME)) {
+				if (type==XMLStreamConstants.START_ELEMENT && isPefElement(input, VOLUME)) {
 					volNumber++;
-					parseVolume(event, input, volNumber);
+					parseVolume(input, volNumber);
 				}
 			}
 		} catch (ParsingCancelledException e) {
 			// nothing to do
 		} finally {
-			isProcessing = false;
+			stopProcessing();
 			long t1 = System.currentTimeMillis();
 			logger.info("Rendering preview: " + (t1-t0));
 		}
 	}
+
+	/**
+	 * Renders a single volume using the supplied index. The other volumes in the
+	 * book are not read, which allows volumes to be rendered in parallel by
+	 * using one parser for each volume.
+	 * @param index the volume index
+	 * @param vol the volume to render
+	 * @return the rendered volume, or null if rendering was aborted
+	 * @throws XMLStreamException if the volume could not be parsed
+	 * @throws IOException if an I/O error occurs
+	 */
+	File staxParse(VolumeIndex index, VolumeIndex.Volume vol) throws XMLStreamException, IOException {
+		assertUnused();
+		long t0 = System.currentTimeMillis();
+		startProcessing();
+		pageNumber = vol.getFirstPage();
+		lineOffset = vol.getLineOffset();
+		try (InputStream is = index.newInputStream(vol)) {
+			XMLInputFactory inFactory = XMLInputFactory.newInstance();
+			XMLStreamReader input = inFactory.createXMLStreamReader(is);
+			while (input.hasNext()) {
+				int type = input.next();
+				if (abort) { throw new ParsingCancelledException(); }
+				if (type==XMLStreamConstants.START_ELEMENT && isPefElement(input, VOLUME)) {
+					parseVolume(input, vol.getNumber());
+					break;
+				}
+			}
+			return abort||volumes.isEmpty()?null:volumes.get(0);
+		} catch (ParsingCancelledException e) {
+			return null;
+		} finally {
+			stopProcessing();
+			long t1 = System.currentTimeMillis();
+			logger.fine("Rendering volume " + vol.getNumber() + ": " + (t1-t0));
+		}
+	}
+	
+	/**
+	 * Renders a volume by replacing the head of a previous rendering of the same volume,
+	 * which is much faster than parsing the volume again. This is used when the settings
+	 * change, see {@link #writeHead()}.
+	 * @param previous the previous rendering
+	 * @param volNumber the volume number
+	 * @return the rendered volume
+	 * @throws XMLStreamException if the head could not be written
+	 * @throws IOException if the previous rendering could not be read
+	 */
+	File restyle(File previous, int volNumber) throws XMLStreamException, IOException {
+		assertUnused();
+		startProcessing();
+		File t1 = File.createTempFile("Preview", ".tmp");
+		t1.deleteOnExit();
+		volumes.add(t1);
+		try (FileChannel in = FileChannel.open(previous.toPath(), StandardOpenOption.READ);
+				FileOutputStream os = new FileOutputStream(t1)) {
+			long bodyStart = findHeadEnd(in);
+			Writer w = new OutputStreamWriter(os, "utf-8");
+			out = outFactory.createXMLStreamWriter(w);
+			out.setDefaultNamespace(HTML_NS);
+			writeHead();
+			out.flush();
+			w.flush();
+			FileChannel oc = os.getChannel();
+			for (long pos = bodyStart, size = in.size(); pos<size; ) {
+				pos += in.transferTo(pos, size-pos, oc);
+			}
+		} finally {
+			stopProcessing();
+		}
+		return t1;
+	}
 	
-	private void parseVolume(XMLEvent event, XMLEventReader input, int volNumber) throws XMLStreamException, IOException, ParsingCancelledException {
+	private static long findHeadEnd(FileChannel in) throws IOException {
+		// The head is short, it only contains the title, links and the settings
+		ByteBuffer bb = ByteBuffer.allocate((int)Math.min(in.size(), 1<<20));
+		while (bb.hasRemaining() && in.read(bb, bb.position())>-1) { }
+		byte[] end = HEAD_END.getBytes(StandardCharsets.UTF_8);
+		byte[] b = bb.array();
+		for (int i=0; i<=bb.position()-end.length; i++) {
+			int j = 0;
+			while (j<end.length && b[i+j]==end[j]) {
+				j++;
+			}
+			if (j==end.length) {
+				return i+end.length;
+			}
+		}
+		throw new IOException("The head of the previous rendering was not found.");
+	}
+	
+	private void parseVolume(XMLStreamReader input, int volNumber) throws XMLStreamException, IOException, ParsingCancelledException {
 		File t1 = File.createTempFile("Preview", ".tmp");
 		t1.deleteOnExit();
-		try (OutputStream outStream = new FileOutputStream(t1)) {
-			out = outFactory.createXMLStreamWriter(new OutputStreamWriter(outStream, "utf-8"));
+		current = new VolumeFile(t1);
+		rowgapClasses.clear();
+		boolean success = false;
+		try (Writer w = new OutputStreamWriter(new FileOutputStream(t1), "utf-8")) {
+			out = outFactory.createXMLStreamWriter(w);
 			out.setDefaultNamespace(HTML_NS);
+			volumeListener.accept(volNumber, current);
 			writePreamble(volNumber);
-			Context props = parseProps(event, null);
+			Context props = parseProps(input, null);
 			int sectionNumber = 0;
 			while (input.hasNext()) {
-				event = input.nextEvent();
+				int type = input.next();
 				if (abort) { throw new ParsingCancelledException(); }
-				if (event.isStartElement() && SECTION.equals(event.asStartElement().getName())) {
+				if (type==XMLStreamConstants.START_ELEMENT && isPefElement(input, SECTION)) {
 					sectionNumber++;
-					parseSection(event, input, volNumber, sectionNumber, props);
-				} else if (event.isEndElement() && VOLUME.equals(event.asEndElement().getName())) {
+					parseSection(input, volNumber, sectionNumber, props);
+				} else if (type==XMLStreamConstants.END_ELEMENT && isPefElement(input, VOLUME)) {
 					break;
 				}
 			}
 			writePostamble();
-			volumeEndPositions.add(DocumentPosition.with(event.getLocation()));
+			out.flush();
+			addVolumeEndPosition(DocumentPosition.fromLong(toPosition(input.getLocation())));
+			success = true;
 		} finally {
 			volumes.add(t1);
+			current.close(success);
 		}
 	}
 	
-	private void parseSection(XMLEvent event, XMLEventReader input, int volumeNumber, int sectionNumber, Context inherit) throws XMLStreamException, IOException, ParsingCancelledException {
+	private void parseSection(XMLStreamReader input, int volumeNumber, int sectionNumber, Context inherit) throws XMLStreamException, IOException, ParsingCancelledException {
 		if (pageNumber % 2 == 0) {
 			pageNumber++;
 		}
 		writeSectionPreamble(volumeNumber, sectionNumber);
-		Context props = parseProps(event, inherit);
+		Context props = parseProps(input, inherit);
 		boolean firstPage = true;
 		while (input.hasNext()) {
-			event = input.nextEvent();
+			int type = input.next();
 			if (abort) { throw new ParsingCancelledException(); }
-			if (event.isStartElement() && PAGE.equals(event.asStartElement().getName())) {
-				parsePage(event, input, volumeNumber, sectionNumber, props, firstPage);
+			if (type==XMLStreamConstants.START_ELEMENT && isPefElement(input, PAGE)) {
+				parsePage(input, volumeNumber, sectionNumber, props, firstPage);
 				firstPage = false;
-			} else if (event.isEndElement() && SECTION.equals(event.asEndElement().getName())) {
+				// make the page available to readers of the volume file
+				out.flush();
+				current.written();
+			} else if (type==XMLStreamConstants.END_ELEMENT && isPefElement(input, SECTION)) {
 				break;
 			}
 		}
 		writeSectionPostamble();
 	}
 	
-	private Context parseProps(XMLEvent event, Context defaults) {
-		int rows = getAttribute(event, "rows", defaults==null?0:defaults.rows, toInt);
-		int cols = getAttribute(event, "cols", defaults==null?0:defaults.cols, toInt);
-		int rowgap = getAttribute(event, "rowgap", defaults==null?0:defaults.rowgap, toInt);
-		boolean duplex = getAttribute(event, "duplex", defaults==null?true:defaults.duplex, toBoolean);
-		return new Context(rows, cols, duplex, rowgap);
+	/**
+	 * Parses the layout attributes of the current element.
+	 * @param input the reader, positioned at a start element
+	 * @param defaults the inherited values, or null
+	 * @return the values, same as <code>defaults</code> if the element doesn't override any of them
+	 */
+	private static Context parseProps(XMLStreamReader input, Context defaults) {
+		String rows = getAttribute(input, "rows");
+		String cols = getAttribute(input, "cols");
+		String rowgap = getAttribute(input, "rowgap");
+		String duplex = getAttribute(input, "duplex");
+		if (defaults!=null && rows==null && cols==null && rowgap==null && duplex==null) {
+			return defaults;
+		}
+		return new Context(
+				rows!=null?Integer.parseInt(rows):defaults==null?0:defaults.rows,
+				cols!=null?Integer.parseInt(cols):defaults==null?0:defaults.cols,
+				duplex!=null?Boolean.parseBoolean(duplex):defaults==null?true:defaults.duplex,
+				rowgap!=null?Integer.parseInt(rowgap):defaults==null?0:defaults.rowgap);
 	}
 	
-	private void parsePage(XMLEvent event, XMLEventReader input, int volNumber, int sectionNumber, Context inherit, boolean firstPage) throws XMLStreamException, IOException, ParsingCancelledException {
-		Context props = parseProps(event, inherit);
-		ArrayList<Row> rows = new ArrayList<>();
+	private void parsePage(XMLStreamReader input, int volNumber, int sectionNumber, Context inherit, boolean firstPage) throws XMLStreamException, IOException, ParsingCancelledException {
+		Context props = parseProps(input, inherit);
+		rows.clear();
 		while (input.hasNext()) {
-			event = input.nextEvent();
+			int type = input.next();
 			if (abort) { throw new ParsingCancelledException(); }
-			if (event.isStartElement() && ROW.equals(event.asStartElement().getName())) {
-				rows.add(parseRow(event, input, props));
-			} else if (event.isEndElement() && PAGE.equals(event.asEndElement().getName())) {
+			// The messages of a row extend to the event following the row
+			endPendingRow(input);
+			if (type==XMLStreamConstants.START_ELEMENT && isPefElement(input, ROW)) {
+				parseRow(input, props);
+			} else if (type==XMLStreamConstants.END_ELEMENT && isPefElement(input, PAGE)) {
 				break;
 			}
 		}
-		writePagePreamble(pageNumber, sectionNumber, volNumber, firstPage, rows);
-		writeRows(rows, true, props.cols, props.rows);
-		writeRows(rows, false, props.cols, props.rows);
+		// If the file is corrupt, there may not be an event after the row
+		endPendingRow(input);
+		if (FeatureSwitch.COMPACT_PREVIEW.isOn()) {
+			writeRowgapStyles(props.rows);
+		}
+		writePagePreamble(pageNumber, sectionNumber, volNumber, firstPage);
+		writeRows(true, props.cols, props.rows);
+		if (!FeatureSwitch.LAZY_TEXT_VIEW.isOn()) {
+			rows.translate(textTable);
+			writeRows(false, props.cols, props.rows);
+		}
 		writePagePostamble();
 		pageNumber += props.duplex?1:2;
 	}
 	
-	private void writeRows(List<Row> rows, boolean braille, int width, int height) throws XMLStreamException {
+	private void writeRows(boolean braille, int width, int height) throws XMLStreamException {
+		boolean compact = FeatureSwitch.COMPACT_PREVIEW.isOn();
 		out.writeStartElement(HTML_NS, "div");
 		if (braille) {
 			out.writeAttribute("class", "page");
@@ -253,35 +352,39 @@ public class StaxPreviewParser {
 			out.writeAttribute("class", "text");
 		}
 		out.writeStartElement(HTML_NS, "table");
-		int totalRowgap = 0;
-		for (Row r : rows) {
-			totalRowgap += r.rowgap+4;
-			StringBuilder classes = new StringBuilder();
-			classes.append(braille?"braille":"text");
-			classes.append(r.messages.isEmpty()?"":" issue");
-			writeRowPreamble(classes.toString(), r.rowgap);
-			String s;
-			if (braille) {
-				s = r.chars;
+		for (int r=0; r<rows.size(); r++) {
+			int rowgap = rows.getRowgap(r);
+			if (rows.getMessages(r).isEmpty()) {
+				writeRowPreamble(braille?"braille":"text", rowgap);
 			} else {
-				s = cr.replace(NUMBER_PROCESSOR.replace(r.chars)).toString();
+				writeRowPreamble(braille?"braille issue":"text issue", rowgap);
 			}
-			out.writeCharacters(s);
-			int fill = width-s.length();
-			for (int i=0; i<fill; i++) {
-				if (braille) {
-					out.writeCharacters("\u2800");
-				} else {
-					out.writeEntityRef("nbsp");
-				}
+			int len = rows.getLength(r);
+			if (braille && FeatureSwitch.LAZY_TEXT_VIEW.isOn() && len>0 && rows.getChars()[rows.getStart(r)+len-1]=='\u2800') {
+				// Tells preview.js where the padding starts, since the row itself ends with blank cells
+				out.writeAttribute("data-length", ""+len);
+			}
+			out.writeCharacters(braille?rows.getChars():rows.getText(), rows.getStart(r), len);
+			// In compact mode, only the first row is padded. It sets the width of the table.
+			if (!compact || r==0) {
+				writePadding(braille, width-len);
 			}
 			writeRowPostamble();
 		}
-		int usedLines = (int)Math.ceil(totalRowgap / 4d);
-		for (int i=0; i<height-usedLines; i++) {
-			writeRowPreamble(braille?"braille":"", 0);
-			out.writeEntityRef("nbsp");
-			writeRowPostamble();			
+		int fillerLines = getFillerLines(height);
+		if (compact) {
+			if (fillerLines>0) {
+				// One row with the height of the remaining lines
+				writeRowPreamble(braille?"braille":"", toFillerRowgap(fillerLines));
+				out.writeEntityRef("nbsp");
+				writeRowPostamble();
+			}
+		} else {
+			for (int i=0; i<fillerLines; i++) {
+				writeRowPreamble(braille?"braille":"", 0);
+				out.writeEntityRef("nbsp");
+				writeRowPostamble();			
+			}
 		}
 		out.writeEndElement();
 		out.writeCharacters("\n");
@@ -289,19 +392,97 @@ public class StaxPreviewParser {
 		out.writeCharacters("\n");
 	}
 	
+	private void writePadding(boolean braille, int fill) throws XMLStreamException {
+		for (int i=0; i<fill; i++) {
+			if (braille) {
+				out.writeCharacters("\u2800");
+			} else {
+				out.writeEntityRef("nbsp");
+			}
+		}
+	}
+	
+	/**
+	 * Gets the number of empty lines at the end of the current page.
+	 * @param height the height of the page, in lines
+	 * @return the number of lines
+	 */
+	private int getFillerLines(int height) {
+		int totalRowgap = 0;
+		for (int r=0; r<rows.size(); r++) {
+			totalRowgap += rows.getRowgap(r)+4;
+		}
+		int usedLines = (int)Math.ceil(totalRowgap / 4d);
+		return height-usedLines;
+	}
+	
+	/**
+	 * Gets the row gap of a single row with the same height as the specified number of lines.
+	 * @param lines the number of lines
+	 * @return the row gap
+	 */
+	private static int toFillerRowgap(int lines) {
+		return 4*(lines-1);
+	}
+	
+	private static String toRowgapClass(int rowgap) {
+		return "rg" + rowgap;
+	}
+	
+	/**
+	 * Writes the style rules for row gaps on the current page that haven't been
+	 * used in the volume before.
+	 * @param height the height of the page, in lines
+	 * @throws XMLStreamException if the rules could not be written
+	 */
+	private void writeRowgapStyles(int height) throws XMLStreamException {
+		StringBuilder rules = new StringBuilder();
+		int fillerLines = getFillerLines(height);
+		for (int r=0; r<=rows.size(); r++) {
+			int rowgap;
+			if (r<rows.size()) {
+				rowgap = rows.getRowgap(r);
+			} else if (fillerLines>0) {
+				rowgap = toFillerRowgap(fillerLines);
+			} else {
+				break;
+			}
+			if (rowgapClasses.add(rowgap)) {
+				rules.append("td.").append(toRowgapClass(rowgap)).append(" {height: ").append(toRowHeight(rowgap)).append("px;}\n");
+			}
+		}
+		if (rules.length()>0) {
+			out.writeStartElement(HTML_NS, "style");
+			out.writeAttribute("type", "text/css");
+			out.writeCharacters(rules.toString());
+			out.writeEndElement();
+			out.writeCharacters("\n");
+		}
+	}
+	
+	private static int toRowHeight(int rowgap) {
+		Double px = (1 + (rowgap / 4d)) * 26;
+		return px.intValue();
+	}
+	
 	public static String messageId(DocumentPosition m) {
 		return String.format("msgId-L%sC%s", m.getLineNumber(), m.getColumnNumber());
 	}
 	
 	private void writeRowPreamble(String cl, int rowgap) throws XMLStreamException {
 		out.writeStartElement(HTML_NS, "tr");
-		out.writeCharacters("\n");
-		out.writeStartElement(HTML_NS, "td");
-		if (cl!=null && !"".equals(cl)) {
-			out.writeAttribute("class", cl);
+		if (FeatureSwitch.COMPACT_PREVIEW.isOn()) {
+			// The height is set by a class, see writeRowgapStyles
+			out.writeStartElement(HTML_NS, "td");
+			out.writeAttribute("class", (cl!=null && !"".equals(cl)?cl+" ":"") + toRowgapClass(rowgap));
+		} else {
+			out.writeCharacters("\n");
+			out.writeStartElement(HTML_NS, "td");
+			if (cl!=null && !"".equals(cl)) {
+				out.writeAttribute("class", cl);
+			}
+			out.writeAttribute("style", "height: " + toRowHeight(rowgap) +"px;");
 		}
-		Double px = (1 + (rowgap / 4d)) * 26;
-		out.writeAttribute("style", "height: " + px.intValue() +"px;");
 	}
 	
 	private void writeRowPostamble() throws XMLStreamException {
@@ -311,46 +492,145 @@ public class StaxPreviewParser {
 		out.writeCharacters("\n");
 	}
 	
-	private Row parseRow(XMLEvent event, XMLEventReader input, Context inherit) throws XMLStreamException, ParsingCancelledException {
-		Context props = parseProps(event, inherit);
-		StringBuilder chars = new StringBuilder();
-		Location start = event.getLocation();
+	private void parseRow(XMLStreamReader input, Context inherit) throws XMLStreamException, ParsingCancelledException {
+		String rowgap = getAttribute(input, "rowgap");
+		// Positions are only needed to place messages
+		boolean hasMessages = extractor.hasMessages();
+		long start = hasMessages?toPosition(input.getLocation()):0;
+		rows.startRow(rowgap!=null?Integer.parseInt(rowgap):inherit.rowgap);
 		while (input.hasNext()) {
-			event = input.nextEvent();
+			int type = input.next();
 			if (abort) { throw new ParsingCancelledException(); }
-			if (event.isCharacters()) {
-				chars.append(event.asCharacters().getData());
-			} else if (event.isEndElement() && ROW.equals(event.asEndElement().getName())) {
-				XMLEvent next = input.peek();
-				// "next" should not be the last event (as it is a row element), but if it is, use "event".
-				// This will be incorrect, but if this happens, the file is corrupt anyway.
-				if (next==null) {
-					next = event;
-				}
-				return new Row(chars.toString(), props.rowgap, extractor.extractMessages(start, next.getLocation()));
+			switch (type) {
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					rows.append(input.getTextCharacters(), input.getTextStart(), input.getTextLength());
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					if (isPefElement(input, ROW)) {
+						pendingRowStart = start;
+						pendingRow = hasMessages;
+						return;
+					}
+					break;
+				default:
 			}
 		}
-		return null;
 	}
 	
-	private static <T> T getAttribute(XMLEvent event, String name, T def, StringParser<T> val) {
-		 Attribute attr = event.asStartElement().getAttributeByName(new QName(name));
-		 if (attr!=null) {
-			 return val.toObject(attr.getValue());
-		 } else {
-			 return def;
-		 }
+	private void endPendingRow(XMLStreamReader input) {
+		if (pendingRow) {
+			pendingRow = false;
+			rows.setMessages(rows.size()-1, extractor.extractMessages(pendingRowStart, toPosition(input.getLocation())));
+		}
 	}
 	
-	private static class Row {
-		private final String chars;
-		private final int rowgap;
-		private final List<ValidatorMessage> messages;
+	private long toPosition(Location loc) {
+		return DocumentPosition.pack(loc.getLineNumber() + lineOffset, loc.getColumnNumber());
+	}
+	
+	private static boolean isPefElement(XMLStreamReader input, String localName) {
+		return localName.equals(input.getLocalName()) && PEF_NS.equals(input.getNamespaceURI());
+	}
+	
+	/**
+	 * Gets the value of an attribute without a namespace.
+	 * @param input the reader, positioned at a start element
+	 * @param name the local name of the attribute
+	 * @return the value, or null if the attribute isn't present
+	 */
+	private static String getAttribute(XMLStreamReader input, String name) {
+		for (int i=0; i<input.getAttributeCount(); i++) {
+			if (name.equals(input.getAttributeLocalName(i))) {
+				String ns = input.getAttributeNamespace(i);
+				if (ns==null || "".equals(ns)) {
+					return input.getAttributeValue(i);
+				}
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Provides a buffer for the rows of a page. The buffer is reused for
+	 * every page, which avoids creating objects for each row.
+	 */
+	private static class RowBuffer {
+		private char[] chars = new char[4096];
+		private char[] text = new char[4096];
+		private int length = 0;
+		private int[] starts = new int[64];
+		private int[] rowgaps = new int[64];
+		private List<?>[] messages = new List<?>[64];
+		private int size = 0;
 		
-		private Row(String chars, int rowgap, List<ValidatorMessage> messages) {
-			this.chars = chars;
-			this.rowgap = rowgap;
-			this.messages = messages;
+		private void clear() {
+			Arrays.fill(messages, 0, size, null);
+			length = 0;
+			size = 0;
+		}
+		
+		private void startRow(int rowgap) {
+			if (size==starts.length) {
+				starts = Arrays.copyOf(starts, size*2);
+				rowgaps = Arrays.copyOf(rowgaps, size*2);
+				messages = Arrays.copyOf(messages, size*2);
+			}
+			starts[size] = length;
+			rowgaps[size] = rowgap;
+			messages[size] = Collections.emptyList();
+			size++;
+		}
+		
+		private void append(char[] c, int start, int len) {
+			if (length+len>chars.length) {
+				chars = Arrays.copyOf(chars, Math.max(chars.length*2, length+len));
+			}
+			System.arraycopy(c, start, chars, length, len);
+			length += len;
+		}
+		
+		private void setMessages(int row, List<ValidatorMessage> m) {
+			messages[row] = m;
+		}
+		
+		private int size() {
+			return size;
+		}
+		
+		private char[] getChars() {
+			return chars;
+		}
+		
+		private int getStart(int row) {
+			return starts[row];
+		}
+		
+		private int getLength(int row) {
+			return (row+1<size?starts[row+1]:length)-starts[row];
+		}
+		
+		private int getRowgap(int row) {
+			return rowgaps[row];
+		}
+		
+		@SuppressWarnings("unchecked")
+		private List<ValidatorMessage> getMessages(int row) {
+			return (List<ValidatorMessage>)messages[row];
+		}
+		
+		private char[] getText() {
+			return text;
+		}
+		
+		private void translate(TextTable t) {
+			if (text.length<length) {
+				text = new char[chars.length];
+			}
+			for (int r=0; r<size; r++) {
+				t.translate(chars, starts[r], getLength(r), text);
+			}
 		}
 	}
 	
@@ -369,6 +649,44 @@ public class StaxPreviewParser {
 	}
 
 	private void writePreamble(int volNumber) throws XMLStreamException {
+		writeHead();
+		out.writeCharacters("\n");
+		
+		out.writeStartElement(HTML_NS, "body");
+		out.writeAttribute("class", "preview");
+		out.writeCharacters("\n");
+		
+		out.writeStartElement(HTML_NS, "div");
+		out.writeAttribute("id", "view");
+		writeCloseForm();
+		writeNavigation(volNumber);
+		out.writeEndElement();
+
+		writeAbout(volNumber);
+
+		out.writeStartElement(HTML_NS, "div");
+		out.writeAttribute("class", "volume");
+		out.writeAttribute("id", toSectionId(volNumber, 0));
+		if (virtual) {
+			// Tells preview.js to load the pages of this volume
+			out.writeAttribute("data-volume", ""+volNumber);
+		}
+		out.writeCharacters("\n");
+		out.writeStartElement(HTML_NS, "p");
+		out.writeAttribute("class", "volume-header");
+		out.writeCharacters(Messages.XSLT_VOLUME_LABEL.localize() + " " + volNumber + " (" + book.getSheets(volNumber) + " " + Messages.XSLT_SHEETS_LABEL.localize() + ")");
+		
+		out.writeEndElement();
+		out.writeCharacters("\n");
+		
+	}
+	
+	/**
+	 * Writes the head of a volume. Everything in the rendering of a volume that depends
+	 * on the settings is written here, except the text view when {@link FeatureSwitch#LAZY_TEXT_VIEW}
+	 * is off. This allows {@link #restyle(File, int)} to replace it.
+	 */
+	private void writeHead() throws XMLStreamException {
 		out.writeDTD("<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Strict//EN\" \"http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd\">");
 		out.writeCharacters("\n");
 		out.writeStartElement(HTML_NS, "html");
@@ -419,32 +737,16 @@ public class StaxPreviewParser {
 		out.writeEndElement();
 		out.writeCharacters("\n");
 		
-		out.writeEndElement();
-		out.writeCharacters("\n");
-		
-		out.writeStartElement(HTML_NS, "body");
-		out.writeAttribute("class", "preview");
-		out.writeCharacters("\n");
-		
-		out.writeStartElement(HTML_NS, "div");
-		out.writeAttribute("id", "view");
-		writeCloseForm();
-		writeNavigation(volNumber);
-		out.writeEndElement();
-
-		writeAbout(volNumber);
-
-		out.writeStartElement(HTML_NS, "div");
-		out.writeAttribute("class", "volume");
-		out.writeAttribute("id", toSectionId(volNumber, 0));
-		out.writeCharacters("\n");
-		out.writeStartElement(HTML_NS, "p");
-		out.writeAttribute("class", "volume-header");
-		out.writeCharacters(Messages.XSLT_VOLUME_LABEL.localize() + " " + volNumber + " (" + book.getSheets(volNumber) + " " + Messages.XSLT_SHEETS_LABEL.localize() + ")");
+		if (FeatureSwitch.LAZY_TEXT_VIEW.isOn()) {
+			// The text view is created by preview.js, using this table
+			out.writeStartElement(HTML_NS, "script");
+			out.writeAttribute("type", "text/javascript");
+			out.writeCharacters("var textTable = \"" + toJavaScript(textTable.getTranslation()) + "\";");
+			out.writeEndElement();
+			out.writeCharacters("\n");
+		}
 		
 		out.writeEndElement();
-		out.writeCharacters("\n");
-		
 	}
 	
 	private void writeCloseForm() throws XMLStreamException {
@@ -517,27 +819,11 @@ public class StaxPreviewParser {
 		out.writeAttribute("id", "volume-select");
 		out.writeAttribute("class", "chosen-select");
 		
-		for (int i=1; i<=book.getVolumes(); i++) {
-			out.writeCharacters("\n");
-			out.writeStartElement(HTML_NS, "option");
-			out.writeAttribute("value", "view.html?book.xml&volume="+(i));
-			out.writeAttribute("title", "("+book.getSheets(i) + " " + Messages.XSLT_SHEETS_LABEL.localize() + ")");
-			if (i==volNumber) {
-				out.writeAttribute("selected", "selected");
-			}
-			out.writeCharacters(Messages.XSLT_VOLUME_LABEL.localize() + " " + i);
-			out.writeEndElement();
-			for (int j=1; j<=book.getSectionsInVolume(i); j++) {
-				out.writeCharacters("\n");
-				out.writeStartElement(HTML_NS, "option");
-				out.writeAttribute("value", "view.html?book.xml&volume="+(i)+"#"+toSectionId(i, j));
-				out.writeAttribute("title", "("+book.getSheets(i, j) + " " + Messages.XSLT_SHEETS_LABEL.localize() + ")");
-				out.writeEntityRef("nbsp");
-				out.writeEntityRef("nbsp");
-				out.writeEntityRef("nbsp");
-				out.writeCharacters(Messages.XSLT_SECTION_LABEL.localize() + " " + j);
-				out.writeEndElement();
-			}
+		if (FeatureSwitch.SHARED_NAVIGATION.isOn()) {
+			// The other volumes are added by preview.js
+			writeVolumeOptions(volNumber, volNumber, volNumber);
+		} else {
+			writeVolumeOptions(volNumber, 1, book.getVolumes());
 		}
 				
 		out.writeEndElement();
@@ -573,6 +859,39 @@ public class StaxPreviewParser {
 		out.writeCharacters("\n");
 	}
 	
+	private void writeVolumeOptions(int volNumber, int from, int to) throws XMLStreamException {
+		for (int i=from; i<=to; i++) {
+			out.writeCharacters("\n");
+			out.writeStartElement(HTML_NS, "option");
+			out.writeAttribute("value", "view.html?book.xml&volume="+(i));
+			out.writeAttribute("title", "("+book.getSheets(i) + " " + Messages.XSLT_SHEETS_LABEL.localize() + ")");
+			if (i==volNumber) {
+				out.writeAttribute("selected", "selected");
+			}
+			out.writeCharacters(Messages.XSLT_VOLUME_LABEL.localize() + " " + i);
+			out.writeEndElement();
+			for (int j=1; j<=book.getSectionsInVolume(i); j++) {
+				out.writeCharacters("\n");
+				out.writeStartElement(HTML_NS, "option");
+				out.writeAttribute("value", "view.html?book.xml&volume="+(i)+"#"+toSectionId(i, j));
+				out.writeAttribute("title", "("+book.getSheets(i, j) + " " + Messages.XSLT_SHEETS_LABEL.localize() + ")");
+				out.writeEntityRef("nbsp");
+				out.writeEntityRef("nbsp");
+				out.writeEntityRef("nbsp");
+				out.writeCharacters(Messages.XSLT_SECTION_LABEL.localize() + " " + j);
+				out.writeEndElement();
+			}
+		}
+	}
+	
+	private static String toJavaScript(String s) {
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<s.length(); i++) {
+			sb.append(String.format("\\u%04x", (int)s.charAt(i)));
+		}
+		return sb.toString();
+	}
+	
 	private static String toSectionId(int volume, int section) {
 		return "sectionId-"+volume+"-"+section;
 	}
@@ -599,6 +918,32 @@ public class StaxPreviewParser {
 		out.writeAttribute("id", "about-content");
 		out.writeCharacters("\n");
 		
+		if (FeatureSwitch.SHARED_NAVIGATION.isOn()) {
+			// Replaced by preview.js
+			out.writeStartElement(HTML_NS, "div");
+			out.writeAttribute("id", "about-book");
+			out.writeCharacters("");
+			out.writeEndElement();
+			out.writeCharacters("\n");
+		} else {
+			writeAboutBook();
+		}
+		
+		out.writeStartElement(HTML_NS, "p");
+		out.writeCharacters(Messages.XSLT_SHOWING_PAGES.localize() + ": " + 
+							book.getFirstPage(volNumber) + "-" + book.getLastPage(volNumber));
+
+		out.writeEndElement();
+		out.writeCharacters("\n");
+
+		out.writeEndElement();
+		out.writeCharacters("\n");
+
+		out.writeEndElement();
+		out.writeCharacters("\n");		
+	}
+	
+	private void writeAboutBook() throws XMLStreamException {
 		out.writeStartElement(HTML_NS, "p");
 		for (String s : orEmpty(book.getMetadata("identifier"))) {
 			out.writeCharacters(s);
@@ -655,19 +1000,135 @@ public class StaxPreviewParser {
 			out.writeEndElement();
 			out.writeCharacters("\n");
 		}
-		
-		out.writeStartElement(HTML_NS, "p");
-		out.writeCharacters(Messages.XSLT_SHOWING_PAGES.localize() + ": " + 
-							book.getFirstPage(volNumber) + "-" + book.getLastPage(volNumber));
-
+	}
+	
+	/**
+	 * Renders the parts of the navigation and of the information about the book
+	 * that are the same in all volumes. This is used instead of including them in
+	 * every volume when {@link FeatureSwitch#SHARED_NAVIGATION} is on.
+	 * @return an html fragment
+	 * @throws XMLStreamException if the fragment could not be written
+	 */
+	String renderNavigation() throws XMLStreamException {
+		assertUnused();
+		StringWriter w = new StringWriter();
+		out = outFactory.createXMLStreamWriter(w);
+		out.setDefaultNamespace(HTML_NS);
+		out.writeStartElement(HTML_NS, "div");
+		out.writeDefaultNamespace(HTML_NS);
+		out.writeCharacters("\n");
+		out.writeStartElement(HTML_NS, "select");
+		out.writeAttribute("id", "volume-options");
+		writeVolumeOptions(0, 1, book.getVolumes());
 		out.writeEndElement();
 		out.writeCharacters("\n");
-
+		out.writeStartElement(HTML_NS, "div");
+		out.writeAttribute("id", "about-book");
+		out.writeCharacters("\n");
+		writeAboutBook();
 		out.writeEndElement();
 		out.writeCharacters("\n");
-
 		out.writeEndElement();
-		out.writeCharacters("\n");		
+		out.flush();
+		return w.toString();
+	}
+	
+	/**
+	 * Renders a volume where each page is replaced by a placeholder. The pages are
+	 * loaded by preview.js when they are shown, using {@link #renderPages(PefPageIndex, int, int, int)}.
+	 * This is used instead of the full volume when {@link FeatureSwitch#VIRTUAL_PREVIEW} is on.
+	 * @param index the page index
+	 * @param volNumber the volume number
+	 * @return an html document
+	 * @throws XMLStreamException if the document could not be written
+	 */
+	String renderShell(PefPageIndex index, int volNumber) throws XMLStreamException {
+		assertUnused();
+		virtual = true;
+		StringWriter w = new StringWriter();
+		out = outFactory.createXMLStreamWriter(w);
+		out.setDefaultNamespace(HTML_NS);
+		writePreamble(volNumber);
+		int i = index.firstPageInVolume(volNumber);
+		for (int sectionNumber=1; sectionNumber<=book.getSectionsInVolume(volNumber); sectionNumber++) {
+			writeSectionPreamble(volNumber, sectionNumber);
+			boolean firstPage = true;
+			for (; i<index.getPageCount() && index.getVolume(i)==volNumber && index.getSection(i)==sectionNumber; i++) {
+				writePagePlaceholder(index, i, firstPage);
+				firstPage = false;
+			}
+			writeSectionPostamble();
+		}
+		writePostamble();
+		out.flush();
+		return w.toString();
+	}
+	
+	/**
+	 * Renders the pages in a volume with page numbers in the specified range.
+	 * Each page is read separately, using the page index.
+	 * @param index the page index
+	 * @param volNumber the volume number
+	 * @param from the first page number, inclusive
+	 * @param to the last page number, inclusive
+	 * @return a JSON object with the volume number and an array of pages, each with
+	 * 			the page number and the html of the page
+	 * @throws XMLStreamException if a page could not be parsed
+	 * @throws IOException if a page could not be read
+	 */
+	String renderPages(PefPageIndex index, int volNumber, int from, int to) throws XMLStreamException, IOException {
+		assertUnused();
+		XMLInputFactory inFactory = XMLInputFactory.newInstance();
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"volume\":").append(volNumber).append(",\"pages\":[");
+		boolean first = true;
+		for (int i=index.indexOf(from); i<index.getPageCount() && index.getPageNumber(i)<=to; i++) {
+			if (index.getVolume(i)!=volNumber) {
+				continue;
+			}
+			StringWriter w = new StringWriter();
+			out = outFactory.createXMLStreamWriter(w);
+			out.setDefaultNamespace(HTML_NS);
+			pageNumber = index.getPageNumber(i);
+			lineOffset = index.getLineOffset(i);
+			PefPageIndex.Layout l = index.getLayout(i);
+			try (InputStream is = index.newPageInputStream(i)) {
+				XMLStreamReader input = inFactory.createXMLStreamReader(is);
+				while (input.hasNext()) {
+					if (input.next()==XMLStreamConstants.START_ELEMENT && isPefElement(input, PAGE)) {
+						parsePage(input, volNumber, index.getSection(i), new Context(l.getRows(), l.getCols(), l.isDuplex(), l.getRowgap()), index.isFirstInSection(i));
+						break;
+					}
+				}
+				input.close();
+			} catch (ParsingCancelledException e) {
+				break;
+			}
+			out.flush();
+			sb.append(first?"":",").append("\n{\"number\":").append(index.getPageNumber(i)).append(",\"html\":");
+			appendJsonString(sb, w.toString());
+			sb.append('}');
+			first = false;
+		}
+		sb.append("]}");
+		return sb.toString();
+	}
+	
+	private static void appendJsonString(StringBuilder sb, String s) {
+		sb.append('"');
+		for (int i=0; i<s.length(); i++) {
+			char c = s.charAt(i);
+			if (c=='"' || c=='\\') {
+				sb.append('\\').append(c);
+			} else if (c=='\n') {
+				sb.append("\\n");
+			} else if (c<0x20 || c=='\u2028' || c=='\u2029') {
+				sb.append(String.format("\\u%04x", (int)c));
+			} else {
+				sb.append(c);
+			}
+		}
+		sb.append('"');
 	}
 	
 	private static <T> Iterable<T> orEmpty(Iterable<T> s) {
@@ -786,14 +1247,15 @@ public class StaxPreviewParser {
 		out.writeCharacters("\n");
 	}
 	
-	private void writePagePreamble(int pageNumber, int sectionNumber, int volNumber, boolean firstPage, List<Row> rows) throws XMLStreamException {
+	private void writePagePreamble(int pageNumber, int sectionNumber, int volNumber, boolean firstPage) throws XMLStreamException {
 		out.writeStartElement(HTML_NS, "div");
 		//out.writeAttribute("id", "");
 		out.writeAttribute("onmouseover", "setPage("+pageNumber+");");
 		out.writeAttribute("class", "cont " + (firstPage?"first":pageNumber%2==0?"even":"odd"));
 		out.writeCharacters("\n");
-		rows.stream()
-			.flatMap(v->v.messages.stream())
+		IntStream.range(0, rows.size())
+			.mapToObj(rows::getMessages)
+			.flatMap(v->v.stream())
 			.map(v->DocumentPosition.with(v.getLineNumber(), v.getColumnNumber()))
 			.distinct()
 			.forEach(m->{
@@ -805,6 +1267,15 @@ public class StaxPreviewParser {
 					e.printStackTrace();
 				}
 			});
+		writePageHeader(pageNumber, sectionNumber, volNumber);
+		
+		out.writeStartElement(HTML_NS, "div");
+		out.writeAttribute("class", "posrel");
+		out.writeCharacters("\n");
+	
+	}
+	
+	private void writePageHeader(int pageNumber, int sectionNumber, int volNumber) throws XMLStreamException {
 		out.writeStartElement(HTML_NS, "p");
 		out.writeAttribute("class", "page-header");
 		out.writeAttribute("id", "pagenum"+pageNumber);
@@ -818,11 +1289,29 @@ public class StaxPreviewParser {
 							" " + pageNumber);
 		out.writeEndElement();
 		out.writeCharacters("\n");
-		
+	}
+	
+	/**
+	 * Writes a placeholder for a page, which preview.js replaces with the page
+	 * when it is shown. The placeholder has the same classes as the page.
+	 * @param index the page index
+	 * @param i the index of the page
+	 * @param firstPage true if this is the first page in the section
+	 * @throws XMLStreamException if the placeholder could not be written
+	 */
+	private void writePagePlaceholder(PefPageIndex index, int i, boolean firstPage) throws XMLStreamException {
+		int pageNumber = index.getPageNumber(i);
+		PefPageIndex.Layout layout = index.getLayout(i);
 		out.writeStartElement(HTML_NS, "div");
-		out.writeAttribute("class", "posrel");
+		out.writeAttribute("onmouseover", "setPage("+pageNumber+");");
+		out.writeAttribute("class", "cont placeholder " + (firstPage?"first":pageNumber%2==0?"even":"odd"));
+		out.writeAttribute("data-page", ""+pageNumber);
+		// Pages with the same size share the measured size of the placeholder
+		out.writeAttribute("data-size", layout.getRows() + "x" + layout.getCols());
+		out.writeCharacters("\n");
+		writePageHeader(pageNumber, index.getSection(i), index.getVolume(i));
+		out.writeEndElement();
 		out.writeCharacters("\n");
-	
 	}
 	
 	private void writePagePostamble() throws XMLStreamException {
@@ -857,28 +1346,71 @@ public class StaxPreviewParser {
 		return book;
 	}
 	
+	/**
+	 * Gets the end positions of the volumes parsed so far.
+	 * @return the end positions
+	 */
+	synchronized List<DocumentPosition> getVolumeEndPositions() {
+		return Collections.unmodifiableList(new ArrayList<>(volumeEndPositions));
+	}
+
+	// The index is replaced rather than updated, so that lookups don't have to hold the lock.
+	// There are few volumes, so rebuilding it for each one is cheap.
+	private synchronized void addVolumeEndPosition(DocumentPosition p) {
+		volumeEndPositions.add(p);
+		volumeEndIndex = PositionIndex.of(volumeEndPositions);
+	}
+
 	int getVolumeForPosition(DocumentPosition p) {
-		for (int i=volumeEndPositions.size(); i>0; i--) {
-			DocumentPosition vEnd = volumeEndPositions.get(i-1);
-			if (vEnd.isBefore(p)) {
-				return i+1;
-			}
+		PositionIndex index;
+		synchronized (this) {
+			index = volumeEndIndex;
 		}
-		return 1;
+		return getVolumeForPosition(index, p);
+	}
+	
+	/**
+	 * Gets the volume number for the specified position.
+	 * @param volumeEndPositions the end position of each volume
+	 * @param p the position
+	 * @return the volume number
+	 */
+	static int getVolumeForPosition(PositionIndex volumeEndPositions, DocumentPosition p) {
+		// the volume after the last volume ending before p
+		return volumeEndPositions.countBefore(p.toLong())+1;
 	}
 	
 	/**
-	 * Stops processing and deletes temporary files.
+	 * Stops processing and deletes temporary files. This method doesn't wait
+	 * for processing to stop, the files are deleted by the processing thread
+	 * in that case.
 	 */
 	void abort() {
-		abort = true;
-		while (isProcessing) {
-			try {
-				Thread.sleep(100);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+		synchronized (this) {
+			abort = true;
+			if (isProcessing) {
+				return;
 			}
 		}
+		deleteVolumes();
+	}
+	
+	private synchronized void startProcessing() {
+		isProcessing = true;
+	}
+	
+	private void stopProcessing() {
+		boolean aborted;
+		synchronized (this) {
+			isProcessing = false;
+			aborted = abort;
+		}
+		if (aborted) {
+			deleteVolumes();
+		}
+	}
+	
+	private void deleteVolumes() {
 		for (File f : volumes) {
 			//delete files
 			f.delete();
@@ -1,52 +1,471 @@
 package application.ui.preview.server.preview.stax;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLStreamException;
 
 import org.daisy.braille.utils.pef.PEFBook;
 import org.daisy.dotify.studio.api.DocumentPosition;
 import org.daisy.streamline.api.validity.ValidationReport;
 
-import javafx.concurrent.Task;
+import application.common.FeatureSwitch;
 
 class StaxPreviewRenderer {
+	private static final Logger logger = Logger.getLogger(StaxPreviewRenderer.class.getCanonicalName());
+	private final PEFBook book;
+	private final ValidationReport report;
+	private final CompletableFuture<byte[]> digest;
 	private final StaxPreviewParser parser;
+	private final RenderScheduler scheduler;
+	private final PreviewExecutor.Group group;
+	private final List<StaxPreviewParser> volumeParsers;
+	private final List<CompletableFuture<VolumeFile>> started;
+	private final Map<String, File> reusable;
+	private final Map<Integer, File> restylable;
+	private final List<DocumentPosition> restyledEndPositions;
+	private final List<File> reused;
+	private final String[] fingerprints;
+	private VolumeIndex index;
+	private String bookFingerprint;
+	private List<DocumentPosition> volumeEndPositions;
+	private PositionIndex volumeEndIndex;
+	private final CompletableFuture<PefPageIndex> pageIndex;
+	private String navigation;
+	private boolean aborted;
+
+	StaxPreviewRenderer(PEFBook book, ValidationReport report, CompletableFuture<byte[]> digest, PreviewExecutor.Priority priority) {
+		this(book, report, digest, Collections.emptyMap(), priority);
+	}
 
-	StaxPreviewRenderer(PEFBook book, ValidationReport report) {
+	/**
+	 * Creates a new renderer. Volume files with a fingerprint that matches a volume
+	 * in this book are used instead of rendering the volume again.
+	 * @param book the book
+	 * @param report the validation report
+	 * @param digest the digest of the contents of the file, see {@link PefIngest#getDigest()}.
+	 * 			It identifies the contents in the page index and the preview cache.
+	 * @param reusable volume files from a previous rendering, by fingerprint. The renderer
+	 * 			takes ownership of the files and deletes those that aren't used.
+	 * @param priority the priority of the rendering tasks
+	 */
+	StaxPreviewRenderer(PEFBook book, ValidationReport report, CompletableFuture<byte[]> digest, Map<String, File> reusable, PreviewExecutor.Priority priority) {
+		this(book, report, digest, reusable, priority, Collections.emptyMap(), null);
+	}
+
+	private StaxPreviewRenderer(PEFBook book, ValidationReport report, CompletableFuture<byte[]> digest, Map<String, File> reusable, PreviewExecutor.Priority priority,
+			Map<Integer, File> restylable, List<DocumentPosition> restyledEndPositions) {
+		this.book = book;
+		this.report = report;
+		this.digest = digest;
 		this.parser = new StaxPreviewParser(book, report);
-		Task<Void> t = new Task<Void>() {
+		this.scheduler = new RenderScheduler(book.getVolumes(), this::renderVolume);
+		this.group = priority.newGroup();
+		this.volumeParsers = new ArrayList<>();
+		this.started = new ArrayList<>();
+		for (int i=0; i<book.getVolumes(); i++) {
+			started.add(new CompletableFuture<>());
+		}
+		this.reusable = new HashMap<>(reusable);
+		this.restylable = new HashMap<>(restylable);
+		this.restyledEndPositions = restyledEndPositions;
+		this.reused = new ArrayList<>();
+		this.fingerprints = new String[book.getVolumes()];
+		this.aborted = false;
+		this.pageIndex = new CompletableFuture<>();
+		// The digest is only needed to look up the page index and the cache
+		CompletableFuture<byte[]> d = FeatureSwitch.PAGE_INDEX.isOn() || FeatureSwitch.PREVIEW_CACHE.isOn()
+				?digest.exceptionally(e->null):CompletableFuture.completedFuture(null);
+		// Doesn't occupy a worker while the digest is being computed
+		d.thenCompose(v->group.submit(()->{
+			render(v);
+			return null;
+		})).whenComplete((v, e)->{
+			Throwable cause = e instanceof CompletionException?e.getCause():e;
+			if (cause!=null && !(cause instanceof CancellationException) && !group.isCancelled()) {
+				logger.log(Level.WARNING, "Failed to render preview.", cause);
+			}
+		});
+	}
 
-			@Override
-			protected Void call() throws Exception {
+	/**
+	 * Renders the book, in a task of the preview executor.
+	 * @param digest the digest of the contents of the file, or null if it isn't available
+	 * @throws XMLStreamException if the book could not be rendered
+	 * @throws IOException if the book could not be read
+	 */
+	private void render(byte[] digest) throws XMLStreamException, IOException {
+		File file = new File(book.getURI());
+		Optional<PefPageIndex> pi = FeatureSwitch.PAGE_INDEX.isOn()?PefPageIndex.load(file, digest):Optional.empty();
+		pageIndex.complete(pi.filter(v->v.getVolumeIndex().getVolumes().size()==book.getVolumes()).orElse(null));
+		Optional<String> key = FeatureSwitch.PREVIEW_CACHE.isOn()?PreviewCache.key(digest, report):Optional.empty();
+		Optional<PreviewCache.Entry> cached = key.flatMap(k->PreviewCache.getInstance().get(k));
+		if (cached.isPresent() && useCached(cached.get())) {
+			deleteReusable();
+			return;
+		}
+		// Completes when all volumes are done, without occupying a worker while waiting
+		key.ifPresent(k->scheduler.getCompletion().thenRun(()->store(k)));
+		if (restyledEndPositions!=null && this.restylable.size()==book.getVolumes()) {
+			// All volumes can be restyled, the book doesn't have to be read
+			setVolumeEndPositions(restyledEndPositions);
+			scheduler.getCompletion().whenComplete((v, e)->deleteReusable());
+			scheduler.start(group, Runtime.getRuntime().availableProcessors());
+			return;
+		}
+		Optional<VolumeIndex> vi = Optional.empty();
+		if (FeatureSwitch.PARALLEL_PREVIEW.isOn()) {
+			vi = (pi.isPresent()?pi:PefPageIndex.scan(file))
+					.map(PefPageIndex::getVolumeIndex)
+					.filter(v->v.getVolumes().size()==book.getVolumes());
+		}
+		if (vi.isPresent()) {
+			index = vi.get();
+			bookFingerprint = RenderFingerprint.book(book, report).orElse(null);
+			setVolumeEndPositions(index.getVolumeEndPositions());
+			scheduler.getCompletion().whenComplete((v, e)->deleteReusable());
+			scheduler.start(group, Runtime.getRuntime().availableProcessors());
+		} else {
+			deleteReusable();
+			// The volumes can only be rendered in order
+			parser.setVolumeListener((v, vf)->{
+				started.get(v-1).complete(vf);
+				vf.getCompletion().thenAccept(f->scheduler.getVolume(v).complete(f));
+			});
+			try {
 				parser.staxParse();
+			} finally {
+				cancelPending();
+			}
+		}
+	}
+
+	private synchronized void setVolumeEndPositions(List<DocumentPosition> volumeEndPositions) {
+		this.volumeEndPositions = volumeEndPositions;
+		this.volumeEndIndex = PositionIndex.of(volumeEndPositions);
+	}
+
+	private synchronized List<DocumentPosition> getVolumeEndPositions() {
+		return volumeEndPositions;
+	}
+
+	/**
+	 * Uses the volumes of a cache entry. The volume files are owned by this renderer
+	 * and are deleted with the other files, or immediately if they aren't used.
+	 * @param entry the entry
+	 * @return true if the entry was used, false otherwise
+	 */
+	private boolean useCached(PreviewCache.Entry entry) {
+		synchronized (this) {
+			if (aborted || entry.getVolumes().size()!=book.getVolumes()) {
+				for (File f : entry.getVolumes()) {
+					f.delete();
+				}
+				return false;
+			}
+			reused.addAll(entry.getVolumes());
+		}
+		setVolumeEndPositions(entry.getVolumeEndPositions());
+		for (int i=0; i<entry.getVolumes().size(); i++) {
+			File f = entry.getVolumes().get(i);
+			VolumeFile vf = new VolumeFile(f);
+			vf.close(true);
+			started.get(i).complete(vf);
+			scheduler.getVolume(i+1).complete(f);
+		}
+		return true;
+	}
+
+	/**
+	 * Stores the rendered volumes in the cache. This is called when all volumes
+	 * have been rendered, it must not wait for the volumes since it runs in a
+	 * task of the preview executor.
+	 * @param key the cache key
+	 */
+	private void store(String key) {
+		List<File> files = new ArrayList<>();
+		for (int i=1; i<=book.getVolumes(); i++) {
+			File f = scheduler.getVolume(i).getNow(null);
+			if (f==null) {
+				// rendering was aborted
+				return;
+			}
+			files.add(f);
+		}
+		List<DocumentPosition> ends = getVolumeEndPositions();
+		PreviewCache.getInstance().put(key, files, ends!=null?ends:parser.getVolumeEndPositions());
+	}
+
+	private File renderVolume(int v) throws XMLStreamException, IOException {
+		StaxPreviewParser p;
+		File previous;
+		synchronized (this) {
+			if (aborted) {
 				return null;
 			}
-		};
-        Thread th = new Thread(t);
-        th.setDaemon(true);
-        th.start();
+			p = new StaxPreviewParser(book, report);
+			volumeParsers.add(p);
+			previous = restylable.remove(v);
+		}
+		if (previous!=null) {
+			try {
+				File f = p.restyle(previous, v);
+				VolumeFile vf = new VolumeFile(f);
+				vf.close(true);
+				started.get(v-1).complete(vf);
+				return f;
+			} finally {
+				previous.delete();
+			}
+		}
+		VolumeIndex vi = index;
+		if (bookFingerprint!=null) {
+			String fp = RenderFingerprint.volume(bookFingerprint, vi, vi.getVolumes().get(v-1));
+			File f;
+			synchronized (this) {
+				fingerprints[v-1] = fp;
+				f = reusable.remove(fp);
+				if (f!=null) {
+					reused.add(f);
+				}
+			}
+			if (f!=null) {
+				VolumeFile vf = new VolumeFile(f);
+				vf.close(true);
+				started.get(v-1).complete(vf);
+				return f;
+			}
+		}
+		p.setVolumeListener((n, vf)->started.get(v-1).complete(vf));
+		try {
+			return p.staxParse(vi, vi.getVolumes().get(v-1));
+		} finally {
+			// in case the volume was never started
+			started.get(v-1).cancel(false);
+		}
+	}
+
+	/**
+	 * Creates links to the rendered volumes that can be reused by a renderer
+	 * of a later version of the same book. The caller is responsible for deleting the files.
+	 * @return the volume files, by fingerprint
+	 */
+	Map<String, File> linkRenderedVolumes() {
+		Map<String, File> ret = new HashMap<>();
+		for (int i=0; i<fingerprints.length; i++) {
+			String fp;
+			synchronized (this) {
+				fp = fingerprints[i];
+			}
+			if (fp!=null) {
+				link(i+1).ifPresent(f->ret.put(fp, f));
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Creates a new renderer for the same book and report, using the current settings.
+	 * Volumes that have been rendered by this renderer are restyled rather than
+	 * rendered again, see {@link StaxPreviewParser#restyle(File, int)}.
+	 * @param priority the priority of the rendering tasks
+	 * @return a new renderer
+	 */
+	StaxPreviewRenderer restyle(PreviewExecutor.Priority priority) {
+		Map<Integer, File> volumes = new HashMap<>();
+		for (int i=1; i<=book.getVolumes(); i++) {
+			int v = i;
+			link(v).ifPresent(f->volumes.put(v, f));
+		}
+		List<DocumentPosition> ends = null;
+		if (volumes.size()==book.getVolumes()) {
+			ends = getVolumeEndPositions();
+			ends = ends!=null?ends:parser.getVolumeEndPositions();
+		}
+		return new StaxPreviewRenderer(book, report, digest, Collections.emptyMap(), priority, volumes, ends);
+	}
+
+	/**
+	 * Creates a link to a rendered volume. The caller is responsible for deleting the file.
+	 * @param v the volume number
+	 * @return the link, or an empty optional if the volume hasn't been rendered
+	 */
+	private Optional<File> link(int v) {
+		CompletableFuture<File> f = scheduler.getVolume(v);
+		if (f.isDone() && !f.isCompletedExceptionally() && f.join()!=null) {
+			try {
+				return Optional.of(VolumeFile.link(f.join()));
+			} catch (IOException e) {
+				logger.log(Level.FINE, "Failed to link volume " + v, e);
+			}
+		}
+		return Optional.empty();
+	}
+
+	private synchronized void deleteReusable() {
+		for (File f : reusable.values()) {
+			f.delete();
+		}
+		reusable.clear();
+		for (File f : restylable.values()) {
+			f.delete();
+		}
+		restylable.clear();
 	}
-	
+
+	private void cancelPending() {
+		scheduler.cancel();
+		for (CompletableFuture<VolumeFile> f : started) {
+			f.cancel(false);
+		}
+	}
+
 	void abort() {
+		List<StaxPreviewParser> parsers;
+		synchronized (this) {
+			aborted = true;
+			parsers = new ArrayList<>(volumeParsers);
+		}
+		cancelPending();
+		group.cancel();
+		pageIndex.complete(null);
+		for (StaxPreviewParser p : parsers) {
+			p.abort();
+		}
 		parser.abort();
+		synchronized (this) {
+			for (File f : reused) {
+				f.delete();
+			}
+		}
+		deleteReusable();
 	}
 
+	/**
+	 * Gets the file for the specified volume, waiting for it to be rendered if necessary.
+	 * If the volume hasn't been rendered yet, it is rendered ahead of other volumes.
+	 * @param v the volume number, starting with 1
+	 * @return the file, or null if the volume could not be rendered
+	 * @throws InterruptedException if the current thread was interrupted while waiting
+	 */
 	File getFile(int v) throws InterruptedException {
 		if (v<1 || v>parser.getBook().getVolumes()) {
 			throw new IndexOutOfBoundsException();
 		}
 		try {
-			List<File> volumes = parser.getVolumes(); 
-			while (volumes.size()<v) {
-				Thread.sleep(100);
-			}
-			return volumes.get(v-1);
-		} catch (InterruptedException e) {
-			throw e;
+			return scheduler.request(v).get();
+		} catch (ExecutionException | CancellationException e) {
+			logger.log(Level.FINE, "Volume " + v + " was not rendered.", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Opens an input stream for the specified volume. If the volume is being rendered, the stream
+	 * follows the output of the renderer, otherwise it waits for the volume to be started.
+	 * If the volume hasn't been rendered yet, it is rendered ahead of other volumes.
+	 * @param v the volume number, starting with 1
+	 * @return a new input stream, or null if the volume could not be rendered
+	 * @throws InterruptedException if the current thread was interrupted while waiting
+	 * @throws IOException if the volume could not be opened
+	 */
+	InputStream getInputStream(int v) throws InterruptedException, IOException {
+		if (v<1 || v>parser.getBook().getVolumes()) {
+			throw new IndexOutOfBoundsException();
+		}
+		scheduler.request(v);
+		try {
+			return started.get(v-1).get().newInputStream();
+		} catch (ExecutionException | CancellationException e) {
+			logger.log(Level.FINE, "Volume " + v + " was not rendered.", e);
+			return null;
 		}
 	}
-	
+
+	/**
+	 * Gets the navigation fragment that is shared by all volumes.
+	 * @return the fragment
+	 * @throws XMLStreamException if the fragment could not be rendered
+	 */
+	synchronized String getNavigation() throws XMLStreamException {
+		if (navigation==null) {
+			navigation = new StaxPreviewParser(book, report).renderNavigation();
+		}
+		return navigation;
+	}
+
 	int getVolumeForPosition(DocumentPosition p) {
-		return parser.getVolumeForPosition(p);
+		PositionIndex ends;
+		synchronized (this) {
+			ends = volumeEndIndex;
+		}
+		return ends!=null?StaxPreviewParser.getVolumeForPosition(ends, p):parser.getVolumeForPosition(p);
+	}
+
+	/**
+	 * Gets the page number of the page containing the specified position.
+	 * @param p the position
+	 * @return the page number, or an empty optional if the position isn't inside a
+	 * 			page, or if the page index isn't available
+	 */
+	OptionalInt getPageForPosition(DocumentPosition p) {
+		PefPageIndex index = pageIndex.getNow(null);
+		return index!=null?index.getPageNumber(p):OptionalInt.empty();
+	}
+
+	/**
+	 * Gets the page index of the book, waiting for it to be loaded if necessary.
+	 * @return the page index, or null if the book could not be indexed
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private PefPageIndex getPageIndex() throws InterruptedException {
+		try {
+			return pageIndex.get();
+		} catch (ExecutionException | CancellationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Renders a volume where the pages are replaced by placeholders.
+	 * @param vol the volume number
+	 * @return the html document, or null if the book could not be indexed
+	 * @throws InterruptedException if interrupted while waiting for the page index
+	 * @throws XMLStreamException if the document could not be rendered
+	 * @see StaxPreviewParser#renderShell(PefPageIndex, int)
+	 */
+	String getShell(int vol) throws InterruptedException, XMLStreamException {
+		PefPageIndex index = getPageIndex();
+		return index!=null?new StaxPreviewParser(book, report).renderShell(index, vol):null;
+	}
+
+	/**
+	 * Renders the pages in a volume with page numbers in the specified range.
+	 * @param vol the volume number
+	 * @param from the first page number, inclusive
+	 * @param to the last page number, inclusive
+	 * @return a JSON object, or null if the book could not be indexed
+	 * @throws InterruptedException if interrupted while waiting for the page index
+	 * @throws XMLStreamException if the pages could not be rendered
+	 * @throws IOException if the pages could not be read
+	 * @see StaxPreviewParser#renderPages(PefPageIndex, int, int, int)
+	 */
+	String getPages(int vol, int from, int to) throws InterruptedException, XMLStreamException, IOException {
+		PefPageIndex index = getPageIndex();
+		return index!=null?new StaxPreviewParser(book, report).renderPages(index, vol, from, to):null;
 	}
 }
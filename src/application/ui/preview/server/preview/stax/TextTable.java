@@ -0,0 +1,158 @@
+package application.ui.preview.server.preview.stax;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.daisy.dotify.api.factory.FactoryProperties;
+import org.daisy.dotify.api.table.BrailleConstants;
+import org.daisy.dotify.api.table.BrailleConverter;
+import org.daisy.dotify.api.table.Table;
+import org.daisy.dotify.api.table.TableCatalog;
+
+import application.common.Settings;
+import application.common.Settings.Keys;
+
+/**
+ * <p>Provides a compiled translation of braille patterns into text, used in the text
+ * view of the preview. Each braille pattern is translated into a single character
+ * using the table in the settings. Digits following a number sign are translated
+ * into 0-9 instead.</p>
+ *
+ * <p>Characters that are not braille patterns, or that aren't supported by the table,
+ * are kept as is. Since every character is translated into exactly one character,
+ * the translation has the same length as the input.</p>
+ *
+ * <p>Instances are immutable and shared by all parsers using the same table.</p>
+ */
+final class TextTable {
+	private static final char PATTERN_OFFSET = '⠀';
+	private static final char NUMBER_SIGN = '⠼';
+	private static final String DIGITS = "⠚⠁⠃⠉⠙⠑⠋⠛⠓⠊";
+	private static final String NUMBER_IGNORABLE = "⠄⠂";
+	private static final Map<String, TextTable> TABLES = new ConcurrentHashMap<>();
+	// the translation of each pattern
+	private final char[] text;
+	// the translation of each pattern inside a number, or 0 if the pattern ends the number
+	private final char[] number;
+
+	private TextTable(char[] text) {
+		this.text = text;
+		this.number = new char[256];
+		for (int i=0; i<DIGITS.length(); i++) {
+			number[DIGITS.charAt(i)-PATTERN_OFFSET] = (char)('0'+i);
+		}
+		for (int i=0; i<NUMBER_IGNORABLE.length(); i++) {
+			char c = NUMBER_IGNORABLE.charAt(i);
+			number[c-PATTERN_OFFSET] = text[c-PATTERN_OFFSET];
+		}
+	}
+
+	/**
+	 * Gets the table for the current settings.
+	 * @return the table
+	 */
+	static TextTable getInstance() {
+		String charset = Settings.getSettings().getString(Keys.charset);
+		return TABLES.computeIfAbsent(charset==null?"":charset, k->newInstance(getTable()));
+	}
+
+	/**
+	 * Creates a new table.
+	 * @param table the braille table, or an empty optional to keep all patterns
+	 * @return a new table
+	 */
+	static TextTable newInstance(Optional<Table> table) {
+		if (table.isPresent()) {
+			BrailleConverter bc = table.get().newBrailleConverter();
+			String input = bc.supportsEightDot()?BrailleConstants.BRAILLE_PATTERNS_256:BrailleConstants.BRAILLE_PATTERNS_64;
+			return newInstance(input, bc.toText(input));
+		} else {
+			return newInstance("", "");
+		}
+	}
+
+	/**
+	 * Creates a new table.
+	 * @param patterns the braille patterns to translate
+	 * @param translation the translation of each pattern, in the same order
+	 * @return a new table
+	 */
+	static TextTable newInstance(String patterns, String translation) {
+		char[] text = new char[256];
+		for (int i=0; i<text.length; i++) {
+			text[i] = (char)(PATTERN_OFFSET+i);
+		}
+		for (int i=0; i<translation.length(); i++) {
+			text[patterns.charAt(i)-PATTERN_OFFSET] = translation.charAt(i);
+		}
+		return new TextTable(text);
+	}
+
+	private static Optional<Table> getTable() {
+		String charset = Settings.getSettings().getString(Keys.charset);
+		Optional<Table> table = Optional.empty();
+		if (charset!=null) {
+			table = Optional.ofNullable(TableCatalog.newInstance().get(charset));
+		}
+		if (!table.isPresent()) {
+			TableCatalog tc = TableCatalog.newInstance();
+			Collection<FactoryProperties> list = tc.list();
+			table = list.stream()
+					.filter(v->v.getIdentifier().endsWith(".EN_US"))
+					.findFirst()
+					.map(v->tc.get(v.getIdentifier()));
+			table.ifPresent(t->Settings.getSettings().getSetPref(Keys.charset, t.getIdentifier()));
+		}
+		return table;
+	}
+
+	/**
+	 * Gets the translation of each braille pattern, outside of numbers.
+	 * @return a string with the translation of U+2800 to U+28FF, in order
+	 */
+	String getTranslation() {
+		return new String(text);
+	}
+
+	/**
+	 * Translates a row of braille. Numbers don't continue across calls.
+	 * @param in the input
+	 * @param start the start of the row in the input
+	 * @param len the length of the row
+	 * @param out the output, translated characters are written at the same positions as in the input
+	 */
+	void translate(char[] in, int start, int len, char[] out) {
+		boolean inNumber = false;
+		for (int i=start; i<start+len; i++) {
+			char c = in[i];
+			int p = c-PATTERN_OFFSET;
+			if (p>=0 && p<256) {
+				char t = inNumber?number[p]:0;
+				if (t==0) {
+					inNumber = false;
+					t = text[p];
+				}
+				out[i] = t;
+				if (c==NUMBER_SIGN) {
+					inNumber = true;
+				}
+			} else {
+				inNumber = false;
+				out[i] = c;
+			}
+		}
+	}
+
+	/**
+	 * Translates a string of braille.
+	 * @param in the input
+	 * @return the translated string
+	 */
+	String translate(String in) {
+		char[] c = in.toCharArray();
+		translate(c, 0, c.length, c);
+		return new String(c);
+	}
+}
@@ -0,0 +1,164 @@
+package application.ui.preview.server.preview.stax;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * <p>Provides a rendered volume file that may still be written to. Input streams
+ * opened while the volume is being written follow the file as it grows, which
+ * allows the beginning of the volume to be consumed before the end of it has been
+ * rendered. Once the volume is complete, the file is read as usual.</p>
+ */
+class VolumeFile {
+	private final File file;
+	private final CompletableFuture<File> completion;
+	private long version;
+	private boolean closed;
+	private boolean failed;
+
+	/**
+	 * Creates a new volume file.
+	 * @param file the file that the volume is written to
+	 */
+	VolumeFile(File file) {
+		this.file = file;
+		this.completion = new CompletableFuture<>();
+		this.version = 0;
+		this.closed = false;
+		this.failed = false;
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * Creates a temporary link to a file, or a copy of it if a link can't be created.
+	 * The caller is responsible for deleting the link.
+	 * @param f the file
+	 * @return the link
+	 * @throws IOException if the link could not be created
+	 */
+	static File link(File f) throws IOException {
+		File link = File.createTempFile("Preview", ".tmp");
+		link.delete();
+		link.deleteOnExit();
+		try {
+			Files.createLink(link.toPath(), f.toPath());
+		} catch (UnsupportedOperationException | IOException e) {
+			Files.copy(f.toPath(), link.toPath());
+		}
+		return link;
+	}
+
+	/**
+	 * Gets a future that is completed with the file when the volume has been written.
+	 * @return the future
+	 */
+	CompletableFuture<File> getCompletion() {
+		return completion;
+	}
+
+	/**
+	 * Notifies readers that more content has been written to the file.
+	 */
+	synchronized void written() {
+		version++;
+		notifyAll();
+	}
+
+	/**
+	 * Closes the volume. Readers that reach the end of the file after this
+	 * method has been called will see the end of the stream.
+	 * @param success true if the volume was completely written, false otherwise
+	 */
+	void close(boolean success) {
+		synchronized (this) {
+			closed = true;
+			failed = !success;
+			notifyAll();
+		}
+		if (success) {
+			completion.complete(file);
+		} else {
+			completion.completeExceptionally(new IOException("Volume was not completed."));
+		}
+	}
+
+	/**
+	 * Opens a new input stream for this volume.
+	 * @return a new input stream
+	 * @throws FileNotFoundException if the file does not exist
+	 */
+	InputStream newInputStream() throws FileNotFoundException {
+		synchronized (this) {
+			if (closed && !failed) {
+				return new FileInputStream(file);
+			}
+		}
+		return new FollowingInputStream(new FileInputStream(file));
+	}
+
+	private synchronized long getVersion() throws IOException {
+		if (failed) {
+			throw new IOException("Volume was not completed.");
+		}
+		return closed?-1:version;
+	}
+
+	/**
+	 * Waits for content to be written.
+	 * @param seen the version seen before reading
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private synchronized void await(long seen) throws InterruptedException {
+		while (!closed && version==seen) {
+			wait();
+		}
+	}
+
+	private class FollowingInputStream extends InputStream {
+		private final InputStream is;
+
+		private FollowingInputStream(InputStream is) {
+			this.is = is;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1)<0?-1:b[0]&0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len==0) {
+				return 0;
+			}
+			while (true) {
+				long seen = getVersion();
+				int ret = is.read(b, off, len);
+				if (ret>0 || seen<0) {
+					// the volume was closed before reading, so this is the end of the file
+					return ret;
+				}
+				try {
+					await(seen);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException(e);
+				}
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			is.close();
+		}
+	}
+}
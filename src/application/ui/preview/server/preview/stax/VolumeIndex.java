@@ -0,0 +1,189 @@
+package application.ui.preview.server.preview.stax;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.daisy.dotify.studio.api.DocumentPosition;
+
+/**
+ * <p>Provides an index of the volumes in a PEF-file. For each volume, the index
+ * contains the byte range of the volume element, its position in the file
+ * and the page number of the first page in the volume. This makes it possible to
+ * render the volumes independently of each other.</p>
+ *
+ * <p>Each volume is read as a small, well-formed document containing the volume
+ * element only. The fragment is laid out so that line and column numbers in the
+ * fragment can be translated to line and column numbers in the file by adding
+ * {@link Volume#getLineOffset()} to the line number.</p>
+ *
+ * <p>The volume index is part of a {@link PefPageIndex}.</p>
+ */
+final class VolumeIndex {
+	static final String FRAGMENT_ROOT = "fragment";
+	private final File file;
+	private final Charset charset;
+	private final List<Volume> volumes;
+
+	/**
+	 * Provides information about a volume.
+	 */
+	static final class Volume {
+		private final int number;
+		private final long start;
+		private final long end;
+		private final int line;
+		private final int firstPage;
+		private final DocumentPosition endPosition;
+		private final byte[] header;
+
+		Volume(int number, long start, long end, int line, int firstPage, DocumentPosition endPosition, byte[] header) {
+			this.number = number;
+			this.start = start;
+			this.end = end;
+			this.line = line;
+			this.firstPage = firstPage;
+			this.endPosition = endPosition;
+			this.header = header;
+		}
+
+		/**
+		 * Gets the volume number, starting with 1.
+		 * @return the volume number
+		 */
+		int getNumber() {
+			return number;
+		}
+
+		/**
+		 * Gets the page number of the first page in this volume, as counted
+		 * by the preview.
+		 * @return the page number
+		 */
+		int getFirstPage() {
+			return firstPage;
+		}
+
+		/**
+		 * Gets the position immediately following the end of the volume.
+		 * @return the position
+		 */
+		DocumentPosition getEndPosition() {
+			return endPosition;
+		}
+
+		/**
+		 * Gets the number to add to line numbers in the volume fragment in order to
+		 * get the line number in the file.
+		 * @return the line offset
+		 */
+		int getLineOffset() {
+			// the volume element starts on the second line of the fragment
+			return line - 2;
+		}
+
+		long getLength() {
+			return end - start;
+		}
+	}
+
+	VolumeIndex(File file, Charset charset, List<Volume> volumes) {
+		this.file = file;
+		this.charset = charset;
+		this.volumes = Collections.unmodifiableList(volumes);
+	}
+
+	/**
+	 * Scans the file and creates a new index.
+	 * @param file the PEF-file
+	 * @return the index, or an empty optional if the file could not be indexed
+	 */
+	static Optional<VolumeIndex> scan(File file) {
+		return PefPageIndex.scan(file).map(PefPageIndex::getVolumeIndex);
+	}
+
+	/**
+	 * Gets the volumes.
+	 * @return the volumes
+	 */
+	List<Volume> getVolumes() {
+		return volumes;
+	}
+
+	/**
+	 * Gets the end position of each volume.
+	 * @return the end positions
+	 */
+	List<DocumentPosition> getVolumeEndPositions() {
+		return volumes.stream().map(Volume::getEndPosition).collect(Collectors.toList());
+	}
+
+	/**
+	 * Opens a new input stream containing the specified volume as a stand-alone document.
+	 * @param v the volume
+	 * @return a new input stream
+	 * @throws IOException if the file could not be opened
+	 */
+	InputStream newInputStream(Volume v) throws IOException {
+		@SuppressWarnings("resource")
+		FileChannel fc = new FileInputStream(file).getChannel();
+		fc.position(v.start);
+		InputStream body = new BoundedInputStream(Channels.newInputStream(fc), v.getLength());
+		byte[] footer = ("</" + FRAGMENT_ROOT + ">").getBytes(charset);
+		return new SequenceInputStream(
+				Collections.enumeration(Arrays.asList(
+						new ByteArrayInputStream(v.header),
+						body,
+						new ByteArrayInputStream(footer))));
+	}
+
+	private static class BoundedInputStream extends InputStream {
+		private final InputStream is;
+		private long remaining;
+
+		private BoundedInputStream(InputStream is, long length) {
+			this.is = is;
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining<=0) {
+				return -1;
+			}
+			int ret = is.read();
+			if (ret>-1) {
+				remaining--;
+			}
+			return ret;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining<=0) {
+				return -1;
+			}
+			int ret = is.read(b, off, (int)Math.min(len, remaining));
+			if (ret>-1) {
+				remaining -= ret;
+			}
+			return ret;
+		}
+
+		@Override
+		public void close() throws IOException {
+			is.close();
+		}
+	}
+}
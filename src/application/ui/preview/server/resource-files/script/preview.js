@@ -1,5 +1,3 @@
- view1 = null;
-		view2 = null;
       onload=function() {
 			ping();
 			if (document.getElementsByClassName == undefined) {
@@ -50,6 +48,12 @@
 			shortcut.add("ctrl+i", function() {
 				toggleById('about');
 			});
+			addBookArgs(document);
+			loadNavigation();
+			initVirtualPages();
+			window.onscroll = updateViews;
+			window.onresize = updateViews;
+			updateTextViews();
 		}
 		  visible = true;
 		  function toggleVisibility() {
@@ -107,17 +111,16 @@
 			}
 		}
 		
+		function isBrailleView() {
+			return /(?:^|\s)braille-view(?:$|\s)/.test(document.body.className);
+		}
+		
 		function toggleViews() {
-			
-			if (view1 == null | view2 == null) {
-				view1 = document.getElementsByClassName('page');
-				setAll(view1, 'visible');
-				view2 = document.getElementsByClassName('text');
-				setAll(view2, 'hidden');
-
+			if (isBrailleView()) {
+				document.body.className = document.body.className.replace(/\s*braille-view/, '');
+				updateTextViews();
 			} else {
-				toggleAll(view1);
-				toggleAll(view2);
+				document.body.className += ' braille-view';
 			}
 			return false;
 		}		
@@ -148,7 +151,7 @@ function get(url) {
 	if (xmlHttp==null) {
   		return;
   	} 
-  	url=url+"?sid="+Math.random();
+  	url=url+"?sid="+Math.random()+bookArg;
   	try {
 		xmlHttp.open("GET",url,true);
 		xmlHttp.onreadystatechange=function() {
@@ -182,4 +185,407 @@ function GetXmlHttpObject() {
 }
 function ping() {
 	get("ping.xml");
-}
\ No newline at end of file
+}
+
+// When the server hosts several books, the book argument of the preview is added to
+// the requests and links to other content of the book
+var bookArg = (function() {
+	var m = /[?&](book=[^&#]*)/.exec(location.search);
+	return m ? '&' + m[1] : '';
+})();
+
+function withBookArg(url) {
+	if (bookArg == '' || /[?&]book=/.test(url)) {
+		return url;
+	}
+	var hash = url.indexOf('#');
+	var base = hash > -1 ? url.substring(0, hash) : url;
+	var rest = hash > -1 ? url.substring(hash) : '';
+	return base + (base.indexOf('?') > -1 ? '&' : '?') + bookArg.substring(1) + rest;
+}
+
+function addBookArgs(root) {
+	if (bookArg == '') {
+		return;
+	}
+	var links = root.getElementsByTagName('a');
+	for (var i = 0; i < links.length; i++) {
+		var href = links[i].getAttribute('href');
+		if (href != null && /^(view|index)\.html/.test(href)) {
+			links[i].setAttribute('href', withBookArg(href));
+		}
+	}
+	var options = root.getElementsByTagName('option');
+	for (var i = 0; i < options.length; i++) {
+		if (/^view\.html/.test(options[i].value)) {
+			options[i].value = withBookArg(options[i].value);
+		}
+	}
+}
+
+// Loads the parts of the navigation that are shared by all volumes, unless they are
+// included in the preview
+function loadNavigation() {
+	var placeholder = document.getElementById('about-book');
+	var xmlHttp = GetXmlHttpObject();
+	if (placeholder == null || xmlHttp == null) {
+		return;
+	}
+	xmlHttp.open("GET", "navigation.html?sid=" + Math.random() + bookArg, true);
+	xmlHttp.onreadystatechange = function() {
+		if (xmlHttp.readyState != 4 || xmlHttp.status != 200) {
+			return;
+		}
+		var fragment = document.createElement('div');
+		fragment.innerHTML = xmlHttp.responseText;
+		var options = fragment.querySelector('#volume-options');
+		var about = fragment.querySelector('#about-book');
+		if (options == null || about == null) {
+			return;
+		}
+		var select = document.getElementById('volume-select');
+		var selected = select.value;
+		while (select.firstChild) {
+			select.removeChild(select.firstChild);
+		}
+		while (options.options.length > 0) {
+			select.appendChild(options.options[0]);
+		}
+		select.value = selected;
+		if (typeof jQuery != 'undefined') {
+			jQuery(select).trigger('chosen:updated');
+		}
+		addBookArgs(fragment);
+		while (about.firstChild) {
+			placeholder.parentNode.insertBefore(about.firstChild, placeholder);
+		}
+		placeholder.parentNode.removeChild(placeholder);
+	};
+	xmlHttp.send(null);
+}
+
+// When the preview contains a text table, the text view of a page is created from the
+// braille view when the page is shown. Digits following a number sign are translated
+// into 0-9, in the same way as in TextTable.java
+var NUMBER_SIGN = 0x3c;
+var DIGITS = [0x1a, 0x01, 0x03, 0x09, 0x19, 0x11, 0x0b, 0x1b, 0x13, 0x0a];
+var NUMBER_IGNORABLE = [0x04, 0x02];
+
+// Creates text views while the preview is loading
+var loadingTimer = setInterval(function() {
+	if (document.readyState != 'loading') {
+		clearInterval(loadingTimer);
+	}
+	updateTextViews();
+}, 250);
+
+function translateBraille(s) {
+	var ret = '';
+	var inNumber = false;
+	for (var i = 0; i < s.length; i++) {
+		var p = s.charCodeAt(i) - 0x2800;
+		if (p >= 0 && p < 256) {
+			var d = inNumber ? DIGITS.indexOf(p) : -1;
+			if (d >= 0) {
+				ret += d;
+			} else {
+				if (!inNumber || NUMBER_IGNORABLE.indexOf(p) < 0) {
+					inNumber = false;
+				}
+				ret += textTable.charAt(p);
+			}
+			if (p == NUMBER_SIGN) {
+				inNumber = true;
+			}
+		} else {
+			inNumber = false;
+			ret += s.charAt(i);
+		}
+	}
+	return ret;
+}
+
+function createTextView(page) {
+	var text = page.cloneNode(true);
+	text.className = 'text';
+	var cells = text.getElementsByTagName('td');
+	for (var i = 0; i < cells.length; i++) {
+		var cell = cells[i];
+		var s = cell.textContent;
+		if (s == '\u00a0') {
+			// empty lines
+			var cl = cell.className.replace('braille', '').replace(/^\s+|\s+$/g, '');
+			if (cl == '') {
+				cell.removeAttribute('class');
+			} else {
+				cell.className = cl;
+			}
+		} else {
+			cell.className = cell.className.replace('braille', 'text');
+			// blank patterns at the end of the row are padding, unless the length of the row is given
+			var end = s.length;
+			if (cell.hasAttribute('data-length')) {
+				end = 1 * cell.getAttribute('data-length');
+				cell.removeAttribute('data-length');
+			} else {
+				while (end > 0 && s.charAt(end - 1) == '\u2800') {
+					end--;
+				}
+			}
+			var t = translateBraille(s.substring(0, end));
+			for (var j = end; j < s.length; j++) {
+				t += '\u00a0';
+			}
+			cell.textContent = t;
+		}
+	}
+	page.parentNode.insertBefore(text, page.nextSibling);
+	page.textView = text;
+}
+
+function updateTextViews() {
+	if (typeof textTable == 'undefined' || document.body == null || isBrailleView()) {
+		return;
+	}
+	var pages = document.getElementsByClassName('page');
+	var h = window.innerHeight;
+	// pages are in document order, find the first one near the window
+	var lo = 0;
+	var hi = pages.length;
+	while (lo < hi) {
+		var mid = (lo + hi) >> 1;
+		if (pages[mid].getBoundingClientRect().bottom < -h) {
+			lo = mid + 1;
+		} else {
+			hi = mid;
+		}
+	}
+	for (var i = lo; i < pages.length; i++) {
+		if (pages[i].getBoundingClientRect().top > 2 * h) {
+			break;
+		}
+		if (!pages[i].textView) {
+			createTextView(pages[i]);
+		}
+	}
+}
+
+function updateViews() {
+	updateVirtualPages();
+	updateTextViews();
+}
+
+// When the preview contains placeholders instead of pages, only the pages near the
+// window are loaded, using pages.json. Pages far from the window are replaced by their
+// placeholders again, which keeps the size of the document independent of the size
+// of the volume. See StaxPreviewParser.renderShell
+var VIRTUAL_MARGIN = 2; // in window heights
+var VIRTUAL_BATCH = 8;
+var virtualVolume = null;
+var virtualPages = null;
+var virtualIndex = {};
+var virtualMounted = [];
+var virtualSizes = {};
+var virtualRules = {};
+var virtualStyle = null;
+
+function initVirtualPages() {
+	var volumes = document.getElementsByClassName('volume');
+	if (volumes.length == 0 || !volumes[0].hasAttribute('data-volume')) {
+		return;
+	}
+	virtualVolume = volumes[0].getAttribute('data-volume');
+	virtualPages = [];
+	var placeholders = document.getElementsByClassName('placeholder');
+	for (var i = 0; i < placeholders.length; i++) {
+		var p = placeholders[i];
+		var number = 1 * p.getAttribute('data-page');
+		virtualIndex[number] = virtualPages.length;
+		// state: 0 = placeholder, 1 = loading, 2 = mounted
+		virtualPages.push({number: number, size: p.getAttribute('data-size'), placeholder: p, node: p, state: 0});
+	}
+	if (virtualPages.length == 0) {
+		return;
+	}
+	// Load the pages at the target of the url first, then use their size for the placeholders
+	var target = location.hash.length > 1 ? document.getElementById(location.hash.substring(1)) : null;
+	var first = 0;
+	if (target != null) {
+		for (var i = 0; i < virtualPages.length; i++) {
+			if (virtualPages[i].node == target || virtualPages[i].node.contains(target)
+					|| target.contains(virtualPages[i].node)) {
+				first = i;
+				break;
+			}
+		}
+	}
+	loadPages(first, Math.min(first + VIRTUAL_BATCH, virtualPages.length) - 1, function() {
+		if (target != null) {
+			// the target may have been replaced by the page
+			target = document.getElementById(location.hash.substring(1));
+			if (target != null) {
+				target.scrollIntoView();
+			}
+		}
+		updateViews();
+	});
+}
+
+function updateVirtualPages() {
+	if (virtualPages == null) {
+		return;
+	}
+	var h = window.innerHeight;
+	// pages are in document order, find the first one near the window
+	var lo = 0;
+	var hi = virtualPages.length;
+	while (lo < hi) {
+		var mid = (lo + hi) >> 1;
+		if (virtualPages[mid].node.getBoundingClientRect().bottom < -VIRTUAL_MARGIN * h) {
+			lo = mid + 1;
+		} else {
+			hi = mid;
+		}
+	}
+	var from = -1;
+	var to = -1;
+	var end = lo;
+	for (; end < virtualPages.length; end++) {
+		if (virtualPages[end].node.getBoundingClientRect().top > (1 + VIRTUAL_MARGIN) * h) {
+			break;
+		}
+		if (virtualPages[end].state == 0) {
+			if (from < 0) {
+				from = end;
+			}
+			to = end;
+		}
+	}
+	if (from >= 0) {
+		loadPages(from, to, updateViews);
+	}
+	// replace the pages far from the window with their placeholders
+	var keep = [];
+	for (var i = 0; i < virtualMounted.length; i++) {
+		var j = virtualMounted[i];
+		if (j < lo - VIRTUAL_BATCH || j >= end + VIRTUAL_BATCH) {
+			unmountPage(virtualPages[j]);
+		} else {
+			keep.push(j);
+		}
+	}
+	virtualMounted = keep;
+}
+
+function loadPages(from, to, callback) {
+	var xmlHttp = GetXmlHttpObject();
+	if (xmlHttp == null) {
+		return;
+	}
+	for (var i = from; i <= to; i++) {
+		if (virtualPages[i].state == 0) {
+			virtualPages[i].state = 1;
+		}
+	}
+	xmlHttp.open("GET", "pages.json?volume=" + virtualVolume + "&pages=" + virtualPages[from].number + "-" + virtualPages[to].number + "&sid=" + Math.random() + bookArg, true);
+	xmlHttp.onreadystatechange = function() {
+		if (xmlHttp.readyState != 4) {
+			return;
+		}
+		var pages = [];
+		if (xmlHttp.status == 200) {
+			try {
+				pages = JSON.parse(xmlHttp.responseText).pages;
+			} catch (e) {}
+		}
+		for (var i = 0; i < pages.length; i++) {
+			var j = virtualIndex[pages[i].number];
+			if (j != undefined && virtualPages[j].state == 1) {
+				mountPage(virtualPages[j], pages[i].html);
+				virtualMounted.push(j);
+			}
+		}
+		// pages that couldn't be loaded are requested again the next time they are shown
+		for (var i = from; i <= to; i++) {
+			if (virtualPages[i].state == 1) {
+				virtualPages[i].state = 0;
+			}
+		}
+		updatePlaceholderSizes();
+		callback();
+	};
+	xmlHttp.send(null);
+}
+
+function mountPage(p, html) {
+	var tmp = document.createElement('div');
+	tmp.innerHTML = html;
+	// the row heights are set by style rules, keep them when the page is removed
+	var styles = tmp.getElementsByTagName('style');
+	while (styles.length > 0) {
+		addRules(styles[0].textContent);
+		styles[0].parentNode.removeChild(styles[0]);
+	}
+	var node = tmp.getElementsByClassName('cont')[0];
+	if (node == undefined) {
+		p.state = 0;
+		return;
+	}
+	p.placeholder.parentNode.replaceChild(node, p.placeholder);
+	p.node = node;
+	p.state = 2;
+	if (virtualSizes[p.size] == undefined) {
+		virtualSizes[p.size] = [node.offsetWidth, node.offsetHeight];
+	}
+}
+
+function unmountPage(p) {
+	if (p.state != 2) {
+		return;
+	}
+	// keep the size of the page, it may differ from other pages with the same size attribute
+	setPlaceholderSize(p.placeholder, [p.node.offsetWidth, p.node.offsetHeight]);
+	p.placeholder.sized = true;
+	p.node.parentNode.replaceChild(p.placeholder, p.node);
+	p.node = p.placeholder;
+	p.state = 0;
+}
+
+function updatePlaceholderSizes() {
+	var fallback = null;
+	for (var key in virtualSizes) {
+		fallback = virtualSizes[key];
+		break;
+	}
+	if (fallback == null) {
+		return;
+	}
+	for (var i = 0; i < virtualPages.length; i++) {
+		var p = virtualPages[i];
+		if (!p.placeholder.sized) {
+			var size = virtualSizes[p.size];
+			setPlaceholderSize(p.placeholder, size != undefined ? size : fallback);
+			p.placeholder.sized = size != undefined;
+		}
+	}
+}
+
+function setPlaceholderSize(placeholder, size) {
+	placeholder.style.width = size[0] + 'px';
+	placeholder.style.height = size[1] + 'px';
+}
+
+function addRules(text) {
+	if (virtualStyle == null) {
+		virtualStyle = document.createElement('style');
+		virtualStyle.setAttribute('type', 'text/css');
+		document.getElementsByTagName('head')[0].appendChild(virtualStyle);
+	}
+	var rules = text.split('\n');
+	for (var i = 0; i < rules.length; i++) {
+		if (rules[i] != '' && !virtualRules[rules[i]]) {
+			virtualRules[rules[i]] = true;
+			virtualStyle.appendChild(document.createTextNode(rules[i] + '\n'));
+		}
+	}
+}
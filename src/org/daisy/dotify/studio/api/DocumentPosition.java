@@ -18,6 +18,56 @@ public final class DocumentPosition implements Comparable<DocumentPosition> {
 	public static DocumentPosition with(Location l) {
 		return DocumentPosition.with(l.getLineNumber(), l.getColumnNumber());
 	}
+
+	/**
+	 * Creates a new position from a packed position.
+	 * @param packed the packed position
+	 * @return a new position
+	 * @see #pack(int, int)
+	 */
+	public static DocumentPosition fromLong(long packed) {
+		return new DocumentPosition(unpackLine(packed), unpackColumn(packed));
+	}
+
+	/**
+	 * Packs a line and column into a long. Packed positions have the same
+	 * order as the positions they represent, which allows them to be compared,
+	 * sorted and searched without allocating any objects.
+	 * @param line the line number
+	 * @param column the column number
+	 * @return the packed position
+	 */
+	public static long pack(int line, int column) {
+		// the column is offset to keep negative columns before positive ones
+		return ((long)line<<32) | ((column ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Gets the line number of a packed position.
+	 * @param packed the packed position
+	 * @return the line number
+	 */
+	public static int unpackLine(long packed) {
+		return (int)(packed>>32);
+	}
+
+	/**
+	 * Gets the column number of a packed position.
+	 * @param packed the packed position
+	 * @return the column number
+	 */
+	public static int unpackColumn(long packed) {
+		return (int)packed ^ Integer.MIN_VALUE;
+	}
+
+	/**
+	 * Gets this position as a packed long.
+	 * @return the packed position
+	 * @see #pack(int, int)
+	 */
+	public long toLong() {
+		return pack(line, column);
+	}
 	
 	public boolean isBefore(DocumentPosition other) {
 		return getLineNumber()<other.getLineNumber() || getLineNumber()==other.getLineNumber() && getColumnNumber()<other.getColumnNumber();
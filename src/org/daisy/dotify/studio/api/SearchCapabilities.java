@@ -15,6 +15,8 @@ public final class SearchCapabilities {
 	private final boolean direction;
 	private final boolean find;
 	private final boolean replace;
+	private final boolean regex;
+	private final boolean wholeWords;
 
 	/**
 	 * Provides a builder for search capabilities.
@@ -25,6 +27,8 @@ public final class SearchCapabilities {
 		private boolean direction = false;
 		private boolean find = false;
 		private boolean replace = false;
+		private boolean regex = false;
+		private boolean wholeWords = false;
 
 		/**
 		 * Creates a new empty builder.
@@ -86,6 +90,28 @@ public final class SearchCapabilities {
 			this.replace = value;
 			return this;
 		}
+
+		/**
+		 * Sets the regular expression capability of this builder. When true, the
+		 * implementation can find text matching a regular expression.
+		 * @param value the value
+		 * @return this builder
+		 */
+		public Builder regex(boolean value) {
+			this.regex = value;
+			return this;
+		}
+
+		/**
+		 * Sets the whole words capability of this builder. When true, the
+		 * implementation can find whole words only.
+		 * @param value the value
+		 * @return this builder
+		 */
+		public Builder wholeWords(boolean value) {
+			this.wholeWords = value;
+			return this;
+		}
 		
 		/**
 		 * Creates a new instance using the current state of the builder.
@@ -102,6 +128,8 @@ public final class SearchCapabilities {
 		this.direction = builder.direction;
 		this.find = builder.find;
 		this.replace = builder.replace;
+		this.regex = builder.regex;
+		this.wholeWords = builder.wholeWords;
 	}
 
 	/**
@@ -144,4 +172,20 @@ public final class SearchCapabilities {
 		return replace;
 	}
 
+	/**
+	 * Returns true if the find text can be a regular expression, false otherwise.
+	 * @return true if regular expressions are supported, false otherwise
+	 */
+	public boolean supportsRegex() {
+		return regex;
+	}
+
+	/**
+	 * Returns true if the whole words property can be configured, false otherwise.
+	 * @return true if the whole words property can be configured, false otherwise
+	 */
+	public boolean supportsWholeWords() {
+		return wholeWords;
+	}
+
 }
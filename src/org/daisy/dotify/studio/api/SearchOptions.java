@@ -12,6 +12,8 @@ public final class SearchOptions {
 	private final boolean wrapAround;
 	private final boolean matchCase;
 	private final boolean reverse;
+	private final boolean regex;
+	private final boolean wholeWords;
 
 	/**
 	 * Creates a builder for search options.
@@ -20,6 +22,8 @@ public final class SearchOptions {
 		private boolean wrapAround = true;
 		private boolean matchCase = false;
 		private boolean reverse = false;
+		private boolean regex = false;
+		private boolean wholeWords = false;
 
 		/**
 		 * Creates a new empty builder.
@@ -60,6 +64,28 @@ public final class SearchOptions {
 			return this;
 		}
 
+		/**
+		 * Sets the regular expression option. When true, the search text is a
+		 * regular expression, as defined by {@link java.util.regex.Pattern}.
+		 * @param value the value
+		 * @return this builder
+		 */
+		public Builder regex(boolean value) {
+			this.regex = value;
+			return this;
+		}
+
+		/**
+		 * Sets the whole words option. When true, only matches that neither start nor
+		 * end inside a word will be found.
+		 * @param value the value
+		 * @return this builder
+		 */
+		public Builder wholeWords(boolean value) {
+			this.wholeWords = value;
+			return this;
+		}
+
 		/**
 		 * Creates a new {@link SearchOptions} instance.
 		 * @return a new instance
@@ -73,6 +99,8 @@ public final class SearchOptions {
 		this.wrapAround = builder.wrapAround;
 		this.matchCase = builder.matchCase;
 		this.reverse = builder.reverse;
+		this.regex = builder.regex;
+		this.wholeWords = builder.wholeWords;
 	}
 
 	/**
@@ -98,4 +126,20 @@ public final class SearchOptions {
 	public boolean shouldReverseSearch() {
 		return reverse;
 	}
+
+	/**
+	 * Returns true if the search text is a regular expression, false otherwise.
+	 * @return true if the search text is a regular expression, false otherwise
+	 */
+	public boolean shouldUseRegex() {
+		return regex;
+	}
+
+	/**
+	 * Returns true if only whole words should be found, false otherwise.
+	 * @return true if only whole words should be found, false otherwise
+	 */
+	public boolean shouldMatchWholeWords() {
+		return wholeWords;
+	}
 }
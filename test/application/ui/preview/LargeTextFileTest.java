@@ -0,0 +1,90 @@
+package application.ui.preview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class LargeTextFileTest {
+
+	@Test
+	public void testGetLines() throws IOException {
+		StringBuilder sb = new StringBuilder("\uFEFF");
+		for (int i=0; i<200; i++) {
+			sb.append("line ").append(i).append(" åäö\n");
+		}
+		sb.append("last");
+		File f = File.createTempFile("LargeTextFileTest", ".tmp");
+		try {
+			Files.write(f.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+			try (LargeTextFile lf = LargeTextFile.open(f, StandardCharsets.UTF_8, 3)) {
+				assertEquals(1, lf.getLineCount());
+				assertFalse(lf.isIndexed());
+				lf.index(v->{});
+				assertTrue(lf.isIndexed());
+				assertEquals(201, lf.getLineCount());
+				assertEquals("line 0 åäö", lf.getLines(0, 1));
+				assertEquals("line 63 åäö\nline 64 åäö\nline 65 åäö", lf.getLines(63, 3));
+				assertEquals("line 199 åäö\nlast", lf.getLines(199, 10));
+			}
+		} finally {
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testEmptyLastLine() throws IOException {
+		File f = File.createTempFile("LargeTextFileTest", ".tmp");
+		try {
+			Files.write(f.toPath(), "a\nb\n".getBytes(StandardCharsets.UTF_8));
+			try (LargeTextFile lf = LargeTextFile.open(f, StandardCharsets.UTF_8, 0)) {
+				lf.index(v->{});
+				assertEquals(3, lf.getLineCount());
+				assertEquals("b\n", lf.getLines(1, 2));
+				assertEquals("", lf.getLines(2, 1));
+			}
+		} finally {
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testModifiedAndClosed() throws IOException {
+		File f = File.createTempFile("LargeTextFileTest", ".tmp");
+		try {
+			Files.write(f.toPath(), "a\nb\nc".getBytes(StandardCharsets.UTF_8));
+			LargeTextFile lf = LargeTextFile.open(f, StandardCharsets.UTF_8, 0);
+			lf.index(v->{});
+			assertEquals("a\nb", lf.getLines(0, 2));
+			// truncated by another application
+			Files.write(f.toPath(), "a".getBytes(StandardCharsets.UTF_8));
+			assertEquals("a", lf.getLines(0, 2));
+			assertEquals("", lf.getLines(2, 1));
+			lf.close();
+			try {
+				lf.getLines(0, 1);
+				fail();
+			} catch (IOException e) {
+				// expected
+			}
+		} finally {
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testSupportsCharset() {
+		assertTrue(LargeTextFile.supportsCharset(StandardCharsets.UTF_8));
+		assertTrue(LargeTextFile.supportsCharset(StandardCharsets.ISO_8859_1));
+		assertFalse(LargeTextFile.supportsCharset(StandardCharsets.UTF_16));
+		assertFalse(LargeTextFile.supportsCharset(StandardCharsets.UTF_16LE));
+	}
+}
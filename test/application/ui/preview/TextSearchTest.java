@@ -0,0 +1,94 @@
+package application.ui.preview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CancellationException;
+import java.util.regex.Pattern;
+
+import org.daisy.dotify.studio.api.SearchOptions;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TextSearchTest {
+	private static final String TEXT = "<p>Ett två, ETT tre. Etta (ett)</p>";
+
+	@Test
+	public void testLiteral() {
+		TextSearch s = search("ett", new SearchOptions.Builder().build());
+		assertEquals(4, s.size());
+		assertEquals(3, s.getStart(0));
+		assertEquals(6, s.getEnd(0));
+		s = search("(ett)", new SearchOptions.Builder().matchCase(true).build());
+		assertEquals(1, s.size());
+		assertEquals(26, s.getStart(0));
+	}
+
+	@Test
+	public void testWholeWords() {
+		TextSearch s = search("ett", new SearchOptions.Builder().wholeWords(true).build());
+		assertEquals(3, s.size());
+		assertEquals(27, s.getStart(2));
+		s = search("(ett)", new SearchOptions.Builder().wholeWords(true).build());
+		assertEquals(1, s.size());
+	}
+
+	@Test
+	public void testRegex() {
+		TextSearch s = search("e\\w+", new SearchOptions.Builder().regex(true).matchCase(true).build());
+		assertEquals(1, s.size());
+		assertEquals(27, s.getStart(0));
+		s = search("T[VR]", new SearchOptions.Builder().regex(true).build());
+		assertEquals(2, s.size());
+		// Empty matches are ignored
+		s = search("x*", new SearchOptions.Builder().regex(true).build());
+		assertEquals(0, s.size());
+	}
+
+	@Test
+	public void testNextAndPrevious() {
+		TextSearch s = search("ett", new SearchOptions.Builder().build());
+		assertEquals(0, s.next(0, false));
+		assertEquals(0, s.next(3, false));
+		assertEquals(1, s.next(4, false));
+		assertEquals(-1, s.next(28, false));
+		assertEquals(0, s.next(28, true));
+		assertEquals(-1, s.previous(3, false));
+		assertEquals(3, s.previous(3, true));
+		assertEquals(0, s.previous(4, false));
+	}
+
+	@Test
+	public void testIsSearchOf() {
+		String text = new String(TEXT);
+		Pattern p = TextSearch.compile("ett", SearchOptions.DEFAULT);
+		TextSearch s = TextSearch.search(text, p);
+		assertTrue(s.isSearchOf(text, TextSearch.compile("ett", SearchOptions.DEFAULT)));
+		assertFalse(s.isSearchOf(new String(TEXT), p));
+		assertFalse(s.isSearchOf(text, TextSearch.compile("ett", new SearchOptions.Builder().matchCase(true).build())));
+	}
+
+	@Test
+	public void testInterrupted() {
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<100000; i++) {
+			sb.append("aaaaaaaaaa ");
+		}
+		Pattern p = TextSearch.compile("b", SearchOptions.DEFAULT);
+		Thread.currentThread().interrupt();
+		try {
+			TextSearch.search(sb.toString(), p);
+			fail();
+		} catch (CancellationException e) {
+			// expected
+		} finally {
+			Thread.interrupted();
+		}
+	}
+
+	private static TextSearch search(String text, SearchOptions opts) {
+		return TextSearch.search(TEXT, TextSearch.compile(text, opts));
+	}
+}
@@ -0,0 +1,83 @@
+package application.ui.preview;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.fxmisc.richtext.model.StyleSpan;
+import org.fxmisc.richtext.model.StyleSpans;
+import org.fxmisc.richtext.model.StyleSpansBuilder;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class XMLStyleHelperTest {
+
+	@Test
+	public void testSameAsFullDocument() {
+		String text = "<?xml version=\"1.0\"?>\n"
+				+ "<dtbook xmlns=\"http://www.daisy.org/z3986/2005/dtbook/\" version=\"2005-3\">\n"
+				+ "<!-- a comment -->\n"
+				+ "<p id=\"p1\">Text &amp; more &#160;text</p>\n"
+				+ "</dtbook>";
+		assertEquals(toList(RegexXMLStyleHelper.computeHighlighting(text)), toList(highlightLines(text)));
+		assertEquals(toList(RegexXMLStyleHelper.computeHighlighting(text)), toList(XMLStyleHelper.computeHighlighting(text)));
+	}
+
+	@Test
+	public void testMultilineComment() {
+		List<String> styles = toList(highlightLines("<!-- a\nb -->c"));
+		assertEquals("comment", styles.get(8));
+		assertEquals("comment", styles.get(11));
+		assertEquals("", styles.get(12));
+	}
+
+	@Test
+	public void testMultilineTag() {
+		List<String> styles = toList(highlightLines("<p\nid=\"x\ny\">z"));
+		assertEquals("attribute", styles.get(3));
+		assertEquals("tagmark", styles.get(5));
+		assertEquals("avalue", styles.get(9));
+		assertEquals("tagmark", styles.get(11));
+		assertEquals("", styles.get(12));
+	}
+
+	@Test
+	public void testStates() {
+		StyleSpansBuilder<Collection<String>> spans = new StyleSpansBuilder<>();
+		assertEquals(XMLStyleHelper.COMMENT, XMLStyleHelper.highlight("<p>a<!-- b", XMLStyleHelper.TEXT, spans));
+		assertEquals(XMLStyleHelper.TEXT, XMLStyleHelper.highlight("b --><p>", XMLStyleHelper.COMMENT, spans));
+		assertEquals(XMLStyleHelper.TAG, XMLStyleHelper.highlight("<p a='1'", XMLStyleHelper.TEXT, spans));
+		assertEquals(XMLStyleHelper.SINGLE_QUOTED_VALUE, XMLStyleHelper.highlight("a='", XMLStyleHelper.TAG, spans));
+		assertEquals(XMLStyleHelper.PI, XMLStyleHelper.highlight("<?pi", XMLStyleHelper.TEXT, spans));
+		assertEquals(XMLStyleHelper.CDATA, XMLStyleHelper.highlight("<![CDATA[<p>", XMLStyleHelper.TEXT, spans));
+		assertEquals(XMLStyleHelper.TEXT, XMLStyleHelper.highlight("a < b & c", XMLStyleHelper.TEXT, spans));
+	}
+
+	private static StyleSpans<Collection<String>> highlightLines(String text) {
+		StyleSpansBuilder<Collection<String>> spans = new StyleSpansBuilder<>();
+		int state = XMLStyleHelper.TEXT;
+		String[] lines = text.split("\n", -1);
+		for (int i=0; i<lines.length; i++) {
+			if (i>0) {
+				spans.add(Collections.emptyList(), 1);
+			}
+			state = XMLStyleHelper.highlight(lines[i], state, spans);
+		}
+		return spans.create();
+	}
+
+	// Returns the style of each character
+	private static List<String> toList(StyleSpans<Collection<String>> spans) {
+		List<String> ret = new ArrayList<>();
+		for (StyleSpan<Collection<String>> s : spans) {
+			String style = String.join(" ", s.getStyle());
+			for (int i=0; i<s.getLength(); i++) {
+				ret.add(style);
+			}
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,61 @@
+package application.ui.preview.server.preview.stax;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class ChangeDetectorTest {
+
+	@Test
+	public void testChanges() throws IOException {
+		File f = File.createTempFile("ChangeDetectorTest", ".tmp");
+		try {
+			write(f, "abc", 1000000);
+			AtomicInteger changes = new AtomicInteger();
+			ChangeDetector d = new ChangeDetector(f, PreviewExecutor.getInstance().newPriority(), changes::incrementAndGet);
+			assertTrue(d.hasChanged());
+			assertFalse(d.hasChanged());
+			d.pending().join();
+			// touched, but not changed
+			write(f, "abc", 2000000);
+			assertFalse(d.hasChanged());
+			d.pending().join();
+			assertEquals(0, changes.get());
+			assertFalse(d.hasChanged());
+			// same size, the change is found by the digest
+			write(f, "abd", 3000000);
+			assertFalse(d.hasChanged());
+			d.pending().join();
+			assertEquals(1, changes.get());
+			assertFalse(d.hasChanged());
+			write(f, "abcd", 4000000);
+			assertTrue(d.hasChanged());
+			assertEquals(1, changes.get());
+		} finally {
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testMissingFile() throws IOException {
+		File f = File.createTempFile("ChangeDetectorTest", ".tmp");
+		f.delete();
+		ChangeDetector d = new ChangeDetector(f, PreviewExecutor.getInstance().newPriority(), ()->{});
+		assertTrue(d.hasChanged());
+		assertFalse(d.hasChanged());
+	}
+
+	private static void write(File f, String contents, long lastModified) throws IOException {
+		Files.write(f.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+		f.setLastModified(lastModified);
+	}
+}
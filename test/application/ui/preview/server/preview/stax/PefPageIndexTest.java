@@ -0,0 +1,199 @@
+package application.ui.preview.server.preview.stax;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class PefPageIndexTest {
+	private File file;
+	private File dir;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("PefPageIndexTest", ".pef");
+		try (InputStream is = PefPageIndexTest.class.getResourceAsStream("resource-files/book.pef")) {
+			Files.copy(is, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		dir = Files.createTempDirectory("PefPageIndexTest").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+		File[] files = dir.listFiles();
+		if (files!=null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testIndex() throws IOException {
+		PefPageIndex index = PefPageIndex.scan(file).get();
+		assertEquals(2, index.getVolumeIndex().getVolumes().size());
+		assertEquals(8, index.getPageCount());
+		// page number, volume, section and layout of each page
+		assertEquals(
+				"1 1 1 4x10/0 d, 2 1 1 4x10/0 d, 3 1 1 4x10/0 d, 5 1 2 4x10/1 s, 7 1 2 4x10/4 s, "
+				+ "9 2 1 3x12/0 d, 11 2 2 3x8/0 d, 12 2 2 3x8/0 d",
+				pages(index));
+		assertEquals(3, index.indexOf(4));
+		assertEquals(5, index.firstPageInVolume(2));
+		assertEquals(11, index.getLineOffset(0));
+		String page = read(index.newPageInputStream(1));
+		assertTrue(page, page.contains("<row>⠋⠛⠓</row>"));
+		assertFalse(page, page.contains("⠁⠃⠉"));
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		byte[] digest = RenderFingerprint.digest(file);
+		String expected = describe(PefPageIndex.scan(file).get());
+		assertEquals(expected, describe(PefPageIndex.load(file, digest, dir).get()));
+		File[] sidecars = dir.listFiles();
+		assertEquals(1, sidecars.length);
+		assertEquals(expected, describe(PefPageIndex.read(file, digest, sidecars[0]).get()));
+		assertEquals(expected, describe(PefPageIndex.load(file, digest, dir).get()));
+	}
+
+	@Test
+	public void testFormat() throws IOException, NoSuchAlgorithmException {
+		PefPageIndex.load(file, RenderFingerprint.digest(file), dir);
+		File[] sidecars = dir.listFiles();
+		assertEquals(1, sidecars.length);
+		assertTrue(sidecars[0].getName().endsWith(".idx"));
+		// The sidecar starts with the format version and a digest of the contents of the file
+		byte[] expected = MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file.toPath()));
+		try (DataInputStream in = new DataInputStream(new FileInputStream(sidecars[0]))) {
+			assertEquals("3", in.readUTF());
+			byte[] digest = new byte[in.readInt()];
+			in.readFully(digest);
+			assertArrayEquals(expected, digest);
+			assertEquals("UTF-8", in.readUTF());
+			assertEquals(2, in.readInt());
+		}
+	}
+
+	@Test
+	public void testRewrittenFile() throws IOException {
+		PefPageIndex before = PefPageIndex.load(file, RenderFingerprint.digest(file), dir).get();
+		long lastModified = file.lastModified();
+		long length = file.length();
+		// Moves a character from the first page to the second, without changing the size of the file
+		String contents = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8)
+				.replace("<row>⠁⠃⠉</row>", "<row>⠁⠃</row>")
+				.replace("<row>⠋⠛⠓</row>", "<row>⠋⠛⠓⠉</row>");
+		Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+		file.setLastModified(lastModified);
+		assertEquals(length, file.length());
+
+		byte[] digest = RenderFingerprint.digest(file);
+		File sidecar = dir.listFiles()[0];
+		assertFalse(PefPageIndex.read(file, digest, sidecar).isPresent());
+		PefPageIndex after = PefPageIndex.load(file, digest, dir).get();
+		assertNotEquals(describe(before), describe(after));
+		assertEquals(describe(PefPageIndex.scan(file).get()), describe(after));
+		String page = read(after.newPageInputStream(1));
+		assertTrue(page, page.contains("<row>⠋⠛⠓⠉</row>"));
+		// The sidecar was replaced
+		assertEquals(1, dir.listFiles().length);
+		assertTrue(PefPageIndex.read(file, digest, sidecar).isPresent());
+	}
+
+	@Test
+	public void testCorruptSidecar() throws IOException {
+		byte[] digest = RenderFingerprint.digest(file);
+		PefPageIndex.load(file, digest, dir);
+		File sidecar = dir.listFiles()[0];
+		byte[] data = Files.readAllBytes(sidecar.toPath());
+		Files.write(sidecar.toPath(), Arrays.copyOf(data, data.length/2));
+		assertFalse(PefPageIndex.read(file, digest, sidecar).isPresent());
+		Optional<PefPageIndex> index = PefPageIndex.load(file, digest, dir);
+		assertEquals(describe(PefPageIndex.scan(file).get()), describe(index.get()));
+	}
+
+	@Test
+	public void testPrune() throws IOException {
+		long old = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(31);
+		File unused = new File(dir, "unused.idx");
+		File used = new File(dir, "used.idx");
+		File tmp = new File(dir, "unused.idx-1.tmp");
+		File other = new File(dir, "other.txt");
+		for (File f : new File[]{unused, used, tmp, other}) {
+			Files.write(f.toPath(), new byte[]{1});
+		}
+		unused.setLastModified(old);
+		tmp.setLastModified(old);
+		other.setLastModified(old);
+		PefPageIndex.prune(dir);
+		assertFalse(unused.exists());
+		assertFalse(tmp.exists());
+		assertTrue(used.exists());
+		assertTrue(other.exists());
+	}
+
+	private static String pages(PefPageIndex index) {
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<index.getPageCount(); i++) {
+			PefPageIndex.Layout l = index.getLayout(i);
+			sb.append(i>0?", ":"").append(index.getPageNumber(i)).append(' ').append(index.getVolume(i))
+				.append(' ').append(index.getSection(i)).append(' ')
+				.append(l.getRows()).append('x').append(l.getCols()).append('/').append(l.getRowgap())
+				.append(l.isDuplex()?" d":" s");
+		}
+		return sb.toString();
+	}
+
+	// Describes everything that the index provides, including the fragments that it reads
+	private static String describe(PefPageIndex index) throws IOException {
+		StringBuilder sb = new StringBuilder(pages(index)).append('\n');
+		VolumeIndex vi = index.getVolumeIndex();
+		for (VolumeIndex.Volume v : vi.getVolumes()) {
+			sb.append(v.getNumber()).append(' ').append(v.getFirstPage()).append(' ')
+				.append(v.getLineOffset()).append(' ').append(v.getLength()).append(' ')
+				.append(v.getEndPosition().getLineNumber()).append(':').append(v.getEndPosition().getColumnNumber()).append('\n')
+				.append(read(vi.newInputStream(v))).append('\n');
+		}
+		for (int i=0; i<index.getPageCount(); i++) {
+			sb.append(index.getLineOffset(i)).append(' ').append(index.isFirstInSection(i)).append('\n')
+				.append(read(index.newPageInputStream(i))).append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static String read(InputStream is) throws IOException {
+		try (InputStream in = is) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[4096];
+			int len;
+			while ((len = in.read(buf))>-1) {
+				out.write(buf, 0, len);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package application.ui.preview.server.preview.stax;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class PefScannerTest {
+
+	// Records the events as "start|end {namespace}name line:column offset-endOffset"
+	private static class Recorder implements PefScanner.Handler {
+		private final PefScanner scanner;
+		private final List<String> events = new ArrayList<>();
+		private final List<String> scopes = new ArrayList<>();
+		private final List<String> attributes = new ArrayList<>();
+
+		private Recorder(PefScanner scanner) {
+			this.scanner = scanner;
+		}
+
+		@Override
+		public void startElement(PefScanner.Element e) {
+			events.add(event("start", e));
+			StringBuilder sb = new StringBuilder();
+			for (String[] ns : scanner.getNamespacesInScope()) {
+				sb.append(ns[0]).append('=').append(ns[1]).append(' ');
+			}
+			scopes.add(sb.toString().trim());
+			attributes.add(e.getAttribute("a") + " " + e.getAttribute("b"));
+		}
+
+		@Override
+		public void endElement(PefScanner.Element e) {
+			events.add(event("end", e));
+		}
+
+		private static String event(String type, PefScanner.Element e) {
+			return type + " {" + e.getNamespace() + "}" + e.getLocalName() + " "
+					+ e.getLineNumber() + ":" + e.getColumnNumber() + " "
+					+ e.getOffset() + "-" + e.getEndOffset();
+		}
+	}
+
+	private static Recorder scan(byte[] input) throws IOException {
+		PefScanner scanner = new PefScanner(new ByteArrayInputStream(input));
+		Recorder r = new Recorder(scanner);
+		assertTrue(scanner.scan(r));
+		return r;
+	}
+
+	private static Recorder scan(String input) throws IOException {
+		return scan(input.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testNamespaces() throws IOException {
+		Recorder r = scan(
+				"<p:pef xmlns:p=\"http://www.daisy.org/ns/2008/pef\" xmlns=\"urn:a\">\n"
+				+ "<p:volume><meta><dc:title xmlns:dc=\"urn:dc\">T</dc:title></meta></p:volume>\n"
+				+ "<p:volume xmlns:p=\"urn:b\"/></p:pef>");
+		assertEquals(Arrays.asList(
+				"start {http://www.daisy.org/ns/2008/pef}pef 1:1 0-64",
+				"start {http://www.daisy.org/ns/2008/pef}volume 2:1 65-75",
+				"start {urn:a}meta 2:11 75-81",
+				"start {urn:dc}title 2:17 81-109",
+				"end {urn:dc}title 2:57 121-121",
+				"end {urn:a}meta 2:64 128-128",
+				"end {http://www.daisy.org/ns/2008/pef}volume 2:75 139-139",
+				"start {urn:b}volume 3:1 140-167",
+				"end {urn:b}volume 3:28 167-167",
+				"end {http://www.daisy.org/ns/2008/pef}pef 3:36 175-175"
+				), r.events);
+		// Declarations on the element itself aren't included
+		assertEquals(Arrays.asList(
+				"",
+				"p=http://www.daisy.org/ns/2008/pef =urn:a",
+				"p=http://www.daisy.org/ns/2008/pef =urn:a",
+				"p=http://www.daisy.org/ns/2008/pef =urn:a",
+				"p=http://www.daisy.org/ns/2008/pef =urn:a"
+				), r.scopes);
+	}
+
+	@Test
+	public void testSkippedMarkup() throws IOException {
+		Recorder r = scan(
+				"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<!DOCTYPE pef SYSTEM \"<a>\">\n"
+				+ "<pef><!-- <a> --><?pi <b>?><![CDATA[<c>]]>\n"
+				+ "<!----><d/></pef>");
+		assertEquals(Arrays.asList(
+				"start {}pef 3:1 67-72",
+				"start {}d 4:8 117-121",
+				"end {}d 4:12 121-121",
+				"end {}pef 4:18 127-127"
+				), r.events);
+	}
+
+	@Test
+	public void testAttributes() throws IOException {
+		Recorder r = scan("<x a=\"1>2\" b='/>'><y a = '\"' /></x>");
+		assertEquals(Arrays.asList(
+				"start {}x 1:1 0-18",
+				"start {}y 1:19 18-31",
+				"end {}y 1:32 31-31",
+				"end {}x 1:36 35-35"
+				), r.events);
+		assertEquals(Arrays.asList("1>2 />", "\" null"), r.attributes);
+	}
+
+	@Test
+	public void testLineEndings() throws IOException {
+		Recorder r = scan("<a>\r\n<b/>\r\r\n\n<c/>\n\r</a>");
+		assertEquals(Arrays.asList(
+				"start {}a 1:1 0-3",
+				"start {}b 2:1 5-9",
+				"end {}b 2:5 9-9",
+				"start {}c 5:1 13-17",
+				"end {}c 5:5 17-17",
+				"end {}a 7:5 23-23"
+				), r.events);
+	}
+
+	@Test
+	public void testByteOrderMark() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(new byte[]{(byte)0xEF, (byte)0xBB, (byte)0xBF});
+		out.write("<?xml version=\"1.0\"?><a/>".getBytes(StandardCharsets.UTF_8));
+		PefScanner scanner = new PefScanner(new ByteArrayInputStream(out.toByteArray()));
+		Recorder r = new Recorder(scanner);
+		assertTrue(scanner.scan(r));
+		assertEquals("UTF-8", scanner.getEncoding());
+		// Offsets include the byte order mark, columns don't
+		assertEquals(Arrays.asList(
+				"start {}a 1:22 24-28",
+				"end {}a 1:26 28-28"
+				), r.events);
+	}
+
+	@Test
+	public void testMultiByteCharacters() throws IOException {
+		// Columns are counted in characters, offsets in bytes
+		Recorder r = scan("<a>åäö⠁⠃<b t=\"é\"/>\n⠉<c/></a>");
+		assertEquals(Arrays.asList(
+				"start {}a 1:1 0-3",
+				"start {}b 1:9 15-26",
+				"end {}b 1:19 26-26",
+				"start {}c 2:2 30-34",
+				"end {}c 2:6 34-34",
+				"end {}a 2:10 38-38"
+				), r.events);
+	}
+
+	@Test
+	public void testSingleByteEncoding() throws IOException {
+		Recorder r = scan("<?xml version='1.0' encoding='ISO-8859-1'?>\n<a>å<b/></a>".getBytes(StandardCharsets.ISO_8859_1));
+		assertEquals(Arrays.asList(
+				"start {}a 2:1 44-47",
+				"start {}b 2:5 48-52",
+				"end {}b 2:9 52-52",
+				"end {}a 2:13 56-56"
+				), r.events);
+	}
+
+	@Test
+	public void testUnsupported() throws IOException {
+		PefScanner.Handler r = new Recorder(null);
+		assertFalse(new PefScanner(new ByteArrayInputStream("<a/>".getBytes(StandardCharsets.UTF_16))).scan(r));
+		assertFalse(new PefScanner(new ByteArrayInputStream("<?xml version='1.0' encoding='Shift_JIS'?><a/>".getBytes(StandardCharsets.US_ASCII))).scan(r));
+		assertFalse(new PefScanner(new ByteArrayInputStream("<!DOCTYPE a [<!ENTITY e 'x'>]><a/>".getBytes(StandardCharsets.US_ASCII))).scan(r));
+	}
+}
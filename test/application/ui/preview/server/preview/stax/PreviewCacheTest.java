@@ -0,0 +1,182 @@
+package application.ui.preview.server.preview.stax;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.daisy.dotify.studio.api.DocumentPosition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class PreviewCacheTest {
+	// The size of an entry with one volume: an eight byte volume and the positions file
+	private static final long ENTRY_SIZE = 8 + "1 9\n".length();
+	private File dir;
+	private List<File> files;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("PreviewCacheTest").toFile();
+		files = new ArrayList<>();
+	}
+
+	@After
+	public void tearDown() {
+		for (File f : files) {
+			f.delete();
+		}
+		delete(dir);
+	}
+
+	@Test
+	public void testPutAndGet() throws IOException {
+		PreviewCache cache = new PreviewCache(dir, 1000);
+		assertFalse(cache.get("a").isPresent());
+		cache.put("a", Arrays.asList(volume("volume1"), volume("volume2")),
+				Arrays.asList(DocumentPosition.with(10, 2), DocumentPosition.with(20, 3)));
+		PreviewCache.Entry e = get(cache, "a");
+		assertEquals(Arrays.asList("volume1", "volume2"), contents(e));
+		assertEquals(Arrays.asList(DocumentPosition.with(10, 2), DocumentPosition.with(20, 3)), e.getVolumeEndPositions());
+		// The entry hands out links, deleting them doesn't affect the cache
+		for (File f : e.getVolumes()) {
+			assertFalse(f.toPath().startsWith(dir.toPath()));
+			assertTrue(f.delete());
+		}
+		assertEquals(Arrays.asList("volume1", "volume2"), contents(get(cache, "a")));
+	}
+
+	@Test
+	public void testEvictWhileInUse() throws IOException {
+		PreviewCache cache = new PreviewCache(dir, ENTRY_SIZE);
+		cache.put("a", Arrays.asList(volume("volume-a")), Arrays.asList(DocumentPosition.with(1, 9)));
+		PreviewCache.Entry e = get(cache, "a");
+		// Another book replaces the entry while it is in use
+		cache.put("b", Arrays.asList(volume("volume-b")), Arrays.asList(DocumentPosition.with(1, 9)));
+		assertFalse(cache.get("a").isPresent());
+		assertEquals(Arrays.asList("volume-a"), contents(e));
+		assertEquals(Arrays.asList("volume-b"), contents(get(cache, "b")));
+	}
+
+	@Test
+	public void testEvictionOrder() throws IOException {
+		PreviewCache cache = new PreviewCache(dir, ENTRY_SIZE*2);
+		long now = System.currentTimeMillis();
+		cache.put("a", Arrays.asList(volume("volume-a")), Arrays.asList(DocumentPosition.with(1, 9)));
+		new File(dir, "a").setLastModified(now - 20000);
+		cache.put("b", Arrays.asList(volume("volume-b")), Arrays.asList(DocumentPosition.with(1, 9)));
+		new File(dir, "b").setLastModified(now - 10000);
+		// Using an entry makes it the most recently used one
+		get(cache, "a");
+		cache.put("c", Arrays.asList(volume("volume-c")), Arrays.asList(DocumentPosition.with(1, 9)));
+		assertTrue(cache.get("a").isPresent());
+		assertFalse(cache.get("b").isPresent());
+		assertTrue(cache.get("c").isPresent());
+	}
+
+	@Test
+	public void testIncompleteEntry() throws IOException {
+		PreviewCache cache = new PreviewCache(dir, 1000);
+		cache.put("a", Arrays.asList(volume("volume1"), volume("volume2")),
+				Arrays.asList(DocumentPosition.with(10, 2), DocumentPosition.with(20, 3)));
+		assertTrue(new File(new File(dir, "a"), "2.html").delete());
+		int links = links();
+		assertFalse(cache.get("a").isPresent());
+		// The link to the first volume was deleted
+		assertEquals(links, links());
+	}
+
+	@Test
+	public void testConcurrentUse() throws Exception {
+		PreviewCache cache = new PreviewCache(dir, ENTRY_SIZE*2);
+		List<File> volumes = new ArrayList<>();
+		for (int i=0; i<4; i++) {
+			volumes.add(volume("volume-" + i));
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> results = new ArrayList<>();
+			for (int i=0; i<4; i++) {
+				int t = i;
+				results.add(executor.submit(()->{
+					for (int j=0; j<100; j++) {
+						String key = t + "-" + j%3;
+						cache.put(key, Arrays.asList(volumes.get(t)), Arrays.asList(DocumentPosition.with(1, 9)));
+						Optional<PreviewCache.Entry> e = cache.get(key);
+						if (e.isPresent()) {
+							// An entry is either complete or missing, never partially removed
+							assertEquals(Arrays.asList("volume-" + t), contents(e.get()));
+							e.get().getVolumes().forEach(File::delete);
+						}
+					}
+					return null;
+				}));
+			}
+			for (Future<?> f : results) {
+				f.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertTrue(cacheSize() <= ENTRY_SIZE*2);
+	}
+
+	private File volume(String contents) throws IOException {
+		File f = File.createTempFile("PreviewCacheTest", ".html");
+		files.add(f);
+		Files.write(f.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+		return f;
+	}
+
+	private PreviewCache.Entry get(PreviewCache cache, String key) {
+		PreviewCache.Entry e = cache.get(key).get();
+		files.addAll(e.getVolumes());
+		return e;
+	}
+
+	private static List<String> contents(PreviewCache.Entry e) throws IOException {
+		List<String> ret = new ArrayList<>();
+		for (File f : e.getVolumes()) {
+			ret.add(new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8));
+		}
+		return ret;
+	}
+
+	private static int links() {
+		String[] links = new File(System.getProperty("java.io.tmpdir")).list((d, name)->name.startsWith("Preview") && name.endsWith(".tmp"));
+		return links==null?0:links.length;
+	}
+
+	private long cacheSize() {
+		long size = 0;
+		for (File entry : dir.listFiles()) {
+			for (File f : entry.listFiles()) {
+				size += f.length();
+			}
+		}
+		return size;
+	}
+
+	private static void delete(File f) {
+		File[] files = f.listFiles();
+		if (files!=null) {
+			for (File c : files) {
+				delete(c);
+			}
+		}
+		f.delete();
+	}
+}
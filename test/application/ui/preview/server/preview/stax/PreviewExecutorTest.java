@@ -0,0 +1,79 @@
+package application.ui.preview.server.preview.stax;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class PreviewExecutorTest {
+
+	@Test
+	public void testPriority() throws Exception {
+		PreviewExecutor exe = new PreviewExecutor(1);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch blocker = new CountDownLatch(1);
+		List<String> order = Collections.synchronizedList(new ArrayList<>());
+		PreviewExecutor.Priority p1 = exe.newPriority();
+		PreviewExecutor.Priority p2 = exe.newPriority();
+		PreviewExecutor.Group g1 = p1.newGroup();
+		PreviewExecutor.Group g2 = p2.newGroup();
+		// occupies the only worker while the other tasks are queued
+		g1.submit(()->{
+			started.countDown();
+			return blocker.await(5, TimeUnit.SECONDS);
+		});
+		started.await(5, TimeUnit.SECONDS);
+		g1.submit(()->order.add("a1"));
+		g2.submit(()->order.add("b1"));
+		g1.submit(()->order.add("a2"));
+		CompletableFuture<Boolean> last = g2.submit(()->order.add("b2"));
+		p1.raise();
+		blocker.countDown();
+		last.get(5, TimeUnit.SECONDS);
+		assertEquals(Arrays.asList("a1", "a2", "b1", "b2"), order);
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		PreviewExecutor exe = new PreviewExecutor(1);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch interrupted = new CountDownLatch(1);
+		PreviewExecutor.Group g = exe.newPriority().newGroup();
+		CompletableFuture<Void> running = g.submit(()->{
+			started.countDown();
+			try {
+				new CountDownLatch(1).await();
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+			}
+			return null;
+		});
+		CompletableFuture<Void> queued = g.submit(()->null);
+		started.await(5, TimeUnit.SECONDS);
+		g.cancel();
+		assertTrue(running.isCancelled());
+		assertTrue(queued.isCancelled());
+		assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+		assertTrue(g.submit(()->null).isCancelled());
+		// the worker is available to other groups
+		assertEquals("ok", exe.newPriority().newGroup().submit(()->"ok").get(5, TimeUnit.SECONDS));
+	}
+
+	@Test(expected=CancellationException.class)
+	public void testCancelledResult() throws Exception {
+		PreviewExecutor exe = new PreviewExecutor(1);
+		PreviewExecutor.Group g = exe.newPriority().newGroup();
+		g.cancel();
+		g.submit(()->"result").join();
+	}
+}
@@ -0,0 +1,235 @@
+package application.ui.preview.server.preview.stax;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.daisy.braille.utils.pef.PEFBook;
+import org.daisy.streamline.api.validity.ValidationReport;
+import org.daisy.streamline.api.validity.ValidatorMessage;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import application.common.FeatureSwitch;
+import application.common.Settings;
+import application.common.Settings.Keys;
+import application.l10n.Messages;
+
+/**
+ * Compares the preview with the output of the renderer before the preview was optimized,
+ * stored in resource-files/book-*.html. With the preview markup switches off, the output
+ * must be identical. The build runs this test once more with the switches off, see build.gradle.
+ */
+@SuppressWarnings("javadoc")
+public class StaxPreviewParserTest {
+	private static final String[] MODES = {"clean", "messages"};
+	private static final Pattern TEXT_CELL = Pattern.compile("(<td class=\"text[^\"]*\"[^>]*>)([^<&]*)((?:&nbsp;)*</td>)");
+	private static final Pattern PAGE = Pattern.compile(
+			"id=\"pagenum(\\d+)\".*?<div class=\"page\"><table>(.*?)</table>\\n</div>\\n(?:<div class=\"text\"><table>(.*?)</table>)?",
+			Pattern.DOTALL);
+	private static final Pattern CELL = Pattern.compile("<td class=\"([^\"]*)\"(?: style=\"height: (\\d+)px;\")?(?: data-length=\"(\\d+)\")?>([^<]*)</td>");
+	private static final Pattern ROWGAP_STYLE = Pattern.compile("td\\.(rg\\d+) \\{height: (\\d+)px;\\}");
+	private static final Keys[] FONTS = {Keys.brailleFont, Keys.textFont};
+	private static final Map<Keys, String> fonts = new HashMap<>();
+	private static File file;
+	private static PEFBook book;
+
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		// The expected output has English labels
+		assumeTrue("Volume".equals(Messages.XSLT_VOLUME_LABEL.localize()));
+		// Fonts in the settings add styles to the preview
+		for (Keys k : FONTS) {
+			String v = Settings.getSettings().getString(k);
+			if (v!=null) {
+				fonts.put(k, v);
+				Settings.getSettings().resetKey(k);
+			}
+		}
+		file = File.createTempFile("StaxPreviewParserTest", ".pef");
+		try (InputStream is = StaxPreviewParserTest.class.getResourceAsStream("resource-files/book.pef")) {
+			Files.copy(is, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		book = PEFBook.load(file.toURI());
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+		for (Map.Entry<Keys, String> e : fonts.entrySet()) {
+			Settings.getSettings().put(e.getKey(), e.getValue());
+		}
+		fonts.clear();
+		if (file!=null) {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testSequential() throws IOException, XMLStreamException {
+		for (String mode : MODES) {
+			StaxPreviewParser parser = new StaxPreviewParser(book, report(mode));
+			parser.staxParse();
+			List<File> volumes = parser.getVolumes();
+			assertEquals(2, volumes.size());
+			for (int i=0; i<volumes.size(); i++) {
+				assertOutput(mode, i+1, volumes.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void testPerVolume() throws IOException, XMLStreamException {
+		VolumeIndex index = VolumeIndex.scan(file).get();
+		for (String mode : MODES) {
+			// Rendered in reverse order, like a volume that is requested first
+			List<VolumeIndex.Volume> volumes = index.getVolumes();
+			for (int i=volumes.size()-1; i>=0; i--) {
+				VolumeIndex.Volume v = volumes.get(i);
+				assertOutput(mode, v.getNumber(), new StaxPreviewParser(book, report(mode)).staxParse(index, v));
+			}
+		}
+	}
+
+	private static ValidationReport report(String mode) throws IOException {
+		ValidationReport.Builder b = new ValidationReport.Builder(file.toURI().toURL());
+		if ("messages".equals(mode)) {
+			// On the first row of the book and on the first page of the last section
+			b.addMessage(ValidatorMessage.with(ValidatorMessage.Type.ERROR).lineNumber(14).columnNumber(11).message("Error on a row").build());
+			b.addMessage(ValidatorMessage.with(ValidatorMessage.Type.WARNING).lineNumber(41).columnNumber(5).message("Warning on a page").build());
+		}
+		return b.build();
+	}
+
+	private static void assertOutput(String mode, int volume, File actual) throws IOException {
+		String name = "book-" + mode + "-" + volume + ".html";
+		String exp;
+		try (InputStream is = StaxPreviewParserTest.class.getResourceAsStream("resource-files/" + name)) {
+			exp = read(is);
+		}
+		String res;
+		try (InputStream is = Files.newInputStream(actual.toPath())) {
+			res = read(is);
+		} finally {
+			actual.delete();
+		}
+		exp = translateTextView(exp);
+		if (!FeatureSwitch.LAZY_TEXT_VIEW.isOn() && !FeatureSwitch.COMPACT_PREVIEW.isOn() && !FeatureSwitch.SHARED_NAVIGATION.isOn()) {
+			assertEquals(name, exp, res);
+		} else {
+			assertEquals(name, pages(exp), pages(res));
+			if (FeatureSwitch.LAZY_TEXT_VIEW.isOn()) {
+				assertFalse(name, res.contains("<div class=\"text\">"));
+			}
+		}
+	}
+
+	/*
+	 * The expected output was rendered without a braille table, so the text view contains
+	 * braille. Translates it with the table of the current settings.
+	 */
+	private static String translateTextView(String html) {
+		TextTable t = TextTable.getInstance();
+		Matcher m = TEXT_CELL.matcher(html);
+		StringBuffer sb = new StringBuffer();
+		while (m.find()) {
+			char[] c = m.group(2).toCharArray();
+			t.translate(c, 0, c.length, c);
+			String text = new String(c).replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+			m.appendReplacement(sb, Matcher.quoteReplacement(m.group(1) + text + m.group(3)));
+		}
+		m.appendTail(sb);
+		return sb.toString();
+	}
+
+	/*
+	 * Describes the page tables as they are shown: the width of the table and the class, height
+	 * and contents of each row. The contents of a row end where the text view ends, or where
+	 * data-length says, so trailing blank cells in the book are kept apart from the padding.
+	 * Consecutive empty rows are described as one, with their total height.
+	 */
+	private static List<String> pages(String html) {
+		Map<String, String> heights = new HashMap<>();
+		Matcher s = ROWGAP_STYLE.matcher(html);
+		while (s.find()) {
+			heights.put(s.group(1), s.group(2));
+		}
+		List<String> ret = new ArrayList<>();
+		Matcher p = PAGE.matcher(html);
+		while (p.find()) {
+			List<String[]> braille = cells(p.group(2));
+			List<String[]> text = p.group(3)!=null?cells(p.group(3)):null;
+			StringBuilder sb = new StringBuilder("page ").append(p.group(1))
+					.append(" width ").append(braille.isEmpty()?0:braille.get(0)[3].length());
+			int filler = 0;
+			for (int i=0; i<braille.size(); i++) {
+				String[] c = braille.get(i);
+				StringBuilder cl = new StringBuilder();
+				String height = c[1];
+				for (String v : c[0].split(" ")) {
+					if (v.startsWith("rg")) {
+						height = heights.get(v);
+					} else {
+						cl.append(cl.length()>0?" ":"").append(v);
+					}
+				}
+				if ("&nbsp;".equals(c[3])) {
+					filler += Integer.parseInt(height);
+					continue;
+				} else if (filler>0) {
+					sb.append(" | filler ").append(filler).append("px");
+					filler = 0;
+				}
+				int len;
+				if (text!=null) {
+					len = text.get(i)[3].replaceAll("(&nbsp;)*$", "").replaceAll("&[a-z]+;", "_").length();
+				} else if (c[2]!=null) {
+					len = Integer.parseInt(c[2]);
+				} else {
+					len = c[3].replaceAll("⠀*$", "").length();
+				}
+				sb.append(" | ").append(cl).append(' ').append(height).append("px ").append(c[3].substring(0, len));
+			}
+			if (filler>0) {
+				sb.append(" | filler ").append(filler).append("px");
+			}
+			ret.add(sb.toString());
+		}
+		return ret;
+	}
+
+	private static List<String[]> cells(String table) {
+		List<String[]> ret = new ArrayList<>();
+		Matcher m = CELL.matcher(table);
+		while (m.find()) {
+			ret.add(new String[]{m.group(1), m.group(2), m.group(3), m.group(4)});
+		}
+		return ret;
+	}
+
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int len;
+		while ((len = in.read(buf))>-1) {
+			out.write(buf, 0, len);
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
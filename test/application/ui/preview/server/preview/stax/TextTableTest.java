@@ -0,0 +1,53 @@
+package application.ui.preview.server.preview.stax;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.daisy.dotify.api.table.BrailleConstants;
+import org.daisy.dotify.common.text.ConditionalMapper;
+import org.daisy.dotify.common.text.SimpleUCharReplacer;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TextTableTest {
+	private static final String PATTERNS = BrailleConstants.BRAILLE_PATTERNS_64;
+	private static final String TRANSLATION = " A1B'K2L@CIF/MSP\"E3H9O6R^DJG>NTQ,*5<-U8V.%[$+X!&;:4\\0Z7(_?W]#Y)=";
+
+	@Test
+	public void testNumbers() {
+		TextTable t = TextTable.newInstance("", "");
+		assertEquals("⠼12⠂3⠀⠁ ⠁⠼0⠼9", t.translate("⠼⠁⠃⠂⠉⠀⠁ ⠁⠼⠚⠼⠊"));
+	}
+
+	@Test
+	public void testTranslation() {
+		TextTable t = TextTable.newInstance(PATTERNS, TRANSLATION);
+		assertEquals("#1213 A", t.translate("⠼⠁⠃⠂⠉⠀⠁"));
+	}
+
+	@Test
+	public void testSameAsMappers() {
+		// The previous implementation of the text view
+		ConditionalMapper numbers = ConditionalMapper.withTrigger('⠼')
+				.map("⠚⠁⠃⠉⠙⠑⠋⠛⠓⠊", "0123456789")
+				.putIgnorable('⠄')
+				.putIgnorable('⠂')
+				.build();
+		SimpleUCharReplacer cr = new SimpleUCharReplacer();
+		for (int i=0; i<PATTERNS.length(); i++) {
+			cr.put((int)PATTERNS.charAt(i), "" + TRANSLATION.charAt(i));
+		}
+		TextTable t = TextTable.newInstance(PATTERNS, TRANSLATION);
+		String input = "⠼⠚⠁⠃⠉⠙⠑⠋⠛⠓⠊⠄⠂⠀⠿⣿⡀ x";
+		Random r = new Random(1);
+		for (int i=0; i<1000; i++) {
+			StringBuilder sb = new StringBuilder();
+			for (int j=0; j<r.nextInt(20); j++) {
+				sb.append(input.charAt(r.nextInt(input.length())));
+			}
+			String s = sb.toString();
+			assertEquals(s, cr.replace(numbers.replace(s)).toString(), t.translate(s));
+		}
+	}
+}
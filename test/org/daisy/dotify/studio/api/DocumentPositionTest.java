@@ -70,5 +70,42 @@ public class DocumentPositionTest {
 		assertEquals(lc2, lc.get(1));
 		assertEquals(lc3, lc.get(2));
 	}
+	
+	@Test
+	public void testPack_01() {
+		DocumentPosition lc1 = DocumentPosition.with(12, 34);
+		long p = lc1.toLong();
+		assertEquals(12, DocumentPosition.unpackLine(p));
+		assertEquals(34, DocumentPosition.unpackColumn(p));
+		assertEquals(lc1, DocumentPosition.fromLong(p));
+	}
+	
+	@Test
+	public void testPack_02() {
+		int[] values = {Integer.MIN_VALUE, -1, 0, 1, 2, Integer.MAX_VALUE};
+		for (int line : values) {
+			for (int column : values) {
+				DocumentPosition lc = DocumentPosition.fromLong(DocumentPosition.pack(line, column));
+				assertEquals(line, lc.getLineNumber());
+				assertEquals(column, lc.getColumnNumber());
+			}
+		}
+	}
+	
+	@Test
+	public void testPackOrder() {
+		int[] values = {Integer.MIN_VALUE, -1, 0, 1, 2, Integer.MAX_VALUE};
+		List<DocumentPosition> lc = new ArrayList<>();
+		for (int line : values) {
+			for (int column : values) {
+				lc.add(DocumentPosition.with(line, column));
+			}
+		}
+		for (DocumentPosition lc1 : lc) {
+			for (DocumentPosition other : lc) {
+				assertEquals(lc1.isBefore(other), lc1.toLong()<other.toLong());
+			}
+		}
+	}
 
 }